@@ -0,0 +1,95 @@
+package org.nsu.syspro.parprog.benchmarks;
+
+import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.CompilationThreadPool.Dispatch;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Request-to-code latency and throughput of {@link CompilationThreadPool} with platform worker threads versus a virtual
+ * thread per request.
+ * <br>
+ * {@code single} measures one request on an idle pool: worker wake-up versus virtual thread start.
+ * {@code burst} measures {@value #BURST} requests submitted at once, so most of them wait for a lane slot.
+ * Compilation either returns immediately or parks for {@code compileMicros}, like a compiler waiting for I/O.
+ * Every request uses a fresh method: compilation state is global and a method is compiled at most once per level.
+ * <pre>
+ * java -jar target/benchmarks.jar CompilerPool                    # latency, us/op
+ * java -jar target/benchmarks.jar CompilerPool -bm thrpt          # throughput, ops/us
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerPoolBenchmark {
+    private static final int BURST = 64;
+    // far from ids of other benchmarks, never reused across trials
+    private static final AtomicLong nextMethodID = new AtomicLong(1L << 40);
+
+    @Param({"PLATFORM_POOL", "VIRTUAL_THREADS"})
+    public Dispatch dispatch;
+
+    @Param({"0", "100"})
+    public long compileMicros;
+
+    private CompilationThreadPool pool;
+    @SuppressWarnings("unchecked")
+    private final CompletableFuture<CompiledMethod>[] inFlight = new CompletableFuture[BURST];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final long compileNanos = TimeUnit.MICROSECONDS.toNanos(compileMicros);
+        final CompilationEngine compiler = new CompilationEngine() {
+            private CompiledMethod compile(MethodID method) {
+                if (compileNanos > 0) {
+                    LockSupport.parkNanos(compileNanos);
+                }
+                return new NoopEngines.Code(method);
+            }
+
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return compile(method);
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile(method);
+            }
+        };
+        pool = new CompilationThreadPool(compiler, NoopEngines.COMPILATION_THREAD_BOUND, dispatch);
+    }
+
+    private static MethodID freshMethod() {
+        return new NoopEngines.Method(nextMethodID.getAndIncrement());
+    }
+
+    @Benchmark
+    public CompiledMethod single() {
+        return pool.compile(CompilationLevel.L1, freshMethod()).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public CompiledMethod burst() {
+        for (int i = 0; i < BURST; i++) {
+            inFlight[i] = pool.compile(CompilationLevel.L1, freshMethod());
+        }
+        CompiledMethod last = null;
+        for (int i = 0; i < BURST; i++) {
+            last = inFlight[i].join();
+        }
+        return last;
+    }
+}
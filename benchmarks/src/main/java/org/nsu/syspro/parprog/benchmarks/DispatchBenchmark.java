@@ -0,0 +1,69 @@
+package org.nsu.syspro.parprog.benchmarks;
+
+import org.nsu.syspro.parprog.UserThread;
+import org.nsu.syspro.parprog.external.ExecutionResult;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link UserThread#executeMethod} over no-op engines, compare with {@link EngineBaselineBenchmark}.
+ * <br>
+ * Every benchmark thread owns its {@link UserThread} and calls methods of the working set round-robin.
+ * Working sets of 1 and 50 methods are warmed up past `Eventual-per-thread-progress-2` during setup, so they measure
+ * the steady state. 100k methods can not be warmed up in reasonable time: they measure cache misses, table growth and
+ * compilation requests, i.e. the start-up path.
+ * <br>
+ * Typical runs (after {@code mvn install} in the root and {@code mvn package} here):
+ * <pre>
+ * java -jar target/benchmarks.jar Dispatch                        # latency, ns/op, 1 thread
+ * java -jar target/benchmarks.jar Dispatch -bm thrpt -t 4         # throughput with 4 user threads
+ * java -jar target/benchmarks.jar Dispatch -prof gc               # allocation rate, B/op
+ * java -jar target/benchmarks.jar Dispatch -p implementation=solution -p workingSet=50
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final int WARM_UP_CALLS = 100_001;
+
+    @Param({"solution", "interpreter", "adaptive", "caching"})
+    public String implementation;
+
+    @Param({"1", "50", "100000"})
+    public int workingSet;
+
+    private UserThread thread;
+    private MethodID[] methods;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        thread = NoopEngines.userThread(implementation);
+        methods = NoopEngines.methods(workingSet);
+        if (workingSet <= 50) {
+            for (int i = 0; i < WARM_UP_CALLS; i++) {
+                for (MethodID method : methods) {
+                    thread.executeMethod(method);
+                }
+            }
+            // let asynchronous compilations land and get installed by the next calls
+            Thread.sleep(100);
+            for (MethodID method : methods) {
+                thread.executeMethod(method);
+            }
+        }
+    }
+
+    @Benchmark
+    public ExecutionResult executeMethod() {
+        final MethodID method = methods[next];
+        next = next + 1 == methods.length ? 0 : next + 1;
+        return thread.executeMethod(method);
+    }
+}
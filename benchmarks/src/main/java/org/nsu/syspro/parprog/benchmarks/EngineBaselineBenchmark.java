@@ -0,0 +1,52 @@
+package org.nsu.syspro.parprog.benchmarks;
+
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.ExecutionResult;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Direct calls of no-op {@link org.nsu.syspro.parprog.external.ExecutionEngine}: the part of
+ * {@link DispatchBenchmark} results which is not dispatch overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBaselineBenchmark {
+    @Param({"1", "50", "100000"})
+    public int workingSet;
+
+    private MethodID[] methods;
+    private CompiledMethod[] code;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        methods = NoopEngines.methods(workingSet);
+        code = new CompiledMethod[workingSet];
+        for (int i = 0; i < workingSet; i++) {
+            code[i] = NoopEngines.COMPILER.compile_l2(methods[i]);
+        }
+    }
+
+    private int nextIndex() {
+        final int i = next;
+        next = i + 1 == methods.length ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public ExecutionResult interpret() {
+        return NoopEngines.EXEC.interpret(methods[nextIndex()]);
+    }
+
+    @Benchmark
+    public ExecutionResult execute() {
+        return NoopEngines.EXEC.execute(code[nextIndex()]);
+    }
+}
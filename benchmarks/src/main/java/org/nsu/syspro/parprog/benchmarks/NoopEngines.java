@@ -0,0 +1,96 @@
+package org.nsu.syspro.parprog.benchmarks;
+
+import org.nsu.syspro.parprog.UserThread;
+import org.nsu.syspro.parprog.examples.AdaptiveCompiler;
+import org.nsu.syspro.parprog.examples.CachingTopTierJIT;
+import org.nsu.syspro.parprog.examples.Interpreter;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.solution.SolutionThread;
+
+/**
+ * Engines which do no work at all, so benchmarks measure only what {@link UserThread#executeMethod} adds on top of
+ * {@link ExecutionEngine}. Execution does not allocate, compilation allocates one small object.
+ */
+final class NoopEngines {
+    static final int COMPILATION_THREAD_BOUND = 4;
+
+    static final ExecutionEngine EXEC = new ExecutionEngine() {
+        @Override
+        public ExecutionResult interpret(MethodID id) {
+            return INTERPRETED;
+        }
+
+        @Override
+        public ExecutionResult execute(CompiledMethod method) {
+            return EXECUTED;
+        }
+    };
+
+    static final CompilationEngine COMPILER = new CompilationEngine() {
+        @Override
+        public CompiledMethod compile_l1(MethodID method) {
+            return new Code(method);
+        }
+
+        @Override
+        public CompiledMethod compile_l2(MethodID method) {
+            return new Code(method);
+        }
+    };
+
+    private static final ExecutionResult INTERPRETED = new ExecutionResult() {
+    };
+    private static final ExecutionResult EXECUTED = new ExecutionResult() {
+    };
+
+    static final class Method implements MethodID {
+        private final long id;
+
+        Method(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public long id() {
+            return id;
+        }
+    }
+
+    static final class Code implements CompiledMethod {
+        private final MethodID method;
+
+        Code(MethodID method) {
+            this.method = method;
+        }
+
+        @Override
+        public MethodID id() {
+            return method;
+        }
+    }
+
+    static Method[] methods(int count) {
+        final Method[] methods = new Method[count];
+        for (int i = 0; i < count; i++) {
+            methods[i] = new Method(i);
+        }
+        return methods;
+    }
+
+    /**
+     * Thread object is never started: benchmark thread calls {@link UserThread#executeMethod} directly, which is fine
+     * as long as every instance is used by a single thread.
+     */
+    static UserThread userThread(String implementation) {
+        return switch (implementation) {
+            case "solution" -> new SolutionThread(COMPILATION_THREAD_BOUND, EXEC, COMPILER, null);
+            case "interpreter" -> new Interpreter(COMPILATION_THREAD_BOUND, EXEC, COMPILER, null);
+            case "adaptive" -> new AdaptiveCompiler(COMPILATION_THREAD_BOUND, EXEC, COMPILER, null);
+            case "caching" -> new CachingTopTierJIT(COMPILATION_THREAD_BOUND, EXEC, COMPILER, null);
+            default -> throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        };
+    }
+
+    private NoopEngines() {
+    }
+}
@@ -0,0 +1,48 @@
+package org.nsu.syspro.parprog;
+
+/**
+ * Split of {@link UserThread#compilationThreadBound} between compilation tiers.
+ * <br>
+ * L1 and L2 requests are dispatched in separate lanes. Each lane has reserved capacity which the other lane never
+ * uses, the remaining {@code sharedOverflow} slots go to whichever lane has the most urgent queued request. A burst of
+ * slow L2 compilations therefore can not delay cheap L1 compilations beyond the reserved L1 capacity.
+ * <br>
+ * `Thread-bound-compilation` holds since {@code l1Reserved + l2Reserved + sharedOverflow <= compilationThreadBound}.
+ */
+public final class CompilationLanes {
+    public final int l1Reserved;
+    public final int l2Reserved;
+    public final int sharedOverflow;
+
+    public CompilationLanes(int l1Reserved, int l2Reserved, int sharedOverflow) {
+        this.l1Reserved = l1Reserved;
+        this.l2Reserved = l2Reserved;
+        this.sharedOverflow = sharedOverflow;
+        if (l1Reserved < 0 || l2Reserved < 0 || sharedOverflow < 0) {
+            throw new IllegalArgumentException("Negative lane capacity: " + this);
+        }
+        if (l1Reserved + sharedOverflow == 0 || l2Reserved + sharedOverflow == 0) {
+            throw new IllegalArgumentException("Each lane needs reserved or overflow capacity: " + this);
+        }
+    }
+
+    /**
+     * One reserved slot per tier, everything else is shared.
+     */
+    public static CompilationLanes defaultFor(int compilationThreadBound) {
+        if (compilationThreadBound < 2) {
+            return new CompilationLanes(0, 0, compilationThreadBound);
+        }
+        return new CompilationLanes(1, 1, compilationThreadBound - 2);
+    }
+
+    public int total() {
+        return l1Reserved + l2Reserved + sharedOverflow;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompilationLanes(l1Reserved=%d, l2Reserved=%d, sharedOverflow=%d)",
+                l1Reserved, l2Reserved, sharedOverflow);
+    }
+}
@@ -5,68 +5,740 @@ import org.nsu.syspro.parprog.external.CompiledMethod;
 import org.nsu.syspro.parprog.external.MethodID;
 import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
 
-import java.util.HashMap;
+import java.util.PriorityQueue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Compilation threads fed by tier-aware priority queues.
+ * <br>
+ * Requests are ordered by {@link CompileTask virtual deadline} derived from the benefit score
+ * {@code invocationRate * expectedSpeedup(level)}, so the hottest methods are compiled first when many of them cross
+ * thresholds at once, while aging guarantees that lukewarm methods are compiled eventually.
+ * Requests for an already queued method do not create new tasks but may move the queued one forward.
+ * <br>
+ * L1 and L2 requests wait in separate lanes, capacity of lanes is described by {@link CompilationLanes}. The dispatcher
+ * hands a task to a compilation thread only together with a lane slot, so the executor never has more than
+ * {@link CompilationLanes#total()} running tasks and its own queue is always empty.
+ * Dispatching is guarded by a single lock which is taken only after user method execution and by compilation threads.
+ * Requests, queue wait, compilation durations and lock wait/hold times are recorded into {@link JitMetrics} of the pool.
+ * <br>
+ * Only work which still matters is compiled: L2 request for a method whose L1 request is still queued replaces it,
+ * queued requests can be {@link #cancel cancelled}, and every lane holds at most {@code queueCapacity} requests, the
+ * overflow is handled by the {@link Admission} policy. Rejected and cancelled requests complete their futures with
+ * {@link CancellationException}, the next request of the method queues it anew. Urgent requests (somebody is going to
+ * wait for the code) bypass admission and are never cancelled. Weak point: finding the coldest request scans the full
+ * lane, which is fine only because it happens when the lane is already at capacity.
+ * <br>
+ * Method states are per pool, so pools of different engines never share code or compilation budget. A pool is
+ * {@link #drain drained} (only urgent requests are admitted) and {@link #shutdown shut down} by its owner, after which
+ * its threads exit once the running compilations finish.
+ * <br>
+ * With {@link Workers#ADAPTIVE} the shared overflow slots are used only while {@link WorkerScaler} allows more running
+ * compilations, so a short backlog or a loaded host is served by the reserved slots alone and idle workers exit soon.
+ * <br>
+ * With {@link Dispatch#VIRTUAL_THREADS} requests are queued, prioritized, admitted and cancelled exactly as above, but
+ * every dispatched task runs in a virtual thread of its own instead of a platform compilation thread, so an idle pool
+ * keeps no threads at all. Each of them compiles only with a permit of a fair semaphore of
+ * {@code compilationThreadBound} permits (`Thread-bound-compilation` does not depend on the lane accounting, permits
+ * are granted in dispatch order). Weak point: a compilation engine which blocks inside {@code synchronized} pins the
+ * carrier thread, so on few cores fewer compilations may run at once than the lanes allow.
+ */
 public class CompilationThreadPool {
     private final CompilationEngine compilationEngine;
 
-    private static final HashMap<MethodID, Integer> compile_l1_counter = new HashMap<>();
-    private static final HashMap<MethodID, Integer> compile_l2_counter = new HashMap<>();
-    private static final Lock lock = new ReentrantLock();
+    // Per-method state machines, see MethodCompilationState: one method is compiled at most once per level and pool
+    private final ConcurrentMap<Long, MethodCompilationState> states = new ConcurrentHashMap<>();
 
+    private final CompilationLanes lanes;
+    private final Lane l1Lane;
+    private final Lane l2Lane;
+    private int overflowInUse = 0;
+    private final Lock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final JitMetrics metrics = new JitMetrics();
+
+    private static final long IDLE_WORKER_SECONDS = 60;
+    private static final long ADAPTIVE_IDLE_WORKER_SECONDS = 1;
     private final ExecutorService service;
+    private final WorkerScaler scaler;
+
+    private final Admission admission;
+    private final int queueCapacity;
+
+    // Lifecycle, see drain() and shutdown(): only urgent requests are admitted while draining, none after shutdown
+    private volatile boolean draining = false;
+    private volatile boolean stopped = false;
+
+    private final Dispatch dispatch;
+    // compilations running in virtual threads, null with a platform pool
+    private final Semaphore virtualCompilations;
+
+    private static final CompilationListener NO_LISTENER = (method, level, nanos) -> {
+    };
+    private volatile CompilationListener listener = NO_LISTENER;
+
+    /**
+     * Observer of successful compilations, called in the compilation thread before requesters get the code.
+     */
+    @FunctionalInterface
+    public interface CompilationListener {
+        /**
+         * @param nanos duration of the compilation as recorded into {@link JitMetrics} of the pool
+         */
+        void compiled(MethodID method, CompilationLevel level, long nanos);
+    }
+
+    /**
+     * How compilation requests get a thread.
+     */
+    public enum Dispatch {
+        /**
+         * Lane dispatcher feeding a fixed set of platform threads, which time out when idle.
+         */
+        PLATFORM_POOL,
+        /**
+         * The same lane dispatcher starting a virtual thread per dispatched task, which compiles holding a permit of a
+         * fair semaphore of {@code compilationThreadBound} permits.
+         */
+        VIRTUAL_THREADS;
+
+        public static final String PROPERTY = "jit.compiler.dispatch";
+
+        /**
+         * @return value of {@code -Djit.compiler.dispatch=platform_pool|virtual_threads}, {@link #PLATFORM_POOL} if unset
+         */
+        public static Dispatch configured() {
+            return valueOf(System.getProperty(PROPERTY, PLATFORM_POOL.name()).toUpperCase());
+        }
+    }
+
+    /**
+     * How many compilations run at once with {@link Dispatch#PLATFORM_POOL}.
+     */
+    public enum Workers {
+        /**
+         * Every lane slot is used as soon as there is a request for it.
+         */
+        FIXED,
+        /**
+         * Reserved lane slots are always used, shared overflow slots only as {@link WorkerScaler} allows.
+         */
+        ADAPTIVE;
+
+        public static final String PROPERTY = "jit.compiler.workers";
+
+        /**
+         * @return value of {@code -Djit.compiler.workers=fixed|adaptive}, {@link #ADAPTIVE} if unset
+         */
+        public static Workers configured() {
+            return valueOf(System.getProperty(PROPERTY, ADAPTIVE.name()).toUpperCase());
+        }
+
+        WorkerScaler scalerFor(CompilationLanes lanes) {
+            return this == ADAPTIVE ? WorkerScaler.adaptive(lanes) : WorkerScaler.fixed(lanes.sharedOverflow);
+        }
+    }
+
+    /**
+     * What a full lane does with one more request.
+     */
+    public enum Admission {
+        /**
+         * The coldest request of the lane (latest virtual deadline, may be the incoming one) is rejected.
+         */
+        REJECT_COLDEST,
+        /**
+         * The coldest L1 request is coalesced with the future L2 request of the same method into a single L2
+         * compilation if the L2 lane has room, so it is compiled once and later instead of not at all. Otherwise,
+         * and for the L2 lane, as {@link #REJECT_COLDEST}.
+         */
+        COALESCE;
+
+        public static final String PROPERTY = "jit.compiler.admission";
+        public static final String CAPACITY_PROPERTY = "jit.compiler.queueCapacity";
+        private static final int DEFAULT_CAPACITY = 1024;
+
+        /**
+         * @return value of {@code -Djit.compiler.admission=reject_coldest|coalesce}, {@link #REJECT_COLDEST} if unset
+         */
+        public static Admission configured() {
+            return valueOf(System.getProperty(PROPERTY, REJECT_COLDEST.name()).toUpperCase());
+        }
+
+        /**
+         * @return value of {@code -Djit.compiler.queueCapacity=<n>} (requests per lane), 1024 if unset
+         */
+        public static int configuredCapacity() {
+            return Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+        }
+    }
 
     public CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound) {
+        this(compilationEngine, compilationThreadBound, Dispatch.configured());
+    }
+
+    public CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, Dispatch dispatch) {
+        this(compilationEngine, compilationThreadBound, CompilationLanes.defaultFor(compilationThreadBound), dispatch,
+                Admission.configured(), Admission.configuredCapacity(),
+                Workers.configured().scalerFor(CompilationLanes.defaultFor(compilationThreadBound)));
+    }
+
+    public CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, CompilationLanes lanes) {
+        this(compilationEngine, compilationThreadBound, lanes, Admission.configured(), Admission.configuredCapacity());
+    }
+
+    public CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, CompilationLanes lanes,
+                                 Admission admission, int queueCapacity) {
+        this(compilationEngine, compilationThreadBound, lanes, Dispatch.PLATFORM_POOL, admission, queueCapacity);
+    }
+
+    public CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, CompilationLanes lanes,
+                                 Dispatch dispatch, Admission admission, int queueCapacity) {
+        this(compilationEngine, compilationThreadBound, lanes, dispatch, admission, queueCapacity,
+                Workers.configured().scalerFor(lanes));
+    }
+
+    CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, CompilationLanes lanes,
+                          WorkerScaler scaler) {
+        this(compilationEngine, compilationThreadBound, lanes, Dispatch.PLATFORM_POOL, Admission.configured(),
+                Admission.configuredCapacity(), scaler);
+    }
+
+    private CompilationThreadPool(CompilationEngine compilationEngine, int compilationThreadBound, CompilationLanes lanes,
+                                  Dispatch dispatch, Admission admission, int queueCapacity, WorkerScaler scaler) {
+        if (lanes.total() > compilationThreadBound) {
+            throw new IllegalArgumentException(lanes + " exceeds compilation thread bound " + compilationThreadBound);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity " + queueCapacity);
+        }
+        this.admission = admission;
+        this.queueCapacity = queueCapacity;
         this.compilationEngine = compilationEngine;
-        service = Executors.newFixedThreadPool(compilationThreadBound);
+        this.lanes = lanes;
+        this.l1Lane = new Lane(CompilationLevel.L1, lanes.l1Reserved);
+        this.l2Lane = new Lane(CompilationLevel.L2, lanes.l2Reserved);
+        this.dispatch = dispatch;
+        this.scaler = scaler;
+        this.virtualCompilations = dispatch == Dispatch.VIRTUAL_THREADS
+                ? new Semaphore(compilationThreadBound, true)
+                : null;
+        switch (dispatch) {
+            case PLATFORM_POOL -> {
+                final AtomicInteger workerIds = new AtomicInteger();
+                final ThreadPoolExecutor executor = new ThreadPoolExecutor(lanes.total(), lanes.total(),
+                        scaler.adaptive() ? ADAPTIVE_IDLE_WORKER_SECONDS : IDLE_WORKER_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread worker = new Thread(r, "jit-compiler-" + workerIds.getAndIncrement());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+                // compilations come in bursts during warm-up, idle workers should not be kept forever
+                executor.allowCoreThreadTimeOut(true);
+                this.service = executor;
+            }
+            // lane slots bound running tasks, so the executor never has more than lanes.total() threads either
+            case VIRTUAL_THREADS ->
+                    this.service = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jit-compiler-v", 0).factory());
+            default -> throw new IllegalArgumentException(dispatch.toString());
+        }
     }
 
-    private static void increment(CompilationLevel compilationLevel, MethodID methodID) {
-        var counter = switch (compilationLevel) {
-            case L1 -> compile_l1_counter;
-            case L2 -> compile_l2_counter;
-        };
+    private static final class Lane {
+        final CompilationLevel level;
+        final int reserved;
+        final PriorityQueue<CompileTask> queue = new PriorityQueue<>();
+        int running = 0;
+        int overflowRunning = 0;
+        int peakRunning = 0;
+        long completed = 0;
+
+        Lane(CompilationLevel level, int reserved) {
+            this.level = level;
+            this.reserved = reserved;
+        }
+
+        boolean hasReservedSlot() {
+            return running - overflowRunning < reserved;
+        }
 
-        var current = counter.getOrDefault(methodID, 0) + 1;
-        counter.put(methodID, current);
+        long headDeadline() {
+            return queue.isEmpty() ? Long.MAX_VALUE : queue.peek().deadlineNanos();
+        }
     }
 
-    private static int get(CompilationLevel compilationLevel, MethodID methodID) {
-        var counter = switch (compilationLevel) {
-            case L1 -> compile_l1_counter;
-            case L2 -> compile_l2_counter;
+    private Lane laneOf(CompilationLevel level) {
+        return switch (level) {
+            case L1 -> l1Lane;
+            case L2 -> l2Lane;
         };
-        return counter.getOrDefault(methodID, 0);
     }
 
-    private CompiledMethod compilationProcess(CompilationLevel compilationLevel, MethodID methodID) {
-        // This lock doesn't break Weak-worst-case-latency constraint because it doesn't happen
-        // inside threads which perform executeMethod(id)
+    private MethodCompilationState stateOf(MethodID methodID) {
+        final MethodCompilationState existing = states.get(methodID.id());
+        if (existing != null) {
+            return existing;
+        }
+        final MethodCompilationState created = new MethodCompilationState();
+        final MethodCompilationState raced = states.putIfAbsent(methodID.id(), created);
+        return raced != null ? raced : created;
+    }
+
+    /**
+     * @return moment the lock was acquired, to be passed to {@link #release}
+     */
+    private long acquire() {
+        if (lock.tryLock()) {
+            return System.nanoTime();
+        }
+        final long start = System.nanoTime();
+        lock.lock();
+        final long acquired = System.nanoTime();
+        metrics.lockWait(JitMetrics.LockSite.COMPILATION_POOL, acquired - start);
+        return acquired;
+    }
+
+    private void release(long acquiredNanos) {
+        final long held = System.nanoTime() - acquiredNanos;
+        if (isIdle()) {
+            idle.signalAll();
+        }
+        lock.unlock();
+        metrics.lockHold(JitMetrics.LockSite.COMPILATION_POOL, held);
+    }
+
+    private void submit(MethodCompilationState state, CompilationLevel compilationLevel, MethodID methodID,
+                        double invocationRate, boolean urgent) {
+        final CompileTask task = new CompileTask(state, compilationLevel, methodID, invocationRate, System.nanoTime());
+        task.urgent = urgent;
+        metrics.requestSubmitted(compilationLevel);
+        final long acquired = acquire();
         try {
-            // Condition with mutex for case when we got at least two parallel tasks to compile the method with the exact id
-            // we allow 1 compilation depending on the level. Requests left are skipped (via returning null)
-            lock.lock();
-            var l_counter = get(compilationLevel, methodID);
-            if (l_counter <= 0) {
-                increment(compilationLevel, methodID);
+            if (stopped || (!urgent && draining)) {
+                reject(task);
+                return;
+            }
+            state.setQueuedTask(task);
+            final Lane lane = laneOf(compilationLevel);
+            lane.queue.add(task);
+            rescale();
+            dispatch();
+            if (lane.queue.size() > queueCapacity) {
+                admit(lane);
+            }
+        } finally {
+            release(acquired);
+        }
+    }
+
+    /**
+     * Applies a duplicate request to the queued one: L2 supersedes queued L1, urgency pins it, hotness moves it forward.
+     */
+    private void attach(MethodCompilationState state, CompilationLevel compilationLevel, double invocationRate,
+                        boolean urgent) {
+        final CompileTask task = state.queuedTask();
+        if (task == null) {
+            return;
+        }
+        final boolean supersedes = compilationLevel == CompilationLevel.L2 && task.level == CompilationLevel.L1;
+        if (!supersedes && !urgent && (task.level != compilationLevel || !task.wouldImprove(invocationRate))) {
+            return;
+        }
+        final long acquired = acquire();
+        try {
+            // queue and deadline are changed only while the task is out of the queue;
+            // failed removal means it is already compiling or was cancelled
+            final Lane lane = laneOf(task.level);
+            if (state.queuedTask() != task || !lane.queue.remove(task)) {
+                return;
+            }
+            if (supersedes && !task.urgent) {
+                // L1 code would be replaced by L2 as soon as it lands: compile L2 only, in place of the L1 request
+                state.supersedeL1();
+                metrics.requestCancelled(CompilationLevel.L1);
+                requeue(task, CompilationLevel.L2, Math.max(invocationRate, task.invocationRate()), urgent);
+                return;
+            }
+            task.urgent |= urgent;
+            if (task.level == compilationLevel) {
+                task.reprioritize(invocationRate);
+            }
+            lane.queue.add(task);
+        } finally {
+            release(acquired);
+        }
+    }
+
+    /**
+     * Queues a request of {@code level} for the method of {@code task}, which has just been removed from its lane,
+     * bypassing admission: it takes the place of that request.
+     */
+    private void requeue(CompileTask task, CompilationLevel level, double invocationRate, boolean urgent) {
+        final CompileTask replacement = new CompileTask(task.state, level, task.method, invocationRate, System.nanoTime());
+        replacement.urgent = urgent;
+        metrics.requestSubmitted(level);
+        task.state.setQueuedTask(replacement);
+        laneOf(level).queue.add(replacement);
+        dispatch();
+    }
+
+    /**
+     * Brings an overflown lane back to its capacity according to {@link #admission}.
+     */
+    private void admit(Lane lane) {
+        assert ((ReentrantLock) lock).isHeldByCurrentThread();
+        while (lane.queue.size() > queueCapacity) {
+            CompileTask coldest = null;
+            for (CompileTask task : lane.queue) {
+                if (!task.urgent && (coldest == null || task.compareTo(coldest) > 0)) {
+                    coldest = task;
+                }
+            }
+            if (coldest == null) {
+                return; // only urgent requests, bounded by the number of waiting threads
+            }
+            lane.queue.remove(coldest);
+            if (admission == Admission.COALESCE && coldest.level == CompilationLevel.L1
+                    && l2Lane.queue.size() < queueCapacity) {
+                coldest.state.supersedeL1();
+                metrics.requestCancelled(CompilationLevel.L1);
+                requeue(coldest, CompilationLevel.L2, coldest.invocationRate(), false);
+            } else {
+                reject(coldest);
+            }
+        }
+    }
+
+    private void reject(CompileTask task) {
+        task.state.setQueuedTask(null);
+        task.state.cancel(task.level);
+        metrics.requestRejected(task.level);
+    }
+
+    private void rescale() {
+        scaler.update(System.nanoTime(), l1Lane.queue.size() + l2Lane.queue.size(), overflowInUse);
+    }
+
+    /**
+     * Starts as many queued tasks as lane capacity allows: reserved slots first, then shared overflow slots
+     * to the lane with the most urgent head while the {@link WorkerScaler} limit is not reached.
+     */
+    private void dispatch() {
+        assert ((ReentrantLock) lock).isHeldByCurrentThread();
+        while (true) {
+            final Lane lane;
+            final boolean overflow;
+            final boolean l1Reserved = !l1Lane.queue.isEmpty() && l1Lane.hasReservedSlot();
+            final boolean l2Reserved = !l2Lane.queue.isEmpty() && l2Lane.hasReservedSlot();
+            if (l1Reserved || l2Reserved) {
+                overflow = false;
+                if (l1Reserved && l2Reserved) {
+                    lane = l1Lane.headDeadline() <= l2Lane.headDeadline() ? l1Lane : l2Lane;
+                } else {
+                    lane = l1Reserved ? l1Lane : l2Lane;
+                }
+            } else if (overflowInUse < lanes.sharedOverflow && overflowInUse < scaler.limit()
+                    && !(l1Lane.queue.isEmpty() && l2Lane.queue.isEmpty())) {
+                overflow = true;
+                lane = l1Lane.headDeadline() <= l2Lane.headDeadline() ? l1Lane : l2Lane;
             } else {
-                return null;
+                return;
+            }
+            start(lane, lane.queue.poll(), overflow);
+        }
+    }
+
+    private void start(Lane lane, CompileTask task, boolean overflow) {
+        lane.running++;
+        lane.peakRunning = Math.max(lane.peakRunning, lane.running);
+        if (overflow) {
+            lane.overflowRunning++;
+            overflowInUse++;
+        }
+        task.state.setQueuedTask(null);
+        metrics.queueWait(System.nanoTime() - task.submittedNanos);
+        service.execute(() -> {
+            long nanos = -1;
+            try {
+                nanos = virtualCompilations == null ? compilationProcess(task) : virtualCompilationProcess(task);
+            } finally {
+                finish(lane, overflow, nanos);
+            }
+        });
+    }
+
+    /**
+     * @param nanos duration of the compilation, negative if it failed
+     */
+    private void finish(Lane lane, boolean overflow, long nanos) {
+        // off the lock: may read the system load
+        scaler.sampleLoad(System.nanoTime());
+        final long acquired = acquire();
+        try {
+            lane.running--;
+            lane.completed++;
+            if (overflow) {
+                lane.overflowRunning--;
+                overflowInUse--;
+            }
+            if (nanos >= 0) {
+                scaler.compiled(nanos);
+            }
+            rescale();
+            dispatch();
+        } finally {
+            release(acquired);
+        }
+    }
+
+    /**
+     * {@link #compilationProcess} holding a permit of the virtual thread bound.
+     */
+    private long virtualCompilationProcess(CompileTask task) {
+        // the lane slot is already taken, so the task must run even if the thread is interrupted
+        virtualCompilations.acquireUninterruptibly();
+        try {
+            return compilationProcess(task);
+        } finally {
+            virtualCompilations.release();
+        }
+    }
+
+    /**
+     * @return duration of the compilation, {@code -1} if it failed
+     */
+    private long compilationProcess(CompileTask task) {
+        final MethodCompilationState state = task.state;
+        final CompiledMethod code;
+        final long start = System.nanoTime();
+        try {
+            code = switch (task.level) {
+                case L1 -> compilationEngine.compile_l1(task.method);
+                case L2 -> compilationEngine.compile_l2(task.method);
+            };
+        } catch (Throwable e) {
+            // requesters observe the failure through the future, compilation thread survives
+            metrics.compilationFailed(task.level);
+            if (state.fail(task.level, e)) {
+                // L2 was wanted while the failed L1 was queued, as in completeL1
+                submit(state, CompilationLevel.L2, task.method, task.invocationRate(), true);
+            }
+            return -1;
+        }
+        final long nanos = System.nanoTime() - start;
+        metrics.compiled(task.level, nanos);
+        listener.compiled(task.method, task.level, nanos);
+
+        switch (task.level) {
+            case L1 -> {
+                if (state.completeL1(code)) {
+                    // L2 was wanted while L1 was queued and its requesters may already wait: admitted unconditionally
+                    submit(state, CompilationLevel.L2, task.method, task.invocationRate(), true);
+                }
+            }
+            case L2 -> state.completeL2(code);
+        }
+        return nanos;
+    }
+
+    /**
+     * Requests compilation of {@code methodID} and returns immediately.
+     * <br>
+     * All concurrent and later requesters of the same level share the same future: only the first request reaches
+     * the queue, duplicates are rejected by {@link MethodCompilationState} before being queued, but their
+     * {@code invocationRate} is used to re-prioritize the queued request.
+     * Resulting future is completed by compilation thread with code of at least {@code compilationLevel},
+     * use completion callbacks to install it without blocking. It is cancelled if the request is rejected by admission
+     * control or cancelled before compilation started, and completed exceptionally if the compilation engine throws; in
+     * both cases the next request of the method compiles it anew.
+     *
+     * @param invocationRate estimated invocations per second of the method, drives queue priority
+     */
+    public CompletableFuture<CompiledMethod> compile(CompilationLevel compilationLevel, MethodID methodID, double invocationRate) {
+        return compile(compilationLevel, methodID, invocationRate, false);
+    }
+
+    /**
+     * @param urgent the requester is going to wait for the code: the request bypasses admission control, pins the queued
+     *               request it attaches to, and the returned future is never cancelled
+     * @see #compile(CompilationLevel, MethodID, double)
+     */
+    public CompletableFuture<CompiledMethod> compile(CompilationLevel compilationLevel, MethodID methodID,
+                                                     double invocationRate, boolean urgent) {
+        final MethodCompilationState state = stateOf(methodID);
+        while (true) {
+            final MethodCompilationState.Ticket ticket = state.tryQueue(compilationLevel);
+            if (ticket.queued()) {
+                submit(state, compilationLevel, methodID, invocationRate, urgent);
+                return ticket.future();
+            }
+            metrics.requestDeduplicated(compilationLevel);
+            attach(state, compilationLevel, invocationRate, urgent);
+            // the request might have been cancelled before it was pinned: queue it again
+            if (!urgent || !ticket.future().isCancelled()) {
+                return ticket.future();
+            }
+        }
+    }
+
+    /**
+     * Cancels the queued request of {@code compilationLevel} for the method, its future is cancelled.
+     *
+     * @return {@code false} if there is no such request, it is already compiling or it is urgent
+     */
+    public boolean cancel(CompilationLevel compilationLevel, MethodID methodID) {
+        final MethodCompilationState state = states.get(methodID.id());
+        if (state == null) {
+            return false;
+        }
+        final long acquired = acquire();
+        try {
+            final CompileTask task = state.queuedTask();
+            if (task == null || task.level != compilationLevel || task.urgent || !laneOf(compilationLevel).queue.remove(task)) {
+                return false;
             }
+            state.setQueuedTask(null);
+            state.cancel(compilationLevel);
+            metrics.requestCancelled(compilationLevel);
+            return true;
+        } finally {
+            release(acquired);
+        }
+    }
 
+    public CompletableFuture<CompiledMethod> compile(CompilationLevel compilationLevel, MethodID methodID) {
+        return compile(compilationLevel, methodID, 0);
+    }
+
+    /**
+     * Code is kept by the pool for as long as the pool lives, since a level is never compiled twice.
+     *
+     * @return code which completed the requests of {@code compilationLevel} for the method (L1 requests may be served
+     * by L2 code), {@code null} if there is none yet
+     */
+    public CompiledMethod compiledCode(CompilationLevel compilationLevel, long methodID) {
+        final MethodCompilationState state = states.get(methodID);
+        if (state == null) {
+            return null;
+        }
+        final CompletableFuture<CompiledMethod> future = state.future(compilationLevel);
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    /**
+     * Stops admitting requests except urgent ones, rejected requests are cancelled. Queued and running compilations
+     * continue, see {@link #awaitIdle}.
+     */
+    public void drain() {
+        draining = true;
+    }
+
+    /**
+     * @return {@code true} if nothing is queued or compiling, {@code false} if the timeout elapsed first
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!isIdle()) {
+                final long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                idle.awaitNanos(left);
+            }
+            return true;
         } finally {
             lock.unlock();
         }
+    }
 
-        return switch (compilationLevel) {
-            case L1 -> compilationEngine.compile_l1(methodID);
-            case L2 -> compilationEngine.compile_l2(methodID);
-        };
+    private boolean isIdle() {
+        return l1Lane.queue.isEmpty() && l2Lane.queue.isEmpty() && l1Lane.running == 0 && l2Lane.running == 0;
+    }
+
+    /**
+     * Cancels all queued requests (urgent ones too) and rejects all future ones. Running compilations finish in the
+     * background, then compilation threads exit.
+     */
+    public void shutdown() {
+        draining = true;
+        final long acquired = acquire();
+        try {
+            stopped = true;
+            for (Lane lane : new Lane[]{l1Lane, l2Lane}) {
+                CompileTask task;
+                while ((task = lane.queue.poll()) != null) {
+                    task.state.setQueuedTask(null);
+                    task.state.cancel(task.level);
+                    metrics.requestCancelled(task.level);
+                }
+            }
+        } finally {
+            release(acquired);
+        }
+        service.shutdown();
     }
 
-    public Future<CompiledMethod> compile(CompilationLevel compilationLevel, MethodID methodID) {
-        return service.submit(() -> compilationProcess(compilationLevel, methodID));
+    public boolean isShutdown() {
+        return stopped;
+    }
+
+    /**
+     * @param listener observer of compilations which complete from now on, {@code null} removes it
+     */
+    public void compilationListener(CompilationListener listener) {
+        this.listener = listener == null ? NO_LISTENER : listener;
+    }
+
+    /**
+     * @return metrics of this pool, which its owner may share with the threads using it; the queue depth gauge is
+     * registered by the owner too, the pool never publishes itself before it is constructed
+     */
+    public JitMetrics metrics() {
+        return metrics;
+    }
+
+    public CompilationLanes lanes() {
+        return lanes;
+    }
+
+    public Dispatch dispatchMode() {
+        return dispatch;
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return l1Lane.queue.size() + l2Lane.queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Human-readable lane occupancy, e.g. for test reports and metrics.
+     */
+    public String lanesReport() {
+        lock.lock();
+        try {
+            final StringBuilder sb = new StringBuilder().append(dispatch).append(": ").append(lanes).append('\n');
+            for (Lane lane : new Lane[]{l1Lane, l2Lane}) {
+                sb.append(lane.level).append(": queued = ").append(lane.queue.size())
+                        .append(", running = ").append(lane.running)
+                        .append(" (overflow ").append(lane.overflowRunning).append(")")
+                        .append(", peak = ").append(lane.peakRunning)
+                        .append(", completed = ").append(lane.completed).append('\n');
+            }
+            sb.append("overflowInUse = ").append(overflowInUse).append('/').append(lanes.sharedOverflow).append('\n');
+            sb.append(scaler).append('\n');
+            sb.append("admission = ").append(admission).append(", capacity = ").append(queueCapacity).append('\n');
+            return sb.toString();
+        } finally {
+            lock.unlock();
+        }
     }
 }
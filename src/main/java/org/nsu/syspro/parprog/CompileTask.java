@@ -0,0 +1,90 @@
+package org.nsu.syspro.parprog;
+
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queued compilation request ordered by virtual deadline.
+ * <br>
+ * Benefit score is {@code invocationRate * expectedSpeedup(level)}. It is converted into deadline
+ * {@code submitted + AGING_HORIZON * REFERENCE_SCORE / (REFERENCE_SCORE + score)}: the hotter the method, the closer
+ * its deadline to the submission time. Since deadlines are fixed points in time, waiting task "ages" for free: any
+ * request is overtaken only by requests submitted less than {@link #AGING_HORIZON_NANOS} after it, so cold work can
+ * not starve.
+ * <br>
+ * Deadline is mutated only by {@link CompilationThreadPool} while the task is removed from the queue.
+ */
+final class CompileTask implements Comparable<CompileTask> {
+    static final long AGING_HORIZON_NANOS = 1_000_000_000L;
+    // invocations per second of a method which gains nothing from compilation yet is as urgent as aging allows
+    private static final double REFERENCE_SCORE = 100_000;
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    final MethodCompilationState state;
+    final CompilationLevel level;
+    final MethodID method;
+    final long submittedNanos;
+    private final long seqNo = sequence.getAndIncrement();
+
+    // somebody waits for the code: bypasses admission control, never cancelled; mutated only under the pool lock
+    boolean urgent = false;
+
+    private double invocationRate;
+    private double score;
+    private long deadlineNanos;
+
+    CompileTask(MethodCompilationState state, CompilationLevel level, MethodID method, double invocationRate, long now) {
+        this.state = state;
+        this.level = level;
+        this.method = method;
+        this.submittedNanos = now;
+        this.invocationRate = invocationRate;
+        this.score = score(level, invocationRate);
+        this.deadlineNanos = deadline(submittedNanos, score);
+    }
+
+    static double expectedSpeedup(CompilationLevel level) {
+        return switch (level) {
+            case L1 -> 2.0;
+            case L2 -> 10.0;
+        };
+    }
+
+    private static double score(CompilationLevel level, double invocationRate) {
+        return Math.max(0, invocationRate) * expectedSpeedup(level);
+    }
+
+    private static long deadline(long submittedNanos, double score) {
+        return submittedNanos + (long) (AGING_HORIZON_NANOS * (REFERENCE_SCORE / (REFERENCE_SCORE + score)));
+    }
+
+    /**
+     * @return {@code true} iff new hotness report made this task more urgent (caller must re-queue it)
+     */
+    boolean wouldImprove(double invocationRate) {
+        return score(level, invocationRate) > score;
+    }
+
+    void reprioritize(double invocationRate) {
+        this.invocationRate = Math.max(this.invocationRate, invocationRate);
+        score = score(level, this.invocationRate);
+        deadlineNanos = deadline(submittedNanos, score);
+    }
+
+    double invocationRate() {
+        return invocationRate;
+    }
+
+    long deadlineNanos() {
+        return deadlineNanos;
+    }
+
+    @Override
+    public int compareTo(CompileTask other) {
+        final int byDeadline = Long.compare(deadlineNanos, other.deadlineNanos);
+        return byDeadline != 0 ? byDeadline : Long.compare(seqNo, other.seqNo);
+    }
+}
@@ -0,0 +1,249 @@
+package org.nsu.syspro.parprog;
+
+import org.nsu.syspro.parprog.external.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Compact binary trace of {@link UserThread#executeMethod} invocations: recorded from real traffic by a
+ * {@link Recorder}, loaded by {@link #load} and replayed offline to compare tiering policies on the same workload.
+ * <br>
+ * Recording wraps the engines given to user threads instead of the threads themselves: every invocation calls the
+ * execution engine exactly once (`No-side-effect-correctness`), in the invoking thread and nested exactly like the
+ * invocations (`Recursion-correctness`), so the engines observe the same calls as {@code executeMethod} of any
+ * {@link UserThread} implementation.
+ * <br>
+ * File layout (big-endian): {@code int MAGIC, int VERSION}, then records of
+ * {@code long threadID, long methodID, long nanoTime, byte tier, short depth} up to the end of file. Tier is 0 for
+ * interpretation and 1/2 for code of L1/L2 JIT, depth is 0 for invocations which are not nested into another one.
+ * Every thread buffers its records and appends whole buffers, so records of one thread keep their order while records
+ * of different threads interleave in chunks; a record torn by a crash at the end of file is dropped on load.
+ * <br>
+ * Weak point: tier of compiled code is known only for code produced by the wrapped compilation engine, code of any
+ * other origin is recorded with tier {@link #UNKNOWN_TIER}.
+ */
+public final class InvocationTrace {
+    public static final byte UNKNOWN_TIER = -1;
+
+    private static final int MAGIC = 0x4A495454; // "JITT"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int RECORD_BYTES = 3 * Long.BYTES + Byte.BYTES + Short.BYTES;
+    private static final int BUFFER_BYTES = 1024 * RECORD_BYTES;
+
+    public record Invocation(long threadID, long methodID, long nanoTime, byte tier, short depth) {
+    }
+
+    private final List<Invocation> invocations;
+
+    public InvocationTrace(List<Invocation> invocations) {
+        this.invocations = List.copyOf(invocations);
+    }
+
+    public List<Invocation> invocations() {
+        return invocations;
+    }
+
+    /**
+     * @return invocations of every recorded thread in their order, threads in order of their first record
+     */
+    public Map<Long, List<Invocation>> byThread() {
+        final Map<Long, List<Invocation>> threads = new LinkedHashMap<>();
+        for (Invocation invocation : invocations) {
+            threads.computeIfAbsent(invocation.threadID, t -> new ArrayList<>()).add(invocation);
+        }
+        return threads;
+    }
+
+    /**
+     * @return number of invocations executed at tier 0 (interpreted), 1 and 2, unknown tiers are not counted
+     */
+    public long[] tierCounts() {
+        final long[] counts = new long[3];
+        for (Invocation invocation : invocations) {
+            if (invocation.tier >= 0 && invocation.tier < counts.length) {
+                counts[invocation.tier]++;
+            }
+        }
+        return counts;
+    }
+
+    public static InvocationTrace load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            readAtLeast(channel, buffer, HEADER_BYTES);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("Not an invocation trace: " + file);
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported invocation trace version " + version + ": " + file);
+            }
+            final List<Invocation> invocations = new ArrayList<>();
+            while (true) {
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    invocations.add(new Invocation(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                            buffer.get(), buffer.getShort()));
+                }
+                buffer.compact();
+                if (channel.read(buffer) < 0) {
+                    return new InvocationTrace(invocations);
+                }
+                buffer.flip();
+            }
+        }
+    }
+
+    private static void readAtLeast(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        // short files are rejected by the caller
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Starts recording into {@code file}, replacing its contents.
+     */
+    public static Recorder record(Path file) throws IOException {
+        return new Recorder(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Records invocations which go through engines returned by {@link #wrap}. Recording is thread-confined except
+     * for appending a full buffer to the file channel; the channel serializes concurrent appends.
+     * <br>
+     * {@link #close} flushes the buffers of all threads, invocations after it are not recorded.
+     */
+    public static final class Recorder implements AutoCloseable {
+        private final FileChannel channel;
+        private final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<ThreadBuffer> localBuffer = ThreadLocal.withInitial(() -> {
+            final ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread().threadId());
+            buffers.add(buffer);
+            return buffer;
+        });
+        // tier of every piece of code produced by wrapped compilation engines, CompiledMethod has identity equality
+        private final Map<CompiledMethod, Byte> tiers = new ConcurrentHashMap<>();
+        // the same wrapper for the same engine: user threads of one VM keep sharing their JIT state
+        private final Map<ExecutionEngine, ExecutionEngine> wrappedExec = new ConcurrentHashMap<>();
+        private final Map<CompilationEngine, CompilationEngine> wrappedCompilers = new ConcurrentHashMap<>();
+        private volatile boolean closed = false;
+
+        private Recorder(FileChannel channel) throws IOException {
+            this.channel = channel;
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+
+        public ExecutionEngine wrap(ExecutionEngine exec) {
+            return wrappedExec.computeIfAbsent(exec, e -> new ExecutionEngine() {
+                @Override
+                public ExecutionResult interpret(MethodID id) {
+                    final ThreadBuffer buffer = localBuffer.get();
+                    buffer.enter(id.id(), (byte) 0);
+                    try {
+                        return e.interpret(id);
+                    } finally {
+                        buffer.exit();
+                    }
+                }
+
+                @Override
+                public ExecutionResult execute(CompiledMethod method) {
+                    final ThreadBuffer buffer = localBuffer.get();
+                    buffer.enter(method.id().id(), tiers.getOrDefault(method, UNKNOWN_TIER));
+                    try {
+                        return e.execute(method);
+                    } finally {
+                        buffer.exit();
+                    }
+                }
+            });
+        }
+
+        public CompilationEngine wrap(CompilationEngine compiler) {
+            return wrappedCompilers.computeIfAbsent(compiler, c -> new CompilationEngine() {
+                @Override
+                public CompiledMethod compile_l1(MethodID method) {
+                    final CompiledMethod code = c.compile_l1(method);
+                    tiers.put(code, (byte) 1);
+                    return code;
+                }
+
+                @Override
+                public CompiledMethod compile_l2(MethodID method) {
+                    final CompiledMethod code = c.compile_l2(method);
+                    tiers.put(code, (byte) 2);
+                    return code;
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            try {
+                for (ThreadBuffer buffer : buffers) {
+                    buffer.flush();
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private final class ThreadBuffer {
+            private final long threadID;
+            private final ByteBuffer records = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            private int depth = 0; // owner thread only
+
+            ThreadBuffer(long threadID) {
+                this.threadID = threadID;
+            }
+
+            // synchronized only against close(), uncontended otherwise
+            synchronized void enter(long methodID, byte tier) {
+                if (!closed) {
+                    if (records.remaining() < RECORD_BYTES) {
+                        flush();
+                    }
+                    records.putLong(threadID).putLong(methodID).putLong(System.nanoTime()).put(tier)
+                            .putShort((short) Math.min(depth, Short.MAX_VALUE));
+                }
+                depth++;
+            }
+
+            void exit() {
+                depth--;
+            }
+
+            synchronized void flush() {
+                records.flip();
+                try {
+                    while (records.hasRemaining()) {
+                        channel.write(records);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    records.clear();
+                }
+            }
+        }
+    }
+}
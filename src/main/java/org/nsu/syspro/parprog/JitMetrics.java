@@ -0,0 +1,276 @@
+package org.nsu.syspro.parprog;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of one {@link CompilationThreadPool} and the threads which use it, exported via JMX under
+ * {@link #OBJECT_NAME} with a {@code runtime} key (see {@link #export}) and as a text {@link #report()}.
+ * <br>
+ * Everything is recorded into {@link LongAdder}s and {@link LatencyHistogram}s, so recorders never contend on a single
+ * cache line. User threads do not touch them on every call: invocation and cache counters are accumulated in plain
+ * per-thread fields and added here in batches, together with hotness flushes. Hence up to one flush interval of calls
+ * per thread may be missing from a snapshot.
+ * <br>
+ * Lock wait is recorded only for contended acquisitions (uncontended ones take the {@code tryLock} fast path).
+ */
+public final class JitMetrics implements JitMetricsMXBean {
+    public static final String OBJECT_NAME = "org.nsu.syspro.parprog:type=JitMetrics";
+    private static final int TIERS = CompilationLevel.values().length;
+
+    // registered name, null while not exported
+    private volatile ObjectName exportedAs;
+
+    public enum LockSite {
+        COMPILATION_POOL, GLOBAL_HOTNESS
+    }
+
+    private final LongAdder[] requestsSubmitted = adders(TIERS);
+    private final LongAdder[] requestsDeduplicated = adders(TIERS);
+    private final LongAdder[] requestsRejected = adders(TIERS);
+    private final LongAdder[] requestsCancelled = adders(TIERS);
+    private final LongAdder[] compilationsFailed = adders(TIERS);
+    private final LatencyHistogram[] compileDurations = histograms(TIERS);
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheEvictions = new LongAdder();
+    private final LongAdder inlineCacheHits = new LongAdder();
+    private final LongAdder inlineCacheMisses = new LongAdder();
+    // interpreted, L1, L2
+    private final LongAdder[] invocations = adders(TIERS + 1);
+
+    private final LatencyHistogram[] lockWait = histograms(LockSite.values().length);
+    private final LatencyHistogram[] lockHold = histograms(LockSite.values().length);
+
+    public JitMetrics() {
+    }
+
+    /**
+     * Registers these metrics in the platform MBean server as {@code OBJECT_NAME,runtime=<runtime>}. Failures are
+     * reported to {@code System.err} only: metrics stay available through {@link #report()}.
+     */
+    public void export(String runtime) {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME + ",runtime=" + ObjectName.quote(runtime));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            exportedAs = name;
+        } catch (JMException | SecurityException e) {
+            System.err.println("JitMetrics are not exported via JMX: " + e);
+        }
+    }
+
+    /**
+     * Undoes {@link #export}, if it succeeded.
+     */
+    public void unexport() {
+        final ObjectName name = exportedAs;
+        if (name == null) {
+            return;
+        }
+        exportedAs = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException | SecurityException e) {
+            System.err.println("JitMetrics are not unexported from JMX: " + e);
+        }
+    }
+
+    /**
+     * @return name under which the metrics are registered or {@code null} if they are not
+     */
+    public ObjectName exportedAs() {
+        return exportedAs;
+    }
+
+    private static LongAdder[] adders(int n) {
+        final LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static LatencyHistogram[] histograms(int n) {
+        final LatencyHistogram[] histograms = new LatencyHistogram[n];
+        for (int i = 0; i < n; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    public void requestSubmitted(CompilationLevel level) {
+        requestsSubmitted[level.ordinal()].increment();
+    }
+
+    public void requestDeduplicated(CompilationLevel level) {
+        requestsDeduplicated[level.ordinal()].increment();
+    }
+
+    public void requestRejected(CompilationLevel level) {
+        requestsRejected[level.ordinal()].increment();
+    }
+
+    public void requestCancelled(CompilationLevel level) {
+        requestsCancelled[level.ordinal()].increment();
+    }
+
+    public void compilationFailed(CompilationLevel level) {
+        compilationsFailed[level.ordinal()].increment();
+    }
+
+    public void compiled(CompilationLevel level, long nanos) {
+        compileDurations[level.ordinal()].record(nanos);
+    }
+
+    public void queueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    /**
+     * @param depth queue depth of the compilation pool, {@code null} removes the gauge (depth reads as 0)
+     */
+    public void queueDepthGauge(IntSupplier depth) {
+        queueDepth = depth == null ? () -> 0 : depth;
+    }
+
+    public void cacheLookups(long hits, long misses) {
+        cacheHits.add(hits);
+        cacheMisses.add(misses);
+    }
+
+    /**
+     * @param evicted methods evicted from private code caches
+     */
+    public void cacheEvictions(long evicted) {
+        cacheEvictions.add(evicted);
+    }
+
+    public void inlineCacheLookups(long hits, long misses) {
+        inlineCacheHits.add(hits);
+        inlineCacheMisses.add(misses);
+    }
+
+    public void invocations(long interpreted, long l1, long l2) {
+        invocations[0].add(interpreted);
+        invocations[CompilationLevel.L1.ordinal() + 1].add(l1);
+        invocations[CompilationLevel.L2.ordinal() + 1].add(l2);
+    }
+
+    public void lockWait(LockSite site, long nanos) {
+        lockWait[site.ordinal()].record(nanos);
+    }
+
+    public void lockHold(LockSite site, long nanos) {
+        lockHold[site.ordinal()].record(nanos);
+    }
+
+    public long requestsSubmitted(CompilationLevel level) {
+        return requestsSubmitted[level.ordinal()].sum();
+    }
+
+    public long requestsDeduplicated(CompilationLevel level) {
+        return requestsDeduplicated[level.ordinal()].sum();
+    }
+
+    public long requestsRejected(CompilationLevel level) {
+        return requestsRejected[level.ordinal()].sum();
+    }
+
+    public long requestsCancelled(CompilationLevel level) {
+        return requestsCancelled[level.ordinal()].sum();
+    }
+
+    public long cacheEvictions() {
+        return cacheEvictions.sum();
+    }
+
+    public LatencyHistogram compileDurations(CompilationLevel level) {
+        return compileDurations[level.ordinal()];
+    }
+
+    public LatencyHistogram queueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram lockHold(LockSite site) {
+        return lockHold[site.ordinal()];
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> counters = new LinkedHashMap<>();
+        for (CompilationLevel level : CompilationLevel.values()) {
+            counters.put("requests.submitted." + level, requestsSubmitted[level.ordinal()].sum());
+            counters.put("requests.deduplicated." + level, requestsDeduplicated[level.ordinal()].sum());
+            counters.put("requests.rejected." + level, requestsRejected[level.ordinal()].sum());
+            counters.put("requests.cancelled." + level, requestsCancelled[level.ordinal()].sum());
+            counters.put("compilations.failed." + level, compilationsFailed[level.ordinal()].sum());
+        }
+        counters.put("cache.hits", cacheHits.sum());
+        counters.put("cache.misses", cacheMisses.sum());
+        counters.put("cache.evictions", cacheEvictions.sum());
+        counters.put("cache.inline.hits", inlineCacheHits.sum());
+        counters.put("cache.inline.misses", inlineCacheMisses.sum());
+        counters.put("invocations.interpreted", invocations[0].sum());
+        for (CompilationLevel level : CompilationLevel.values()) {
+            counters.put("invocations." + level, invocations[level.ordinal() + 1].sum());
+        }
+        return counters;
+    }
+
+    private Map<String, LatencyHistogram> histogramsByName() {
+        final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+        for (CompilationLevel level : CompilationLevel.values()) {
+            histograms.put("compile." + level, compileDurations[level.ordinal()]);
+        }
+        histograms.put("queue.wait", queueWait);
+        for (LockSite site : LockSite.values()) {
+            histograms.put("lock.wait." + site, lockWait[site.ordinal()]);
+            histograms.put("lock.hold." + site, lockHold[site.ordinal()]);
+        }
+        return histograms;
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        final Map<String, Long> latencies = new LinkedHashMap<>();
+        histogramsByName().forEach((name, histogram) -> {
+            latencies.put(name + ".count", histogram.count());
+            latencies.put(name + ".mean", (long) histogram.meanNanos());
+            latencies.put(name + ".p50", histogram.percentileNanos(0.5));
+            latencies.put(name + ".p99", histogram.percentileNanos(0.99));
+        });
+        return latencies;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public String getReport() {
+        return report();
+    }
+
+    /**
+     * Text snapshot in the format of test environment reports: one {@code name = value} per line.
+     */
+    public String report() {
+        final StringBuilder sb = new StringBuilder();
+        getCounters().forEach((name, value) -> sb.append(name).append(" = ").append(value).append('\n'));
+        sb.append("queue.depth = ").append(getQueueDepth()).append('\n');
+        histogramsByName().forEach((name, histogram) -> sb.append(name).append(" = ").append(histogram).append('\n'));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package org.nsu.syspro.parprog;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link JitMetrics}, registered as {@link JitMetrics#OBJECT_NAME} with the name of its runtime.
+ */
+public interface JitMetricsMXBean {
+    /**
+     * @return all counters by name, e.g. {@code requests.submitted.L1}
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return mean and percentiles of all histograms in nanoseconds, e.g. {@code compile.L2.p99}
+     */
+    Map<String, Long> getLatencies();
+
+    int getQueueDepth();
+
+    String getReport();
+}
@@ -0,0 +1,123 @@
+package org.nsu.syspro.parprog;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of durations with log-linear buckets (the HdrHistogram layout): every power-of-two range
+ * {@code [2^e, 2^(e+1))} is split into {@link #SUB_BUCKETS} equal buckets, values below {@link #SUB_BUCKETS} are
+ * counted exactly. Relative error of a reported value is below {@code 1 / SUB_BUCKETS}, the maximum is exact.
+ * <br>
+ * Recording is a couple of {@link LongAdder} increments, so concurrent recorders do not contend. Buckets are allocated
+ * on first use: latencies cluster, so a histogram holds a few dozen of them, not all {@link #BUCKETS}.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // index of Long.MAX_VALUE is the last one
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        bucket(indexOf(value)).increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Adds everything recorded by {@code other}, e.g. to merge per-thread histograms.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            final LongAdder bucket = other.buckets.get(i);
+            if (bucket != null) {
+                final long n = bucket.sum();
+                if (n > 0) {
+                    bucket(i).add(n);
+                }
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    private LongAdder bucket(int index) {
+        final LongAdder bucket = buckets.get(index);
+        if (bucket != null) {
+            return bucket;
+        }
+        final LongAdder created = new LongAdder();
+        return buckets.compareAndSet(index, null, created) ? created : buckets.get(index);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value = mantissa << shift with mantissa in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int mantissa = (int) (value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + mantissa - SUB_BUCKETS;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+        final long next = (mantissa + 1) << shift;
+        return next < 0 ? Long.MAX_VALUE : next - 1;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double meanNanos() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile in {@code [0, 1]}
+     * @return upper bound of the bucket containing the quantile (never above the maximum), {@code 0} if nothing was
+     * recorded
+     */
+    public long percentileNanos(double quantile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            final LongAdder bucket = buckets.get(i);
+            counts[i] = bucket == null ? 0 : bucket.sum();
+            total += counts[i];
+        }
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBoundOf(i), maxNanos());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count = %d, mean = %.0f ns, p50 <= %d ns, p99 <= %d ns, p99.9 <= %d ns, max = %d ns",
+                count(), meanNanos(), percentileNanos(0.5), percentileNanos(0.99), percentileNanos(0.999), maxNanos());
+    }
+}
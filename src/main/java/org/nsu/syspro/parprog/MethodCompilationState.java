@@ -0,0 +1,225 @@
+package org.nsu.syspro.parprog;
+
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free compilation state of a single method, shared by all requesters.
+ * <br>
+ * Status only moves forward: {@code NONE -> L1_QUEUED -> L1_READY -> L2_QUEUED -> L2_READY}
+ * ({@code NONE -> L2_QUEUED} is allowed when L1 is skipped, {@code L1_QUEUED -> L2_QUEUED} when a queued L1 request is
+ * superseded by L2). Every transition into {@code *_QUEUED} is won by exactly one CAS, the winner submits the
+ * compilation, everybody else attaches to the same future. Hence `CPU-bound-compilation` holds by construction: each
+ * level is compiled at most once.
+ * <br>
+ * A compilation which threw is {@link #fail failed} for good: {@code L1_QUEUED -> L1_FAILED} (from which L2 may still
+ * be queued) and {@code L2_QUEUED -> L2_FAILED}. The failed futures stay in the snapshot, so later requesters of the
+ * level attach to them instead of compiling it again. If L1 was skipped, its future fails with L2.
+ * <br>
+ * The only way back is {@link #cancel} of a request which never started compiling: the status returns to what it was
+ * before the request and its futures are cancelled, so requesters holding them notice and the next request queues
+ * anew. Status, the L2-wanted flag and futures form one immutable {@link Snapshot} replaced by CAS, so a requester
+ * always attaches to a future which is either completed by compilation or cancelled, never to a forgotten one.
+ * <br>
+ * L2 request which arrives while L1 is still queued is remembered in {@link Snapshot#l2Wanted} and submitted by
+ * whoever observes both the flag and {@code L1_READY} (or {@code L1_FAILED}) first.
+ */
+final class MethodCompilationState {
+    enum Status {
+        NONE, L1_QUEUED, L1_READY, L1_FAILED, L2_QUEUED, L2_READY, L2_FAILED
+    }
+
+    // l1 is also completed by L2 code (or failed with it) if L1 was skipped, so it always means "code of at least L1"
+    private record Snapshot(Status status, boolean l2Wanted,
+                            CompletableFuture<CompiledMethod> l1, CompletableFuture<CompiledMethod> l2) {
+        Snapshot with(Status status) {
+            return new Snapshot(status, l2Wanted, l1, l2);
+        }
+    }
+
+    /**
+     * Outcome of a request: {@code queued} iff the caller won the transition and must submit compilation.
+     */
+    record Ticket(boolean queued, CompletableFuture<CompiledMethod> future) {
+    }
+
+    private final AtomicReference<Snapshot> state = new AtomicReference<>(
+            new Snapshot(Status.NONE, false, new CompletableFuture<>(), new CompletableFuture<>()));
+    // task waiting in the compilation queue, null once taken by compilation thread or cancelled
+    private volatile CompileTask queuedTask = null;
+
+    Status status() {
+        return state.get().status;
+    }
+
+    CompileTask queuedTask() {
+        return queuedTask;
+    }
+
+    void setQueuedTask(CompileTask task) {
+        queuedTask = task;
+    }
+
+    CompletableFuture<CompiledMethod> future(CompilationLevel level) {
+        final Snapshot current = state.get();
+        return switch (level) {
+            case L1 -> current.l1;
+            case L2 -> current.l2;
+        };
+    }
+
+    Ticket tryQueue(CompilationLevel level) {
+        return switch (level) {
+            case L1 -> tryQueueL1();
+            case L2 -> tryQueueL2();
+        };
+    }
+
+    private Ticket tryQueueL1() {
+        while (true) {
+            final Snapshot current = state.get();
+            if (current.status != Status.NONE) {
+                return new Ticket(false, current.l1);
+            }
+            if (state.compareAndSet(current, current.with(Status.L1_QUEUED))) {
+                return new Ticket(true, current.l1);
+            }
+        }
+    }
+
+    private Ticket tryQueueL2() {
+        while (true) {
+            final Snapshot current = state.get();
+            switch (current.status) {
+                case NONE, L1_READY, L1_FAILED -> {
+                    if (state.compareAndSet(current, current.with(Status.L2_QUEUED))) {
+                        return new Ticket(true, current.l2);
+                    }
+                }
+                case L1_QUEUED -> {
+                    // L1 completion (or cancellation) sees the flag: it submits L2 (or cancels its future)
+                    if (current.l2Wanted
+                            || state.compareAndSet(current, new Snapshot(Status.L1_QUEUED, true, current.l1, current.l2))) {
+                        return new Ticket(false, current.l2);
+                    }
+                }
+                default -> {
+                    return new Ticket(false, current.l2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the queued L1 request by L2, its code completes both futures. Must be called only after the L1 task
+     * was removed from the queue, i.e. it has never started.
+     */
+    void supersedeL1() {
+        final Snapshot current = state.get();
+        final boolean moved = current.status == Status.L1_QUEUED
+                && state.compareAndSet(current, new Snapshot(Status.L2_QUEUED, false, current.l1, current.l2));
+        assert moved;
+    }
+
+    /**
+     * Forgets the queued request of {@code level} and cancels everybody waiting for it, including an L2 request which
+     * was waiting for this L1. Must be called only after its task was removed from the queue, i.e. it has never
+     * started.
+     */
+    void cancel(CompilationLevel level) {
+        while (true) {
+            final Snapshot current = state.get();
+            final boolean l1Cancelled;
+            final boolean l2Cancelled;
+            switch (level) {
+                case L1 -> {
+                    assert current.status == Status.L1_QUEUED;
+                    l1Cancelled = true;
+                    l2Cancelled = current.l2Wanted;
+                }
+                case L2 -> {
+                    assert current.status == Status.L2_QUEUED;
+                    // skipped L1 was going to be served by this request too
+                    l1Cancelled = !current.l1.isDone();
+                    l2Cancelled = true;
+                }
+                default -> throw new IllegalArgumentException(level.toString());
+            }
+            final Status reverted = l1Cancelled ? Status.NONE
+                    : current.l1.isCompletedExceptionally() ? Status.L1_FAILED : Status.L1_READY;
+            if (state.compareAndSet(current, new Snapshot(reverted, false,
+                    l1Cancelled ? new CompletableFuture<>() : current.l1,
+                    l2Cancelled ? new CompletableFuture<>() : current.l2))) {
+                if (l1Cancelled) {
+                    current.l1.cancel(false);
+                }
+                if (l2Cancelled) {
+                    current.l2.cancel(false);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fails the request of {@code level} whose compilation threw {@code e}, for this and every later requester of the
+     * level.
+     *
+     * @return {@code true} iff L2 was requested while the failed L1 was queued and the caller must submit it now
+     */
+    boolean fail(CompilationLevel level, Throwable e) {
+        while (true) {
+            final Snapshot current = state.get();
+            final Status next;
+            switch (level) {
+                case L1 -> {
+                    assert current.status == Status.L1_QUEUED;
+                    next = current.l2Wanted ? Status.L2_QUEUED : Status.L1_FAILED;
+                }
+                case L2 -> {
+                    assert current.status == Status.L2_QUEUED;
+                    next = Status.L2_FAILED;
+                }
+                default -> throw new IllegalArgumentException(level.toString());
+            }
+            if (state.compareAndSet(current, new Snapshot(next, false, current.l1, current.l2))) {
+                current.l1.completeExceptionally(e); // no-op for L2 unless L1 was skipped
+                if (level == CompilationLevel.L2) {
+                    current.l2.completeExceptionally(e);
+                }
+                return next == Status.L2_QUEUED;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} iff L2 was requested while L1 was queued and the caller must submit it now
+     */
+    boolean completeL1(CompiledMethod code) {
+        while (true) {
+            final Snapshot current = state.get();
+            assert current.status == Status.L1_QUEUED;
+            final Status next = current.l2Wanted ? Status.L2_QUEUED : Status.L1_READY;
+            if (state.compareAndSet(current, new Snapshot(next, false, current.l1, current.l2))) {
+                current.l1.complete(code);
+                return next == Status.L2_QUEUED;
+            }
+        }
+    }
+
+    void completeL2(CompiledMethod code) {
+        while (true) {
+            final Snapshot current = state.get();
+            assert current.status == Status.L2_QUEUED;
+            if (state.compareAndSet(current, current.with(Status.L2_READY))) {
+                // L2 first: requesters of a skipped L1 tell the level of its code by the L2 future
+                current.l2.complete(code);
+                current.l1.complete(code); // no-op unless L1 was skipped
+                return;
+            }
+        }
+    }
+}
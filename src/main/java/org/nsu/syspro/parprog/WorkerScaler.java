@@ -0,0 +1,145 @@
+package org.nsu.syspro.parprog;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Number of shared overflow slots of {@link CompilationLanes} which {@link CompilationThreadPool} uses at once, between
+ * {@code min} (one, if there are any) and {@link CompilationLanes#sharedOverflow}. Reserved lane slots are not counted:
+ * the pool always uses them.
+ * <br>
+ * The limit grows by one worker per request while the backlog would take longer than {@link #TARGET_DRAIN_NANOS} to
+ * compile with the current workers, judged by the moving average of measured compile durations, and the host is not
+ * overloaded. It drops to the number of running overflow compilations as soon as nothing is queued, and loses one
+ * worker per {@link #LOAD_SAMPLE_NANOS} while the host is overloaded. Load is the share of all CPUs used by other
+ * processes over the last sample period, sampled by compilation threads outside the pool lock, so requesters never
+ * pay for it, and this process never backs off from its own compilations and user threads.
+ * <br>
+ * Not thread-safe: everything except {@link #sampleLoad} is called under the pool lock.
+ * Weak point: where CPU load is unavailable the one-minute load average is used instead, which includes this process
+ * and reacts to a loaded host with a lag.
+ */
+final class WorkerScaler {
+    static final long TARGET_DRAIN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    static final long LOAD_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // share of all CPUs used by other processes above which compilations only steal CPU from user threads
+    static final double OVERLOADED = 0.9;
+    // weight of the newest compile duration in the moving average
+    private static final double ALPHA = 0.125;
+
+    private final int min;
+    private final int max;
+    private final boolean adaptive;
+    private final DoubleSupplier otherLoad;
+
+    private int limit;
+    private double meanCompileNanos = -1;
+    private long overloadCheckedNanos;
+    private volatile double load;
+    private volatile long sampledNanos;
+
+    WorkerScaler(int min, int max, boolean adaptive, DoubleSupplier otherLoad) {
+        if (min < Math.min(1, max) || min > max) {
+            throw new IllegalArgumentException("workers " + min + ".." + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.adaptive = adaptive;
+        this.otherLoad = otherLoad;
+        this.limit = adaptive ? min : max;
+        final long now = System.nanoTime();
+        this.overloadCheckedNanos = now;
+        if (adaptive) {
+            this.load = otherLoad.getAsDouble();
+            this.sampledNanos = now;
+        }
+    }
+
+    static WorkerScaler fixed(int workers) {
+        return new WorkerScaler(workers, workers, false, () -> 0);
+    }
+
+    static WorkerScaler adaptive(CompilationLanes lanes) {
+        return new WorkerScaler(Math.min(1, lanes.sharedOverflow), lanes.sharedOverflow, true,
+                WorkerScaler::otherCpuLoad);
+    }
+
+    /**
+     * @return share of all CPUs in {@code [0, 1]} used by other processes since the previous call, or system load
+     * average per CPU (this process included) where CPU load is unavailable
+     */
+    static double otherCpuLoad() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean hotspot) {
+            final double system = hotspot.getCpuLoad();
+            final double process = hotspot.getProcessCpuLoad();
+            if (system >= 0 && process >= 0) {
+                // both are sampled independently, the difference may be slightly negative
+                return Math.max(0, system - process);
+            }
+        }
+        final double average = os.getSystemLoadAverage();
+        return average >= 0 ? average / os.getAvailableProcessors() : 0;
+    }
+
+    boolean adaptive() {
+        return adaptive;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * Refreshes the load if the last sample is older than {@link #LOAD_SAMPLE_NANOS}.
+     */
+    void sampleLoad(long nowNanos) {
+        if (adaptive && nowNanos - sampledNanos >= LOAD_SAMPLE_NANOS) {
+            sampledNanos = nowNanos;
+            load = otherLoad.getAsDouble();
+        }
+    }
+
+    void compiled(long nanos) {
+        meanCompileNanos = meanCompileNanos < 0 ? nanos : meanCompileNanos + ALPHA * (nanos - meanCompileNanos);
+    }
+
+    /**
+     * @param backlog queued requests
+     * @param running compilations in progress in overflow slots, may exceed the limit right after it dropped
+     * @return new limit
+     */
+    int update(long nowNanos, int backlog, int running) {
+        if (!adaptive) {
+            return limit;
+        }
+        if (backlog == 0) {
+            limit = Math.max(min, Math.min(limit, running));
+            return limit;
+        }
+        if (load > OVERLOADED) {
+            if (nowNanos - overloadCheckedNanos >= LOAD_SAMPLE_NANOS) {
+                overloadCheckedNanos = nowNanos;
+                limit = Math.max(min, limit - 1);
+            }
+            return limit;
+        }
+        // nothing measured yet: one compilation per worker is the target
+        final double mean = meanCompileNanos < 0 ? TARGET_DRAIN_NANOS : meanCompileNanos;
+        if (limit < max && backlog * mean / limit > TARGET_DRAIN_NANOS) {
+            limit++;
+        }
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        if (!adaptive) {
+            return "overflow workers = " + limit + " (fixed)";
+        }
+        return String.format("overflow workers = %d in [%d, %d] (adaptive, mean compile = %.0f us, other cpu load = %.2f)",
+                limit, min, max, Math.max(0, meanCompileNanos) / 1_000, load);
+    }
+}
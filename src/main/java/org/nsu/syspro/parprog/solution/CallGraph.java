@@ -0,0 +1,113 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.external.MethodID;
+
+import java.util.Arrays;
+
+/**
+ * Thread-confined caller -> callee edges observed from the nesting of {@code executeMethod} calls
+ * (`Recursion-correctness`), indexed by {@link MethodInterner} slots.
+ * <br>
+ * Every caller keeps at most {@link #MAX_CALLEES} callees with the number of calls through each edge. A callee is hot
+ * if it was called on at least every other invocation of its caller, such callees are requested together with the
+ * caller, so a deep chain of nested methods tiers up in one wave instead of level by level.
+ * <br>
+ * Weak point: megamorphic callers remember only their first {@link #MAX_CALLEES} callees, the rest tier up on their
+ * own. Edges are never aged, a callee which was hot once stays hot for the chaining.
+ */
+final class CallGraph {
+    static final int MAX_CALLEES = 4;
+
+    // caller slot -> callee slots + 1 (0 = free), lazily allocated on the first nested call
+    private int[][] callees = new int[0][];
+    private long[][] calls = new long[0][];
+    // callee slot -> its MethodID, needed to request compilation by slot
+    private MethodID[] methods = new MethodID[0];
+
+    // slots of methods currently executed by the thread, innermost last
+    private int[] stack = new int[16];
+    private int depth = 0;
+
+    // hot callees found by hotCallees, a slice of MAX_CALLEES per level of a recursive request, so callers iterating
+    // over their slice may look up callees of callees without allocating
+    private int[] hot = new int[16 * MAX_CALLEES];
+
+    /**
+     * Records the edge from the innermost executing method (if any) and makes {@code slot} the innermost one,
+     * must be paired with {@link #exit()}.
+     */
+    void enter(int slot, MethodID method) {
+        if (depth > 0) {
+            record(stack[depth - 1], slot, method);
+        }
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = slot;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    private void record(int caller, int callee, MethodID method) {
+        if (caller >= callees.length) {
+            final int capacity = Math.max(caller + 1, callees.length * 2);
+            callees = Arrays.copyOf(callees, capacity);
+            calls = Arrays.copyOf(calls, capacity);
+        }
+        if (callees[caller] == null) {
+            callees[caller] = new int[MAX_CALLEES];
+            calls[caller] = new long[MAX_CALLEES];
+        }
+        final int[] edges = callees[caller];
+        for (int e = 0; e < MAX_CALLEES; e++) {
+            if (edges[e] == callee + 1) {
+                calls[caller][e]++;
+                return;
+            }
+            if (edges[e] == 0) {
+                edges[e] = callee + 1;
+                calls[caller][e] = 1;
+                if (callee >= methods.length) {
+                    methods = Arrays.copyOf(methods, Math.max(callee + 1, methods.length * 2));
+                }
+                methods[callee] = method;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param invocations invocations of the caller by this thread
+     * @param level       slice the callees are written to, overwrites the previous lookup of the same level
+     * @return number of hot callees, at most {@link #MAX_CALLEES}, see {@link #hotCallee}
+     */
+    int hotCallees(int caller, long invocations, int level) {
+        if (caller >= callees.length || callees[caller] == null) {
+            return 0;
+        }
+        final int base = level * MAX_CALLEES;
+        if (base + MAX_CALLEES > hot.length) {
+            hot = Arrays.copyOf(hot, Math.max(base + MAX_CALLEES, hot.length * 2));
+        }
+        int count = 0;
+        for (int e = 0; e < MAX_CALLEES && callees[caller][e] != 0; e++) {
+            if (2 * calls[caller][e] >= invocations) {
+                hot[base + count++] = callees[caller][e] - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return slot of the {@code index}-th hot callee found by the last {@link #hotCallees} of {@code level}
+     */
+    int hotCallee(int level, int index) {
+        return hot[level * MAX_CALLEES + index];
+    }
+
+    MethodID method(int slot) {
+        return methods[slot];
+    }
+}
@@ -0,0 +1,53 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Size limit of the per-thread compiled-code cache of a {@link SolutionThread}.
+ * <br>
+ * Every cached method costs an estimated number of bytes depending on its tier (L2 code is usually larger), the cache
+ * evicts cold methods once the sum exceeds {@code maxBytes}. Budget of N entries is the special case where every
+ * entry costs one "byte".
+ */
+public final class CodeCacheBudget {
+    public final long maxBytes;
+    public final long l1EntryBytes;
+    public final long l2EntryBytes;
+
+    public CodeCacheBudget(long maxBytes, long l1EntryBytes, long l2EntryBytes) {
+        this.maxBytes = maxBytes;
+        this.l1EntryBytes = l1EntryBytes;
+        this.l2EntryBytes = l2EntryBytes;
+        if (maxBytes <= 0 || l1EntryBytes <= 0 || l2EntryBytes <= 0) {
+            throw new IllegalArgumentException("Non-positive code cache budget: " + this);
+        }
+        if (l1EntryBytes > maxBytes || l2EntryBytes > maxBytes) {
+            throw new IllegalArgumentException("Single entry does not fit into code cache: " + this);
+        }
+    }
+
+    public static CodeCacheBudget unbounded() {
+        return new CodeCacheBudget(Long.MAX_VALUE, 1, 1);
+    }
+
+    public static CodeCacheBudget ofEntries(long maxEntries) {
+        return new CodeCacheBudget(maxEntries, 1, 1);
+    }
+
+    public static CodeCacheBudget ofBytes(long maxBytes, long l1EntryBytes, long l2EntryBytes) {
+        return new CodeCacheBudget(maxBytes, l1EntryBytes, l2EntryBytes);
+    }
+
+    public long costOf(CompilationLevel level) {
+        return switch (level) {
+            case L1 -> l1EntryBytes;
+            case L2 -> l2EntryBytes;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CodeCacheBudget(maxBytes=%d, l1EntryBytes=%d, l2EntryBytes=%d)",
+                maxBytes, l1EntryBytes, l2EntryBytes);
+    }
+}
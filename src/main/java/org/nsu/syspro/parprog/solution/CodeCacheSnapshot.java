@@ -0,0 +1,240 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.util.Arrays;
+
+/**
+ * Immutable version of the global compiled-code cache of a {@link JitRuntime}, bounded by a {@link CodeCacheBudget}.
+ * <br>
+ * Snapshots are published through a single volatile reference and replaced as a whole, every publication increments
+ * {@link #epoch}. Readers never lock: a {@link SolutionThread} compares the epoch of the current snapshot with the one
+ * it has already merged and refreshes its {@link PrivateCodeCache} only when they differ.
+ * <br>
+ * Entries are indexed by {@link MethodInterner} slot, which is what the invocation path reads, in chunks of
+ * {@link #CHUNK_SLOTS} slots. Publication is copy-on-write per chunk: it copies the chunk directory and the chunks it
+ * changes, the other chunks are shared with the previous snapshot, so publishing into a cache of n methods costs
+ * O(n / {@link #CHUNK_SLOTS} + {@link #CHUNK_SLOTS}) instead of O(n).
+ * <br>
+ * Once the entries exceed the budget, publication evicts other methods by CLOCK: a hand sweeps the slots, an entry whose
+ * {@link ReferenceBits reference bit} was set by a hotness flush since the hand last passed it has the bit cleared and
+ * is kept, as is every L2 entry on the first pass of the hand. Entries published after the latest epoch some thread has
+ * observed are never evicted, so code reaches the threads before it may leave the cache; until they observe it the
+ * cache may stay over budget, and the first thread which observes it {@link #trimmed trims} the cache. Evicted code is not lost, it stays with the compilation state of the pool, see
+ * {@link JitRuntime#compiledCode}. Weak point: a thread which has never executed an evicted method runs slower code
+ * until it requests the method again.
+ */
+final class CodeCacheSnapshot {
+    static final int CHUNK_SLOTS = 256; // power of two
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SLOTS);
+
+    static final CodeCacheSnapshot EMPTY = empty(CodeCacheBudget.unbounded(), new ReferenceBits());
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long methodID, CompiledMethodInfo info);
+    }
+
+    final long epoch;
+    private final CodeCacheBudget budget;
+    private final ReferenceBits referenced;
+    // slot >>> CHUNK_SHIFT -> chunk or null if the chunk has no entries yet, ids and epochs of publication are valid
+    // where infos are not null
+    private final CompiledMethodInfo[][] infos;
+    private final long[][] ids;
+    private final long[][] published;
+    private final int size;
+    private final long bytes;
+    private final int hand;
+    private final long evictions;
+
+    private CodeCacheSnapshot(long epoch, CodeCacheBudget budget, ReferenceBits referenced, CompiledMethodInfo[][] infos,
+                              long[][] ids, long[][] published, int size, long bytes, int hand, long evictions) {
+        this.epoch = epoch;
+        this.budget = budget;
+        this.referenced = referenced;
+        this.infos = infos;
+        this.ids = ids;
+        this.published = published;
+        this.size = size;
+        this.bytes = bytes;
+        this.hand = hand;
+        this.evictions = evictions;
+    }
+
+    /**
+     * @param referenced reference bits set by hotness flushes, shared by every snapshot derived from this one
+     */
+    static CodeCacheSnapshot empty(CodeCacheBudget budget, ReferenceBits referenced) {
+        return new CodeCacheSnapshot(0, budget, referenced, new CompiledMethodInfo[0][], new long[0][], new long[0][],
+                0, 0, 0, 0);
+    }
+
+    /**
+     * @return code of the method with {@link MethodInterner} slot {@code slot} or {@code null}
+     */
+    CompiledMethodInfo get(int slot) {
+        final int chunk = slot >>> CHUNK_SHIFT;
+        if (chunk >= infos.length || infos[chunk] == null) {
+            return null;
+        }
+        return infos[chunk][slot & (CHUNK_SLOTS - 1)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return number of entries evicted by this and all previous snapshots to stay within the budget
+     */
+    long evictions() {
+        return evictions;
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (int chunk = 0; chunk < infos.length; chunk++) {
+            if (infos[chunk] == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SLOTS; i++) {
+                if (infos[chunk][i] != null) {
+                    consumer.accept(ids[chunk][i], infos[chunk][i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Publication when every thread has observed this snapshot.
+     */
+    CodeCacheSnapshot with(long id, int slot, CompiledMethodInfo info) {
+        return with(id, slot, info, epoch);
+    }
+
+    /**
+     * @param slot          {@link MethodInterner} slot of the method
+     * @param observedEpoch latest epoch some thread has observed, entries published later are not evicted
+     * @return snapshot containing {@code info} for method {@code id}, or {@code this} if this snapshot already has
+     * the same or higher compilation level for it (global cache is never downgraded)
+     */
+    CodeCacheSnapshot with(long id, int slot, CompiledMethodInfo info, long observedEpoch) {
+        final CompiledMethodInfo existing = get(slot);
+        if (existing != null && !info.isBetterThan(existing)) {
+            return this;
+        }
+        return new Publication(slot).put(slot, id, info).evictOverBudget(slot, observedEpoch).publish();
+    }
+
+    /**
+     * @param observedEpoch latest epoch some thread has observed
+     * @return snapshot without the entries {@link #with} could not evict while they were unobserved, {@code this} if
+     * it is within budget or nothing can be evicted yet
+     */
+    CodeCacheSnapshot trimmed(long observedEpoch) {
+        if (bytes <= budget.maxBytes) {
+            return this;
+        }
+        final CodeCacheSnapshot trimmed = new Publication(0).evictOverBudget(-1, observedEpoch).publish();
+        return trimmed.evictions == evictions ? this : trimmed;
+    }
+
+    /**
+     * Copy of the directory being prepared from this snapshot, chunks are copied on first write.
+     */
+    private final class Publication {
+        final CompiledMethodInfo[][] infosCopy;
+        final long[][] idsCopy;
+        final long[][] publishedCopy;
+        int sizeCopy = size;
+        long bytesCopy = bytes;
+        int handCopy = hand;
+        long evictionsCopy = evictions;
+
+        Publication(int slot) {
+            final int chunks = Math.max(infos.length, (slot >>> CHUNK_SHIFT) + 1);
+            infosCopy = Arrays.copyOf(infos, chunks);
+            idsCopy = Arrays.copyOf(ids, chunks);
+            publishedCopy = Arrays.copyOf(published, chunks);
+        }
+
+        private int writable(int slot) {
+            final int chunk = slot >>> CHUNK_SHIFT;
+            if (infosCopy[chunk] == null) {
+                infosCopy[chunk] = new CompiledMethodInfo[CHUNK_SLOTS];
+                idsCopy[chunk] = new long[CHUNK_SLOTS];
+                publishedCopy[chunk] = new long[CHUNK_SLOTS];
+            } else if (chunk < infos.length && infosCopy[chunk] == infos[chunk]) {
+                infosCopy[chunk] = infos[chunk].clone();
+                idsCopy[chunk] = ids[chunk].clone();
+                publishedCopy[chunk] = published[chunk].clone();
+            }
+            return chunk;
+        }
+
+        Publication put(int slot, long id, CompiledMethodInfo info) {
+            final int chunk = writable(slot);
+            final int i = slot & (CHUNK_SLOTS - 1);
+            final CompiledMethodInfo replaced = infosCopy[chunk][i];
+            if (replaced == null) {
+                sizeCopy++;
+            } else {
+                bytesCopy -= budget.costOf(replaced.compilationLevel);
+            }
+            bytesCopy += budget.costOf(info.compilationLevel);
+            infosCopy[chunk][i] = info;
+            idsCopy[chunk][i] = id;
+            publishedCopy[chunk][i] = epoch + 1;
+            return this;
+        }
+
+        /**
+         * Sweeps the hand over occupied slots at most twice and evicts them until the entries fit, slot {@code keep}
+         * and entries published after {@code observedEpoch} are never evicted.
+         */
+        Publication evictOverBudget(int keep, long observedEpoch) {
+            final int slots = infosCopy.length * CHUNK_SLOTS;
+            int scanned = 0;
+            while (bytesCopy > budget.maxBytes && sizeCopy > 1 && scanned < 2 * slots) {
+                if (handCopy >= slots) {
+                    handCopy = 0;
+                }
+                final int slot = handCopy;
+                final int chunk = slot >>> CHUNK_SHIFT;
+                if (infosCopy[chunk] == null) {
+                    handCopy = (chunk + 1) * CHUNK_SLOTS;
+                    scanned += handCopy - slot;
+                    continue;
+                }
+                handCopy++;
+                scanned++;
+                final int i = slot & (CHUNK_SLOTS - 1);
+                final CompiledMethodInfo info = infosCopy[chunk][i];
+                if (info == null || slot == keep || publishedCopy[chunk][i] > observedEpoch) {
+                    continue;
+                }
+                // second chance for methods invoked since the last pass, and for optimized code on the first one
+                if (referenced.clear(slot)
+                        || (scanned <= slots && info.compilationLevel == CompilationLevel.L2)) {
+                    continue;
+                }
+                writable(slot);
+                bytesCopy -= budget.costOf(info.compilationLevel);
+                infosCopy[chunk][i] = null;
+                sizeCopy--;
+                evictionsCopy++;
+            }
+            return this;
+        }
+
+        CodeCacheSnapshot publish() {
+            return new CodeCacheSnapshot(epoch + 1, budget, referenced, infosCopy, idsCopy, publishedCopy, sizeCopy,
+                    bytesCopy, handCopy, evictionsCopy);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.nsu.syspro.parprog.solution;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Daemon thread of a {@link JitRuntime} which moves requests from {@link CompileRequestRing}s of its
+ * {@link LowLatencyThread}s to the compilation pool, publishes compiled code to the global snapshot and hands requests
+ * rejected by the pool back to their threads, so that they are made again.
+ * <br>
+ * The pump does blocking work (pool locks, CAS retries) on behalf of user threads, so they never do. It is not a
+ * compilation thread: it never calls the compilation engine. When idle it polls with exponential back-off, since
+ * waking it up from a user thread ({@code unpark}) is not wait-free. It is started by the first registered ring and
+ * exits on {@link #stop}, within one idle period.
+ */
+final class CompileRequestPump {
+    private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private record Producer(Thread owner, CompileRequestRing ring) {
+        boolean terminated() {
+            return owner.getState() == Thread.State.TERMINATED;
+        }
+    }
+
+    private record Rejection(Producer producer, int slot) {
+    }
+
+    private final JitRuntime runtime;
+    private final List<Producer> producers = new CopyOnWriteArrayList<>();
+    // added by completion callbacks in compilation threads, forwarded to the rings by the pump
+    private final Queue<Rejection> rejections = new ConcurrentLinkedQueue<>();
+    private volatile boolean stopped;
+    private Thread pump; // guarded by this
+
+    CompileRequestPump(JitRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * Ignored once the pump is stopped: requests of the ring are never submitted then.
+     */
+    synchronized void register(Thread owner, CompileRequestRing ring) {
+        if (stopped) {
+            return;
+        }
+        producers.add(new Producer(owner, ring));
+        if (pump == null) {
+            pump = new Thread(this::run, runtime.name() + "-request-pump");
+            pump.setDaemon(true);
+            pump.start();
+        }
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        producers.clear();
+        rejections.clear();
+        if (pump != null) {
+            LockSupport.unpark(pump);
+        }
+    }
+
+    synchronized Thread thread() {
+        return pump;
+    }
+
+    private void run() {
+        long idleNanos = MIN_IDLE_NANOS;
+        while (!stopped) {
+            int pumped = 0;
+            for (Producer producer : producers) {
+                // read before draining: requests offered before termination are not lost
+                final boolean terminated = producer.terminated();
+                pumped += producer.ring.drain((method, slot, level, invocationRate) -> {
+                    final long methodID = method.id();
+                    runtime.pool().compile(level, method, invocationRate).whenComplete((code, e) -> {
+                        if (code != null) {
+                            runtime.publish(methodID, runtime.compiledInfo(methodID, code));
+                        } else if (runtime.state() == JitRuntime.State.RUNNING) {
+                            // rejected by admission or cancelled: retrying is pointless only once the runtime drains
+                            rejections.add(new Rejection(producer, slot));
+                        }
+                    });
+                });
+                if (terminated) {
+                    producers.remove(producer);
+                }
+            }
+            // a full ring keeps the rejection here until its owner polls
+            pumped += forwardRejections();
+            if (pumped > 0) {
+                idleNanos = MIN_IDLE_NANOS;
+            } else {
+                LockSupport.parkNanos(idleNanos);
+                idleNanos = Math.min(MAX_IDLE_NANOS, idleNanos * 2);
+            }
+        }
+    }
+
+    private int forwardRejections() {
+        int forwarded = 0;
+        for (var it = rejections.iterator(); it.hasNext(); ) {
+            final Rejection rejection = it.next();
+            if (rejection.producer.terminated() || rejection.producer.ring.reject(rejection.slot)) {
+                it.remove();
+                forwarded++;
+            }
+        }
+        return forwarded;
+    }
+}
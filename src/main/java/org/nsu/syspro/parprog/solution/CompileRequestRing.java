@@ -0,0 +1,108 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer single-consumer queue of compilation requests (Lamport ring buffer), paired with a ring of
+ * rejected requests going back.
+ * <br>
+ * Requests are produced by the owning {@link LowLatencyThread} and consumed by {@link CompileRequestPump}, rejections
+ * the other way round. {@link #offer} and {@link #pollRejected} are wait-free: a fixed number of steps, no CAS and no
+ * locks, they fail instead of waiting when the ring is full or empty. Slots are published by a release store of
+ * {@code tail} and freed by a release store of {@code head}.
+ */
+final class CompileRequestRing {
+    private static final int CAPACITY = 256; // power of two
+
+    private final MethodID[] methods = new MethodID[CAPACITY];
+    private final int[] slots = new int[CAPACITY];
+    private final CompilationLevel[] levels = new CompilationLevel[CAPACITY];
+    private final double[] invocationRates = new double[CAPACITY];
+    private final AtomicLong head = new AtomicLong(); // written by consumer only
+    private final AtomicLong tail = new AtomicLong(); // written by producer only
+    private long cachedHead = 0; // producer's last view of head
+
+    // rejected requests: produced by the pump, consumed by the owner
+    private final int[] rejectedSlots = new int[CAPACITY];
+    private final AtomicLong rejectedHead = new AtomicLong(); // written by owner only
+    private final AtomicLong rejectedTail = new AtomicLong(); // written by pump only
+
+    @FunctionalInterface
+    interface RequestConsumer {
+        void accept(MethodID method, int slot, CompilationLevel level, double invocationRate);
+    }
+
+    /**
+     * Producer side.
+     *
+     * @param slot slot of the method in the interner of the runtime, returned by {@link #pollRejected}
+     * @return {@code false} if the ring is full
+     */
+    boolean offer(MethodID method, int slot, CompilationLevel level, double invocationRate) {
+        final long t = tail.getPlain();
+        if (t - cachedHead == CAPACITY) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead == CAPACITY) {
+                return false;
+            }
+        }
+        final int i = (int) t & (CAPACITY - 1);
+        methods[i] = method;
+        slots[i] = slot;
+        levels[i] = level;
+        invocationRates[i] = invocationRate;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return number of consumed requests
+     */
+    int drain(RequestConsumer consumer) {
+        final long h = head.getPlain();
+        final long t = tail.getAcquire();
+        for (long k = h; k < t; k++) {
+            final int i = (int) k & (CAPACITY - 1);
+            final MethodID method = methods[i];
+            methods[i] = null;
+            consumer.accept(method, slots[i], levels[i], invocationRates[i]);
+        }
+        head.setRelease(t);
+        return (int) (t - h);
+    }
+
+    /**
+     * Consumer side: hands a request rejected by the pool back to the owner.
+     *
+     * @return {@code false} if the owner has not polled enough rejections yet
+     */
+    boolean reject(int slot) {
+        final long t = rejectedTail.getPlain();
+        if (t - rejectedHead.getAcquire() == CAPACITY) {
+            return false;
+        }
+        rejectedSlots[(int) t & (CAPACITY - 1)] = slot;
+        rejectedTail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return slot of the oldest rejected request or {@code -1} if there is none
+     */
+    int pollRejected() {
+        final long h = rejectedHead.getPlain();
+        if (h == rejectedTail.getAcquire()) {
+            return -1;
+        }
+        final int slot = rejectedSlots[(int) h & (CAPACITY - 1)];
+        rejectedHead.setRelease(h + 1);
+        return slot;
+    }
+}
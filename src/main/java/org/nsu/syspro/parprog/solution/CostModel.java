@@ -0,0 +1,44 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Estimated costs (in nanoseconds) of running and compiling a method, input of {@link CostModelPolicy}.
+ * Implementations are called concurrently by all user threads.
+ */
+public interface CostModel {
+    double interpretNanos(long methodID);
+
+    double executeNanos(long methodID, CompilationLevel level);
+
+    double compileNanos(long methodID, CompilationLevel level);
+
+    /**
+     * Same costs for every method.
+     */
+    static CostModel fixed(double interpretNanos, double l1ExecuteNanos, double l2ExecuteNanos,
+                           double l1CompileNanos, double l2CompileNanos) {
+        return new CostModel() {
+            @Override
+            public double interpretNanos(long methodID) {
+                return interpretNanos;
+            }
+
+            @Override
+            public double executeNanos(long methodID, CompilationLevel level) {
+                return switch (level) {
+                    case L1 -> l1ExecuteNanos;
+                    case L2 -> l2ExecuteNanos;
+                };
+            }
+
+            @Override
+            public double compileNanos(long methodID, CompilationLevel level) {
+                return switch (level) {
+                    case L1 -> l1CompileNanos;
+                    case L2 -> l2CompileNanos;
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Request the tier which pays off best according to a {@link CostModel}.
+ * <br>
+ * Future invocations are predicted to be as many as the recent ones ({@link MethodProfile#hotness()}), so the gain of a
+ * tier is {@code invocations * (cost of code we will have anyway - cost of tier code) - compileCostWeight * compile cost},
+ * where {@code invocations} is the hotness, less the invocations which still run the old code while the tier compiles
+ * if {@link #chargesCompileDelay}. The tier with the largest positive gain is requested.
+ * <br>
+ * {@link #compileCostWeight} and {@link #chargesCompileDelay} select the trade-off, see {@link Objective}. With measured costs
+ * ({@link #online(Objective)}) the policy goes straight to L2 when L1 does not pay for itself, stops at L1 when L2 does
+ * not, and keeps interpreting methods which are too cold for both.
+ * Gains are re-evaluated every {@link #SAMPLE_INTERVAL} invocations.
+ */
+public final class CostModelPolicy implements TieringPolicy {
+    public static final int SAMPLE_INTERVAL = 64; // power of two
+
+    public enum Objective {
+        /**
+         * Compilation costs as much as it takes.
+         */
+        CPU_TIME(1, false),
+        /**
+         * Compilation runs in parallel with user threads, they never wait for it before deadlines, but a slow
+         * compilation delays the gain.
+         */
+        WALL_CLOCK(0, true);
+
+        public final double compileCostWeight;
+        public final boolean chargesCompileDelay;
+
+        Objective(double compileCostWeight, boolean chargesCompileDelay) {
+            this.compileCostWeight = compileCostWeight;
+            this.chargesCompileDelay = chargesCompileDelay;
+        }
+    }
+
+    /**
+     * Fixed model or {@code null} for the model of the deciding thread, see {@link #online}.
+     */
+    public final CostModel model;
+    public final double compileCostWeight;
+    public final boolean chargesCompileDelay;
+
+    /**
+     * @param model costs to decide by, {@code null} for {@link MethodProfile#costModel()}
+     */
+    public CostModelPolicy(CostModel model, double compileCostWeight, boolean chargesCompileDelay) {
+        if (compileCostWeight < 0) {
+            throw new IllegalArgumentException("Negative compile cost weight: " + compileCostWeight);
+        }
+        this.model = model;
+        this.compileCostWeight = compileCostWeight;
+        this.chargesCompileDelay = chargesCompileDelay;
+    }
+
+    public CostModelPolicy(CostModel model, double compileCostWeight) {
+        this(model, compileCostWeight, false);
+    }
+
+    public CostModelPolicy(CostModel model, Objective objective) {
+        this(model, objective.compileCostWeight, objective.chargesCompileDelay);
+    }
+
+    /**
+     * @return policy driven by costs measured by the {@link JitRuntime} of each deciding thread, see
+     * {@link JitRuntime#costModel()}
+     */
+    public static CostModelPolicy online(Objective objective) {
+        return new CostModelPolicy(null, objective);
+    }
+
+    @Override
+    public CompilationLevel decide(MethodProfile profile) {
+        final long hotness = profile.hotness();
+        if ((profile.invocations() & (SAMPLE_INTERVAL - 1)) != 0) {
+            return null;
+        }
+        final long methodID = profile.methodID();
+        final CostModel model = this.model != null ? this.model : profile.costModel();
+        // code which is already requested will arrive anyway, a tier must beat it
+        final CompilationLevel baseline = profile.requestedLevel();
+        final double baselineNanos = baseline == null
+                ? model.interpretNanos(methodID)
+                : model.executeNanos(methodID, baseline);
+
+        CompilationLevel best = null;
+        double bestGain = 0;
+        for (CompilationLevel level : CompilationLevel.values()) {
+            if (baseline != null && level.ordinal() <= baseline.ordinal()) {
+                continue;
+            }
+            final double compileNanos = model.compileNanos(methodID, level);
+            final double invocations = chargesCompileDelay
+                    ? Math.max(0, hotness - compileNanos / baselineNanos)
+                    : hotness;
+            final double gain = invocations * (baselineNanos - model.executeNanos(methodID, level))
+                    - compileCostWeight * compileNanos;
+            if (gain > bestGain) {
+                best = level;
+                bestGain = gain;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String toString() {
+        return "CostModelPolicy(compileCostWeight=" + compileCostWeight
+                + (chargesCompileDelay ? ", compile delay" : "") + ")";
+    }
+}
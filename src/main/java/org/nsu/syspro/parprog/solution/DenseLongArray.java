@@ -0,0 +1,43 @@
+package org.nsu.syspro.parprog.solution;
+
+import java.util.Arrays;
+
+/**
+ * Thread-unsafe {@code long} array indexed by {@link MethodInterner} slots, missing entries read as {@code 0}.
+ * <br>
+ * Replaces a {@link LongLongTable} keyed by method id when the slot is already known: access is a bounds check and an
+ * array index. The array grows (at least doubling, in multiples of {@value #CHUNK}) only when a higher slot is
+ * written, which stops after warm-up.
+ */
+final class DenseLongArray {
+    private static final int CHUNK = 256;
+
+    private long[] values = new long[CHUNK];
+
+    long get(int slot) {
+        final long[] v = values;
+        return slot < v.length ? v[slot] : 0;
+    }
+
+    void put(int slot, long value) {
+        ensureCapacity(slot);
+        values[slot] = value;
+    }
+
+    long getAndIncrement(int slot) {
+        ensureCapacity(slot);
+        return values[slot]++;
+    }
+
+    long addAndGet(int slot, long delta) {
+        ensureCapacity(slot);
+        return values[slot] += delta;
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot >= values.length) {
+            final int capacity = Math.max(slot + 1, values.length * 2);
+            values = Arrays.copyOf(values, (capacity + CHUNK - 1) / CHUNK * CHUNK);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.JitMetrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Invocation counters aggregated over all {@link SolutionThread}s.
+ * <br>
+ * Threads never write here on every call: they accumulate deltas in a thread-local {@link DenseLongArray} and
+ * {@link #flush flush} them in batches. The table is split into lock-striped segments by method id, so concurrent
+ * flushes of different methods rarely contend, and flushing happens only after the user method was executed.
+ * Stripe lock wait and (sampled) hold times are recorded into {@link JitMetrics} of the runtime.
+ * <br>
+ * Counters decay as described by {@link HotnessDecay}: each one is stamped with the epoch of its last flush and is
+ * decayed by the next flush with a later epoch. {@link #get} returns the counter as of its last flush.
+ * <br>
+ * Every flushed method is also marked in {@link #referenced}, which the global code cache evicts by.
+ */
+final class GlobalHotness {
+    private static final int STRIPES = 16; // power of two
+    // hold time is measured for every HOLD_SAMPLE_INTERVAL-th acquisition on average, reading the clock costs more
+    // than holding the lock
+    private static final int HOLD_SAMPLE_INTERVAL = 16;
+
+    private final MethodInterner interner;
+    private final JitMetrics metrics;
+
+    private final Lock[] locks = new Lock[STRIPES];
+    private final LongLongTable[] counters = new LongLongTable[STRIPES];
+    private final LongLongTable[] epochs = new LongLongTable[STRIPES];
+    final ReferenceBits referenced = new ReferenceBits();
+
+    GlobalHotness(MethodInterner interner, JitMetrics metrics) {
+        this.interner = interner;
+        this.metrics = metrics;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+            counters[i] = new LongLongTable();
+            epochs[i] = new LongLongTable();
+        }
+    }
+
+    private static int stripe(long methodID) {
+        final long h = methodID * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 60) & (STRIPES - 1);
+    }
+
+    /**
+     * Locks the stripe, records wait time if it was contended.
+     *
+     * @return moment the lock was acquired if hold time of this acquisition should be sampled, {@code 0} otherwise
+     */
+    private long acquire(int s) {
+        final boolean sampled = ThreadLocalRandom.current().nextInt(HOLD_SAMPLE_INTERVAL) == 0;
+        if (locks[s].tryLock()) {
+            return sampled ? System.nanoTime() : 0;
+        }
+        final long start = System.nanoTime();
+        locks[s].lock();
+        final long acquired = System.nanoTime();
+        metrics.lockWait(JitMetrics.LockSite.GLOBAL_HOTNESS, acquired - start);
+        return sampled ? acquired : 0;
+    }
+
+    private void release(int s, long acquiredNanos) {
+        final long held = acquiredNanos == 0 ? 0 : System.nanoTime() - acquiredNanos;
+        locks[s].unlock();
+        if (acquiredNanos != 0) {
+            metrics.lockHold(JitMetrics.LockSite.GLOBAL_HOTNESS, held);
+        }
+    }
+
+    long get(long methodID) {
+        final int s = stripe(methodID);
+        final long acquired = acquire(s);
+        try {
+            return counters[s].get(methodID);
+        } finally {
+            release(s, acquired);
+        }
+    }
+
+    long addAndGet(long methodID, long delta, long epoch) {
+        final int s = stripe(methodID);
+        final long acquired = acquire(s);
+        try {
+            final long stamp = epochs[s].get(methodID);
+            if (stamp >= epoch) {
+                return counters[s].addAndGet(methodID, delta);
+            }
+            epochs[s].put(methodID, epoch);
+            final long total = HotnessDecay.decay(counters[s].get(methodID), stamp, epoch) + delta;
+            counters[s].put(methodID, total);
+            return total;
+        } finally {
+            release(s, acquired);
+        }
+    }
+
+    /**
+     * Adds {@code deltas} of the first {@code count} method slots (of the interner this table was created with) of {@code slots} to global counters, writes
+     * resulting global totals into {@code totals} and clears those {@code deltas}.
+     *
+     * @param epoch {@link HotnessDecay} epoch of the caller, counters stamped earlier are decayed before the addition
+     */
+    void flush(int[] slots, int count, DenseLongArray deltas, DenseLongArray totals, long epoch) {
+        for (int i = 0; i < count; i++) {
+            final int slot = slots[i];
+            totals.put(slot, addAndGet(interner.idOf(slot), deltas.get(slot), epoch));
+            deltas.put(slot, 0);
+            referenced.mark(slot);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.nsu.syspro.parprog.solution;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential decay of hotness counters: a counter is halved once per {@link #halfLifeNanos}, so it reflects the
+ * current invocation rate (a method called {@code r} times per second settles at about {@code 2 * r * halfLife})
+ * instead of the lifetime total.
+ * <br>
+ * Decay is applied lazily: time is cut into epochs of one half-life, every counter is stamped with the epoch of its last
+ * update and is shifted right by the number of epochs passed when it is touched again. Callers refresh their epoch
+ * from clock readings they make anyway, so the hot path neither reads the clock for it nor touches counters of other
+ * methods.
+ * <br>
+ * `Eventual-per-thread-progress-*` deadlines count lifetime invocations, decayed counters only drive
+ * {@link TieringPolicy} decisions. Decay is off unless configured: a decayed count never exceeds about
+ * {@code 2 * r * halfLife}, so with a half-life of one second {@link ThresholdPolicy#DEFAULT} would never compile a
+ * method called less than ~4.5k times per second. Thresholds have to be scaled to the half-life when enabling it.
+ */
+public final class HotnessDecay {
+    public static final String PROPERTY = "jit.hotness.halfLifeMillis";
+    private static final long DEFAULT_HALF_LIFE_MILLIS = 0;
+
+    /**
+     * Counters only grow, as before decay was introduced.
+     */
+    public static final HotnessDecay NONE = new HotnessDecay(0);
+
+    public final long halfLifeNanos;
+
+    private HotnessDecay(long halfLifeNanos) {
+        if (halfLifeNanos < 0) {
+            throw new IllegalArgumentException("Negative half-life: " + halfLifeNanos);
+        }
+        this.halfLifeNanos = halfLifeNanos;
+    }
+
+    public static HotnessDecay halfLife(long duration, TimeUnit unit) {
+        return duration == 0 ? NONE : new HotnessDecay(unit.toNanos(duration));
+    }
+
+    /**
+     * @return value of {@code -Djit.hotness.halfLifeMillis=<n>}, {@link #NONE} if unset or {@code 0}
+     */
+    public static HotnessDecay configured() {
+        return halfLife(Long.getLong(PROPERTY, DEFAULT_HALF_LIFE_MILLIS), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return epoch of {@code nanoTime}, always {@code 0} for {@link #NONE}
+     */
+    long epochAt(long nanoTime) {
+        return halfLifeNanos == 0 ? 0 : Math.floorDiv(nanoTime, halfLifeNanos);
+    }
+
+    /**
+     * @return {@code count} stamped with {@code stamp} as of {@code epoch}; counters stamped later than {@code epoch}
+     * (by a caller with a fresher epoch) are not decayed
+     */
+    static long decay(long count, long stamp, long epoch) {
+        final long passed = epoch - stamp;
+        if (passed <= 0) {
+            return count;
+        }
+        return passed >= Long.SIZE ? 0 : count >>> passed;
+    }
+
+    @Override
+    public String toString() {
+        return halfLifeNanos == 0 ? "HotnessDecay(none)"
+                : String.format("HotnessDecay(halfLife=%d ms)", TimeUnit.NANOSECONDS.toMillis(halfLifeNanos));
+    }
+}
@@ -0,0 +1,116 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.util.function.IntFunction;
+
+/**
+ * Thread-confined polymorphic inline cache in front of {@link MethodInterner} and {@link PrivateCodeCache}: the last
+ * {@link #ENTRIES} distinct methods executed by the thread with their slot and code ({@code null} while interpreted).
+ * <br>
+ * A hit is a linear scan over a few ids, so a thread looping over a handful of methods neither hashes the method id
+ * nor probes the private cache. Misses replace entries round-robin. Entries are upgraded in place whenever better
+ * code is installed into the private cache, and code which appears in a newer global snapshot is installed there
+ * first. Entries are never downgraded and every level held here is known to the private cache, which remembers it when
+ * it evicts the method, so `Per-thread-monotonicity` holds after an entry is replaced too.
+ * <br>
+ * Weak point: hits do not set the CLOCK reference bit of {@link PrivateCodeCache}, so the hottest methods may be
+ * evicted from there while they stay here. That costs one re-install from the global snapshot after the method falls
+ * out of this cache, and up to {@link #ENTRIES} compiled methods referenced beyond the budget.
+ */
+final class InlineCache {
+    static final int ENTRIES = 4;
+
+    @FunctionalInterface
+    interface Installer {
+        /**
+         * Installs {@code info} into the private cache and {@link #upgrade}s this cache.
+         */
+        void install(int slot, CompiledMethodInfo info);
+    }
+
+    private final long[] ids = new long[ENTRIES];
+    private final int[] slots = new int[ENTRIES];
+    private final CompiledMethodInfo[] infos = new CompiledMethodInfo[ENTRIES];
+    private int size = 0;
+    private int victim = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @return entry index of the method or {@code -1}, see {@link #slot} and {@link #info}
+     */
+    int find(long methodID) {
+        for (int e = 0; e < size; e++) {
+            if (ids[e] == methodID) {
+                hits++;
+                return e;
+            }
+        }
+        misses++;
+        return -1;
+    }
+
+    int slot(int entry) {
+        return slots[entry];
+    }
+
+    CompiledMethodInfo info(int entry) {
+        return infos[entry];
+    }
+
+    /**
+     * Caches a method which was just missed by {@link #find}.
+     */
+    void put(long methodID, int slot, CompiledMethodInfo info) {
+        final int e;
+        if (size < ENTRIES) {
+            e = size++;
+        } else {
+            e = victim;
+            victim = (victim + 1) % ENTRIES;
+        }
+        ids[e] = methodID;
+        slots[e] = slot;
+        infos[e] = info;
+    }
+
+    /**
+     * Replaces the code of the method if it is cached and {@code info} is better.
+     */
+    void upgrade(int slot, CompiledMethodInfo info) {
+        for (int e = 0; e < size; e++) {
+            if (slots[e] == slot) {
+                if (infos[e] == null || info.isBetterThan(infos[e])) {
+                    infos[e] = info;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands every cached method which has better code in {@code global} (lookup by method slot) to {@code installer}.
+     */
+    void refresh(IntFunction<CompiledMethodInfo> global, Installer installer) {
+        for (int e = 0; e < size; e++) {
+            final CompiledMethodInfo better = global.apply(slots[e]);
+            if (better != null && (infos[e] == null || better.isBetterThan(infos[e]))) {
+                installer.install(slots[e], better);
+            }
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    String report() {
+        return "inline cache: hits = " + hits + ", misses = " + misses;
+    }
+}
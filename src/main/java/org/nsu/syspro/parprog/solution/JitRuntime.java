@@ -0,0 +1,422 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.JitMetrics;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.ExecutionEngine;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongFunction;
+
+/**
+ * JIT state of one virtual machine, i.e. of one {@link ExecutionEngine}/{@link CompilationEngine} pair: compilation
+ * pool with its own `Thread-bound-compilation` budget, global code cache and global hotness, {@link MethodInterner}
+ * slots of methods, measured {@link OnlineCostModel}, warm-start {@link TieringProfile} and {@link JitMetrics}
+ * (exported via JMX while the runtime is not stopped).
+ * <br>
+ * A VM {@link #start starts} the runtime of its engines before creating user threads, which bind to it on
+ * construction, see {@link #of}. The {@code UserThread} contract has no VM lifecycle hook, so a thread of engines
+ * without a runtime starts one itself. Runtimes of different pairs share no mutable state, only process-wide settings
+ * of {@link SolutionThread} (default policy, code cache budget, hotness decay and the profile new runtimes warm up
+ * from).
+ * <br>
+ * Lifecycle: {@code RUNNING -> DRAINING -> STOPPED}. {@link #drain} stops admitting compile requests except urgent
+ * ones (threads waiting for `Eventual-per-thread-progress-*` deadlines) and waits for queued and running compilations;
+ * {@link #stop} cancels whatever is still queued, lets compilation threads exit, unexports metrics and unbinds the
+ * pair, so everything the runtime learned is dropped and the pair can be started again, except what
+ * {@link #persistProfile} saves for the next run.
+ * Threads must not outlive their runtime: compile requests after {@link #stop} are rejected, so a thread which is
+ * still running keeps executing correct but possibly slower code and may fail at a deadline.
+ */
+public final class JitRuntime {
+    public enum State {
+        RUNNING, DRAINING, STOPPED
+    }
+
+    private record Engines(ExecutionEngine exec, CompilationEngine compiler) {
+    }
+
+    private static final ConcurrentMap<Engines, JitRuntime> runtimes = new ConcurrentHashMap<>();
+    private static final AtomicInteger started = new AtomicInteger();
+
+    public static final String PROFILE_PROPERTY = "jit.profile";
+    public static final String PROFILE_INTERVAL_PROPERTY = "jit.profile.intervalSeconds";
+
+    private final Engines engines;
+    private final String name;
+    private final int compilationThreadBound;
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+    private final MethodInterner interner = new MethodInterner();
+    private final OnlineCostModel costModel = new OnlineCostModel(interner);
+    private final CompilationThreadPool pool;
+    private volatile TieringProfile warmStartProfile = SolutionThread.defaultProfile();
+
+    // Global code cache is an immutable snapshot replaced on every publication, see CodeCacheSnapshot; entries
+    // published after the latest epoch a thread has observed are not evicted
+    private final AtomicReference<CodeCacheSnapshot> globalCachedInfo;
+    private final AtomicLong observedEpoch = new AtomicLong();
+    private final GlobalHotness globalHotness;
+
+    // Submits requests of LowLatencyThreads, started by the first of them: guarded by this
+    private CompileRequestPump requestPump;
+
+    // Warm-start profile persistence, see persistProfile(): guarded by this
+    private Path profileFile;
+    private Thread profileHook;
+    private ScheduledExecutorService profileDumper;
+
+    private JitRuntime(Engines engines, int compilationThreadBound) {
+        this.engines = engines;
+        this.name = "jit-" + started.incrementAndGet();
+        this.compilationThreadBound = compilationThreadBound;
+        this.pool = new CompilationThreadPool(engines.compiler, compilationThreadBound);
+        // compilation costs are learned from the durations the pool measures anyway
+        pool.compilationListener((method, level, nanos) -> costModel.recordCompilation(method.id(), level, nanos));
+        this.globalHotness = new GlobalHotness(interner, pool.metrics());
+        this.globalCachedInfo = new AtomicReference<>(
+                CodeCacheSnapshot.empty(SolutionThread.codeCacheBudget(), globalHotness.referenced));
+    }
+
+    /**
+     * Starts the runtime of the engines.
+     *
+     * @throws IllegalStateException if the engines already have a runtime which is not stopped
+     */
+    public static JitRuntime start(ExecutionEngine exec, CompilationEngine compiler, int compilationThreadBound) {
+        final JitRuntime runtime = tryStart(new Engines(exec, compiler), compilationThreadBound);
+        if (runtime == null) {
+            throw new IllegalStateException("JIT runtime of these engines is already running");
+        }
+        return runtime;
+    }
+
+    /**
+     * @return started runtime or {@code null} if the engines already have one
+     */
+    private static JitRuntime tryStart(Engines engines, int compilationThreadBound) {
+        final JitRuntime runtime = new JitRuntime(engines, compilationThreadBound);
+        if (runtimes.putIfAbsent(engines, runtime) != null) {
+            // no thread was started yet, nothing to wait for
+            runtime.pool.shutdown();
+            return null;
+        }
+        // gauges read the pool, so they are registered once it is constructed and removed on stop
+        runtime.metrics().queueDepthGauge(runtime.pool::queueDepth);
+        runtime.metrics().export(runtime.name);
+        final String profile = System.getProperty(PROFILE_PROPERTY);
+        if (profile != null) {
+            try {
+                runtime.persistProfile(Path.of(profile), Duration.ofSeconds(Long.getLong(PROFILE_INTERVAL_PROPERTY, 0)));
+            } catch (IOException e) {
+                // broken profile only costs warm-up time
+                System.err.println("Ignoring tiering profile " + profile + ": " + e);
+            }
+        }
+        return runtime;
+    }
+
+    /**
+     * @param compilationThreadBound budget of the runtime if it is started by this call, ignored otherwise
+     * @return runtime the engines are bound to, started if there is none
+     */
+    public static JitRuntime of(ExecutionEngine exec, CompilationEngine compiler, int compilationThreadBound) {
+        final Engines engines = new Engines(exec, compiler);
+        while (true) {
+            final JitRuntime running = runtimes.get(engines);
+            if (running != null) {
+                return running;
+            }
+            final JitRuntime runtime = tryStart(engines, compilationThreadBound);
+            if (runtime != null) {
+                return runtime;
+            }
+        }
+    }
+
+    /**
+     * @return runtime the engines are bound to or {@code null} if there is none
+     */
+    public static JitRuntime find(ExecutionEngine exec, CompilationEngine compiler) {
+        return runtimes.get(new Engines(exec, compiler));
+    }
+
+    /**
+     * @return runtimes which are not stopped yet
+     */
+    public static Collection<JitRuntime> running() {
+        return List.copyOf(runtimes.values());
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * @return `Thread-bound-compilation` budget the runtime was started with
+     */
+    public int compilationThreadBound() {
+        return compilationThreadBound;
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    /**
+     * Stops admitting compile requests except urgent ones and waits until nothing is queued or compiling.
+     *
+     * @return {@code false} if the timeout elapsed first
+     */
+    public boolean drain(Duration timeout) throws InterruptedException {
+        state.compareAndSet(State.RUNNING, State.DRAINING);
+        pool.drain();
+        return pool.awaitIdle(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancels queued compilations, releases compilation threads once running ones finish, stops the request pump of
+     * {@link LowLatencyThread}s and unbinds the engines. Idempotent.
+     */
+    public void stop() {
+        if (state.getAndSet(State.STOPPED) == State.STOPPED) {
+            return;
+        }
+        runtimes.remove(engines, this);
+        pool.shutdown();
+        metrics().unexport();
+        metrics().queueDepthGauge(null);
+        synchronized (this) {
+            if (requestPump != null) {
+                requestPump.stop();
+            }
+        }
+        stopPersisting();
+    }
+
+    /**
+     * Makes the profile in {@code file} (empty if there is none yet) the warm-start profile of this runtime and dumps
+     * {@link #captureProfile} there on {@link #stop}, on JVM shutdown while the runtime runs and every
+     * {@code interval} if it is positive. Done on {@link #start} if {@code -Djit.profile=<file>} is set, with
+     * {@code -Djit.profile.intervalSeconds=<n>} as the interval.
+     * <br>
+     * Weak point: runtimes persisting to the same file overwrite each other, the last dump wins.
+     *
+     * @throws IOException if the file is not a profile, the runtime keeps its current profile then
+     */
+    public synchronized void persistProfile(Path file, Duration interval) throws IOException {
+        if (state() == State.STOPPED) {
+            throw new IllegalStateException("JIT runtime " + name + " is stopped");
+        }
+        useProfile(TieringProfile.load(file));
+        stopPersisting();
+        profileFile = file;
+        profileHook = new Thread(this::dumpProfile, name + "-profile-dump");
+        Runtime.getRuntime().addShutdownHook(profileHook);
+        if (interval.isPositive()) {
+            profileDumper = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, name + "-profile-dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            profileDumper.scheduleWithFixedDelay(this::dumpProfile, interval.toNanos(), interval.toNanos(),
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Last dump and release of whatever {@link #persistProfile} has set up.
+     */
+    private synchronized void stopPersisting() {
+        if (profileFile == null) {
+            return;
+        }
+        if (profileDumper != null) {
+            profileDumper.shutdownNow();
+            profileDumper = null;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(profileHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down: the hook dumps the profile anyway
+            return;
+        }
+        dumpProfile();
+        profileFile = null;
+        profileHook = null;
+    }
+
+    private void dumpProfile() {
+        final Path file;
+        synchronized (this) {
+            file = profileFile;
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            captureProfile().dump(file);
+        } catch (IOException e) {
+            System.err.println("Failed to dump tiering profile " + file + ": " + e);
+        }
+    }
+
+    CompilationThreadPool pool() {
+        return pool;
+    }
+
+    synchronized CompileRequestPump requestPump() {
+        if (requestPump == null) {
+            requestPump = new CompileRequestPump(this);
+            if (state() == State.STOPPED) {
+                requestPump.stop();
+            }
+        }
+        return requestPump;
+    }
+
+    MethodInterner interner() {
+        return interner;
+    }
+
+    /**
+     * @return metrics of the compilation pool and of the threads bound to this runtime
+     */
+    public JitMetrics metrics() {
+        return pool.metrics();
+    }
+
+    /**
+     * @return costs measured by threads and compilations of this runtime, input of {@link CostModelPolicy#online}
+     */
+    public OnlineCostModel costModel() {
+        return costModel;
+    }
+
+    /**
+     * Methods of {@code profile} are requested at their recorded tier on first invocation by threads of this runtime.
+     */
+    public void useProfile(TieringProfile profile) {
+        warmStartProfile = profile;
+    }
+
+    TieringProfile warmStartProfile() {
+        return warmStartProfile;
+    }
+
+    CodeCacheSnapshot snapshot() {
+        return globalCachedInfo.get();
+    }
+
+    void publish(long id, CompiledMethodInfo info) {
+        // lock-free publication: retry only if some other thread published concurrently
+        final int slot = interner.slotOf(id);
+        globalCachedInfo.getAndUpdate(snapshot -> snapshot.with(id, slot, info, observedEpoch.get()));
+    }
+
+    /**
+     * Called by a thread which has refreshed its caches from the snapshot of {@code epoch}. Wait-free: a single CAS,
+     * which fails only if another thread has just moved the epoch.
+     *
+     * @return {@code true} iff this call moved the observed epoch, the caller may {@link #trimCodeCache} then
+     */
+    boolean observed(long epoch) {
+        final long seen = observedEpoch.get();
+        return seen < epoch && observedEpoch.compareAndSet(seen, epoch);
+    }
+
+    /**
+     * Evicts global entries which were over budget but unobserved when they were published.
+     */
+    void trimCodeCache() {
+        globalCachedInfo.getAndUpdate(snapshot -> snapshot.trimmed(observedEpoch.get()));
+    }
+
+    /**
+     * Code of a method which a thread has executed but evicted from its private cache while the global snapshot
+     * evicted it too, so `Per-thread-monotonicity` holds without compiling it again.
+     *
+     * @return code of at least {@code level} or {@code null} if {@code level} is {@code null}
+     */
+    CompiledMethodInfo compiledCode(long methodID, CompilationLevel level) {
+        if (level == null) {
+            return null;
+        }
+        final CompiledMethod l2 = pool.compiledCode(CompilationLevel.L2, methodID);
+        if (l2 != null) {
+            return new CompiledMethodInfo(l2, CompilationLevel.L2);
+        }
+        final CompiledMethod l1 = level == CompilationLevel.L1 ? pool.compiledCode(CompilationLevel.L1, methodID) : null;
+        return l1 == null ? null : new CompiledMethodInfo(l1, CompilationLevel.L1);
+    }
+
+    /**
+     * @param code code a compilation request of the method was completed with
+     * @return {@code code} with the level it was compiled at: L2 code completes a superseded or skipped L1 request too
+     */
+    CompiledMethodInfo compiledInfo(long methodID, CompiledMethod code) {
+        final boolean l2 = pool.compiledCode(CompilationLevel.L2, methodID) == code;
+        return new CompiledMethodInfo(code, l2 ? CompilationLevel.L2 : CompilationLevel.L1);
+    }
+
+    GlobalHotness hotness() {
+        return globalHotness;
+    }
+
+    /**
+     * @return number of methods in the global code cache, at most what {@link SolutionThread#useCodeCacheBudget} allowed
+     * when the runtime was started
+     */
+    public int codeCacheSize() {
+        return globalCachedInfo.get().size();
+    }
+
+    /**
+     * @return tiers of all methods in the global code cache (compiled by any thread of the runtime, not evicted yet)
+     * with their global hotness
+     */
+    public TieringProfile captureProfile() {
+        final List<TieringProfile.Entry> entries = new ArrayList<>();
+        globalCachedInfo.get().forEach((id, info) ->
+                entries.add(new TieringProfile.Entry(id, info.compilationLevel, globalHotness.get(id))));
+        return new TieringProfile(entries);
+    }
+
+    /**
+     * Eagerly requests compilation of every method of the warm-start profile (see {@link #useProfile})
+     * which {@code resolver} knows about, hottest first, and publishes the code to the global code cache, so threads
+     * execute it from the first invocation on. Methods unknown to the resolver are still requested lazily on their
+     * first invocation.
+     *
+     * @return number of requested methods
+     */
+    public int warmUp(LongFunction<MethodID> resolver) {
+        return warmStartProfile.warmUp(pool, resolver,
+                (entry, code) -> publish(entry.methodID, compiledInfo(entry.methodID, code)));
+    }
+
+    /**
+     * Human-readable state, code cache size and lane occupancy.
+     */
+    public String report() {
+        final CodeCacheSnapshot snapshot = globalCachedInfo.get();
+        return name + " " + state() + ": code cache = " + snapshot.size() + " methods (" + snapshot.evictions()
+                + " evicted)\n" + pool.lanesReport();
+    }
+}
@@ -0,0 +1,233 @@
+package org.nsu.syspro.parprog.solution;
+
+import java.util.Arrays;
+
+/**
+ * Thread-unsafe open-addressing hash table from primitive {@code long} keys to primitive {@code long} values.
+ * <br>
+ * Designed for per-thread counters on the hot path of {@link SolutionThread#executeMethod}: lookups and in-place
+ * increments of an existing key never box and never allocate. Allocation only happens when the table grows,
+ * which (thanks to `Limited-methods`) stops after warm-up.
+ * <br>
+ * Missing keys are reported as {@code 0}, so the table behaves like a map of counters with implicit zero default.
+ * Any {@code long} is a valid key: key {@code 0} is used as "free slot" marker internally and is stored out of line.
+ */
+public final class LongLongTable {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongLongTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public long get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroValue : 0;
+        }
+        final int idx = find(key);
+        return idx < 0 ? 0 : values[idx];
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZeroKey;
+        }
+        return find(key) >= 0;
+    }
+
+    public void put(long key, long value) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        // index must be computed before `values` is read: insertion may reallocate the arrays
+        final int idx = insertionIndex(key);
+        values[idx] = value;
+    }
+
+    /**
+     * Adds {@code delta} to the value stored for {@code key} (missing key counts as {@code 0}).
+     *
+     * @return the updated value
+     */
+    public long addAndGet(long key, long delta) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue += delta;
+            return zeroValue;
+        }
+        final int idx = insertionIndex(key);
+        values[idx] += delta;
+        return values[idx];
+    }
+
+    /**
+     * Increments the value stored for {@code key} in place.
+     *
+     * @return the value before increment ({@code 0} if key was absent)
+     */
+    public long getAndIncrement(long key) {
+        return addAndGet(key, 1) - 1;
+    }
+
+    /**
+     * @return value which was stored for {@code key} ({@code 0} if key was absent)
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            final long removed = zeroValue;
+            if (hasZeroKey) {
+                hasZeroKey = false;
+                zeroValue = 0;
+                size--;
+            }
+            return removed;
+        }
+        int idx = find(key);
+        if (idx < 0) {
+            return 0;
+        }
+        final long removed = values[idx];
+        // backward-shift deletion: no tombstones, probe chains stay as short as if the key was never inserted
+        int next = (idx + 1) & mask;
+        while (keys[next] != 0) {
+            final int home = hash(keys[next]) & mask;
+            // move the entry into the hole unless its home lies cyclically in (idx, next]
+            if (((next - home) & mask) >= ((next - idx) & mask)) {
+                keys[idx] = keys[next];
+                values[idx] = values[next];
+                idx = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[idx] = 0;
+        values[idx] = 0;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        zeroValue = 0;
+        size = 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing: spreads sequential ids (typical for MethodID) over the whole table
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int find(long key) {
+        assert key != 0;
+        int idx = hash(key) & mask;
+        while (true) {
+            final long k = keys[idx];
+            if (k == key) {
+                return idx;
+            }
+            if (k == 0) {
+                return -1;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private int insertionIndex(long key) {
+        assert key != 0;
+        int idx = hash(key) & mask;
+        while (true) {
+            final long k = keys[idx];
+            if (k == key) {
+                return idx;
+            }
+            if (k == 0) {
+                if (size + 1 > resizeThreshold) {
+                    rehash(keys.length * 2);
+                    return insertionIndex(key);
+                }
+                keys[idx] = key;
+                size++;
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        allocate(newCapacity);
+        size = hasZeroKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long k = oldKeys[i];
+            if (k != 0) {
+                int idx = hash(k) & mask;
+                while (keys[idx] != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = k;
+                values[idx] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        assert Integer.bitCount(capacity) == 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity / 2; // load factor 0.5 keeps linear probe chains short
+    }
+
+    private static int capacityFor(int expectedSize) {
+        final int required = Math.max(DEFAULT_CAPACITY, expectedSize * 2);
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+}
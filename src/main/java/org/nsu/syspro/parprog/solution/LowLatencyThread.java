@@ -0,0 +1,138 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.UserThread;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+/**
+ * User thread for `Strong-worst-case-latency`: the work of {@link #executeMethod} before and after the engine call
+ * is wait-free, it never blocks on locks, futures or compilation threads and never retries a CAS.
+ * <br>
+ * Per invocation the thread does a constant number of steps on thread-confined tables, one volatile read of the
+ * global {@link CodeCacheSnapshot} and one lookup in it (plus one lookup in the compilation state if both caches
+ * evicted the method), plus a private cache refresh bounded by the {@link CodeCacheBudget} after each new
+ * publication. Compilation requests go to a wait-free
+ * {@link CompileRequestRing}, the {@link CompileRequestPump} submits them to the compilation pool, publishes
+ * the compiled code and hands rejected requests back through the same ring, one is polled per invocation and made
+ * again when the policy asks. The global snapshot, the compilation pool and the pump belong to the {@link JitRuntime}
+ * of the thread's engines and are shared with {@link SolutionThread}s of the same engines.
+ * <br>
+ * Relaxed constraint: `Eventual-per-thread-progress-1/2`. Compiled code is executed on the first invocation after it
+ * is published, but the thread never waits for it, so the number of slower invocations before that is bounded by
+ * compilation time rather than by 10_000 / 100_000 invocations. All other constraints are kept.
+ * <br>
+ * Weak points: hotness is local, so methods are compiled only when hot in some single thread
+ * (merging hotness across threads needs a contended shared structure); a request which does not fit into the full
+ * ring is dropped and offered again on the next invocation; the first invocation of the thread registers its ring
+ * with the pump under the lock of the runtime (once per thread), the first invocation of a method never seen by any
+ * thread interns it under the lock of the runtime's {@link MethodInterner} (once per method for the whole run) and array
+ * growth on first invocations of new methods is amortized, not constant.
+ */
+public class LowLatencyThread extends UserThread {
+    private final PrivateCodeCache privateCachedInfo = new PrivateCodeCache(SolutionThread.codeCacheBudget());
+    private CodeCacheSnapshot seenSnapshot = CodeCacheSnapshot.EMPTY;
+
+    // indexed by MethodInterner slot
+    private final DenseLongArray localHotness = new DenseLongArray();
+    private final DenseLongArray firstSeenNanos = new DenseLongArray();
+    // highest level accepted by the ring (ordinal + 1)
+    private final DenseLongArray requestedLevel = new DenseLongArray();
+
+    private final TieringPolicy policy;
+    private final MethodProfile profile;
+    private final JitRuntime runtime;
+    private final MethodInterner interner;
+    private final CompileRequestRing requests = new CompileRequestRing();
+    private boolean registered = false;
+
+    /**
+     * Thread of engines whose {@link JitRuntime} is already {@link JitRuntime#start started}, with its compilation
+     * thread bound.
+     *
+     * @throws IllegalStateException if the engines have no runtime
+     */
+    public LowLatencyThread(ExecutionEngine exec, CompilationEngine compiler, Runnable r) {
+        this(runtimeOf(exec, compiler).compilationThreadBound(), exec, compiler, r, SolutionThread.defaultPolicy());
+    }
+
+    public LowLatencyThread(int compilationThreadBound, ExecutionEngine exec, CompilationEngine compiler, Runnable r,
+                            TieringPolicy policy) {
+        super(compilationThreadBound, exec, compiler, r);
+        this.policy = policy;
+        this.runtime = JitRuntime.of(exec, compiler, compilationThreadBound);
+        this.interner = runtime.interner();
+        this.profile = new MethodProfile(System::nanoTime, runtime.costModel());
+    }
+
+    private static JitRuntime runtimeOf(ExecutionEngine exec, CompilationEngine compiler) {
+        final JitRuntime runtime = JitRuntime.find(exec, compiler);
+        if (runtime == null) {
+            throw new IllegalStateException("No JIT runtime of the engines to take the thread bound from");
+        }
+        return runtime;
+    }
+
+    @Override
+    public ExecutionResult executeMethod(MethodID id) {
+        if (!registered) {
+            // here rather than in the constructor: the pump must not see the thread before it is constructed
+            runtime.requestPump().register(this, requests);
+            registered = true;
+        }
+        final int rejected = requests.pollRejected();
+        if (rejected >= 0) {
+            // the policy asks again if the method is still hot enough
+            requestedLevel.put(rejected, 0);
+        }
+
+        final long methodID = id.id();
+        final int slot = interner.slotOf(methodID);
+        final long hotLevel = localHotness.getAndIncrement(slot);
+        if (hotLevel == 0) {
+            firstSeenNanos.put(slot, System.nanoTime());
+        }
+
+        final CodeCacheSnapshot snapshot = runtime.snapshot();
+        if (snapshot.epoch != seenSnapshot.epoch) {
+            privateCachedInfo.refresh(snapshot::get);
+            seenSnapshot = snapshot;
+            // trimming the global cache is left to SolutionThreads, it is not wait-free
+            runtime.observed(snapshot.epoch);
+        }
+        CompiledMethodInfo info = privateCachedInfo.get(slot);
+        if (info == null) {
+            info = seenSnapshot.get(slot);
+            if (info == null) {
+                // evicted by both caches: one lock-free lookup in the compilation state of the pool
+                info = runtime.compiledCode(methodID, privateCachedInfo.evictedLevel(slot));
+            }
+            if (info != null) {
+                privateCachedInfo.install(slot, info);
+            }
+        }
+
+        final ExecutionResult execResult = info == null ? exec.interpret(id) : exec.execute(info.compiledMethod);
+
+        final long currentLevel = info == null ? 0 : info.compilationLevel.ordinal() + 1;
+        final long requested = Math.max(requestedLevel.get(slot), currentLevel);
+        if (requested < CompilationLevel.L2.ordinal() + 1) {
+            profile.update(methodID, hotLevel + 1, hotLevel + 1, 0, firstSeenNanos.get(slot),
+                    SolutionThread.levelOf(currentLevel), SolutionThread.levelOf(requested));
+            final CompilationLevel decided = policy.decide(profile);
+            // marked as requested only once accepted: a full ring is retried on the next invocation
+            if (decided != null && decided.ordinal() + 1 > requested
+                    && requests.offer(id, slot, decided, profile.invocationRate())) {
+                requestedLevel.put(slot, decided.ordinal() + 1);
+            }
+        }
+        return execResult;
+    }
+
+    /**
+     * Occupancy of the private code cache, must be called by this thread.
+     */
+    public String codeCacheReport() {
+        return privateCachedInfo.report();
+    }
+}
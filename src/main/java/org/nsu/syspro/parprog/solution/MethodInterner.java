@@ -0,0 +1,123 @@
+package org.nsu.syspro.parprog.solution;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mapping of method ids to dense slots {@code 0, 1, 2, ...} in order of first sight, one per {@link JitRuntime}.
+ * <br>
+ * Per-thread state is kept in arrays indexed by slot (see {@link DenseLongArray}), so an invocation costs a single
+ * probe of this table instead of a hash lookup per table. Lookups of interned ids never lock: keys live in an
+ * open-addressing {@link AtomicLongArray}, the slot of a key is written before the key itself is published by a
+ * release store, and a grown table replaces the old one as a whole. New ids are inserted under the lock of this
+ * object, which happens once per method for the whole run (`Limited-methods`).
+ * <br>
+ * Weak point: slots are never reused while the runtime runs, so a per-thread array is as long as the highest slot its
+ * thread has seen, not as the number of methods it executes. The table is dropped together with its runtime.
+ */
+final class MethodInterner {
+    private static final int INITIAL_CAPACITY = 1024; // power of two
+
+    private static final class Table {
+        // 0 is the free-cell marker, id 0 is stored out of line
+        final AtomicLongArray keys;
+        final int[] slots;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new AtomicLongArray(capacity);
+            slots = new int[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private volatile int zeroSlot = -1;
+    private volatile long[] ids = new long[INITIAL_CAPACITY];
+    private int size = 0; // guarded by this
+
+    private static int index(long methodID, int mask) {
+        return (int) ((methodID * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * @return dense slot of the method, interning it on first sight
+     */
+    int slotOf(long methodID) {
+        if (methodID == 0) {
+            final int slot = zeroSlot;
+            return slot >= 0 ? slot : intern(methodID);
+        }
+        final Table t = table;
+        for (int i = index(methodID, t.mask); ; i = (i + 1) & t.mask) {
+            final long key = t.keys.getAcquire(i);
+            if (key == methodID) {
+                return t.slots[i];
+            }
+            if (key == 0) {
+                return intern(methodID);
+            }
+        }
+    }
+
+    long idOf(int slot) {
+        return ids[slot];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private synchronized int intern(long methodID) {
+        // interned by another thread since the lock-free probe, or probed a table which was already replaced
+        if (methodID == 0) {
+            if (zeroSlot >= 0) {
+                return zeroSlot;
+            }
+        } else {
+            final Table t = table;
+            for (int i = index(methodID, t.mask); ; i = (i + 1) & t.mask) {
+                final long key = t.keys.getPlain(i);
+                if (key == methodID) {
+                    return t.slots[i];
+                }
+                if (key == 0) {
+                    break;
+                }
+            }
+        }
+
+        final int slot = size++;
+        if (slot == ids.length) {
+            ids = Arrays.copyOf(ids, slot * 2);
+        }
+        // published together with the key: readers of a slot always see its id
+        ids[slot] = methodID;
+        if (methodID == 0) {
+            zeroSlot = slot;
+            return slot;
+        }
+        if (2 * size > table.slots.length) {
+            final Table grown = new Table(table.slots.length * 2);
+            final Table old = table;
+            for (int i = 0; i < old.slots.length; i++) {
+                final long key = old.keys.getPlain(i);
+                if (key != 0) {
+                    insert(grown, key, old.slots[i]);
+                }
+            }
+            table = grown;
+        }
+        insert(table, methodID, slot);
+        return slot;
+    }
+
+    private static void insert(Table t, long methodID, int slot) {
+        int i = index(methodID, t.mask);
+        while (t.keys.getPlain(i) != 0) {
+            i = (i + 1) & t.mask;
+        }
+        t.slots[i] = slot;
+        t.keys.setRelease(i, methodID);
+    }
+}
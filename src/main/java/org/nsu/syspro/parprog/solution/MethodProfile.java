@@ -0,0 +1,108 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Profile data of a single method as seen by a {@link SolutionThread}, input of {@link TieringPolicy}.
+ * <br>
+ * Flyweight: every thread owns one instance and refills it before each policy call, so consulting the policy does not
+ * allocate. Do not keep references to it after {@link TieringPolicy#decide} returns.
+ * <br>
+ * Time is read from {@link System#nanoTime()} except in the policy simulator of the tests, which supplies its virtual clock.
+ * Likewise, {@link #costModel()} is the model measured by the {@link JitRuntime} of the thread or the simulated one.
+ */
+public final class MethodProfile {
+    private long methodID;
+    private long invocations;
+    private long recentInvocations;
+    private long globalInvocations;
+    private long firstSeenNanos;
+    private CompilationLevel currentLevel;
+    private CompilationLevel requestedLevel;
+    private final LongSupplier clock;
+    private final CostModel costModel;
+
+    MethodProfile() {
+        this(System::nanoTime, new OnlineCostModel());
+    }
+
+    MethodProfile(LongSupplier clock, CostModel costModel) {
+        this.clock = clock;
+        this.costModel = costModel;
+    }
+
+    MethodProfile update(long methodID, long invocations, long recentInvocations, long globalInvocations,
+                         long firstSeenNanos, CompilationLevel currentLevel, CompilationLevel requestedLevel) {
+        this.methodID = methodID;
+        this.invocations = invocations;
+        this.recentInvocations = recentInvocations;
+        this.globalInvocations = globalInvocations;
+        this.firstSeenNanos = firstSeenNanos;
+        this.currentLevel = currentLevel;
+        this.requestedLevel = requestedLevel;
+        return this;
+    }
+
+    public long methodID() {
+        return methodID;
+    }
+
+    /**
+     * @return invocations of the method by this thread, including the current one
+     */
+    public long invocations() {
+        return invocations;
+    }
+
+    /**
+     * @return invocations by this thread decayed by {@link HotnessDecay}, including the current one
+     */
+    public long recentInvocations() {
+        return recentInvocations;
+    }
+
+    /**
+     * @return invocations by all threads decayed by {@link HotnessDecay}, as of the last hotness flush of this thread
+     */
+    public long globalInvocations() {
+        return globalInvocations;
+    }
+
+    /**
+     * @return the larger of recent local and global invocation counts
+     */
+    public long hotness() {
+        return Math.max(recentInvocations, globalInvocations);
+    }
+
+    /**
+     * @return invocations per second by this thread since the first one; reads the clock, so call it only when needed
+     */
+    public double invocationRate() {
+        final long elapsed = clock.getAsLong() - firstSeenNanos;
+        return invocations * 1e9 / Math.max(1, elapsed);
+    }
+
+    /**
+     * @return costs of the method measured so far by the runtime of this thread
+     */
+    public CostModel costModel() {
+        return costModel;
+    }
+
+    /**
+     * @return tier of code this thread has just executed or {@code null} if the method was interpreted
+     */
+    public CompilationLevel currentLevel() {
+        return currentLevel;
+    }
+
+    /**
+     * @return highest tier already requested by this thread or available to it, {@code null} if none
+     */
+    public CompilationLevel requestedLevel() {
+        return requestedLevel;
+    }
+}
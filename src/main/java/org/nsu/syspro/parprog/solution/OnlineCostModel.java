@@ -0,0 +1,356 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link CostModel} learned from measurements of the running program, one per {@link JitRuntime}.
+ * <br>
+ * {@link SolutionThread}s time every {@link SolutionThread#COST_SAMPLE_INTERVAL}-th execution of a method, compilation
+ * threads time every compilation. Samples are folded into exponentially weighted moving averages per method and
+ * globally. A per-method estimate is used once the method has samples of that kind, otherwise the global one; before
+ * anything was measured, tiers are assumed to be {@code 2x} and {@code 10x} faster than interpretation and to cost as
+ * much to compile as {@code 1_000} and {@code 10_000} interpretations.
+ * <br>
+ * Per-method estimates live in primitive arrays indexed by {@link MethodInterner} slot, split into fixed pages, so
+ * recording never boxes and a page never moves once created. User threads never lock here: each one samples into its
+ * own {@link Recorder}, which is its view of the model and publishes the thread's estimates with its hotness flush
+ * (the last publishing thread wins, estimates of the same method by different threads differ only by noise), so up
+ * to one flush interval of samples per thread is missing from what other threads see. Global estimates are shared by
+ * all threads, so a publication merges the mean of the thread's new samples into them by CAS, weighted as if the
+ * samples were folded in one by one.
+ * Compilation samples are reported by the {@link org.nsu.syspro.parprog.CompilationThreadPool pool} and recorded by
+ * compilation threads directly, the only ones which take the lock of the model.
+ * <br>
+ * Weak point: execution time includes nested {@code executeMethod} calls of the sampled method (`Recursion-correctness`),
+ * so callers look more expensive than they are and are compiled earlier.
+ */
+public final class OnlineCostModel implements CostModel {
+    private static final double ALPHA = 0.125; // weight of a new sample
+    private static final double DEFAULT_INTERPRET_NANOS = 100;
+    private static final double L1_PRIOR_SPEEDUP = 2;
+    private static final double L2_PRIOR_SPEEDUP = 10;
+    private static final double L1_PRIOR_COMPILE_INTERPRETATIONS = 1_000;
+    private static final double L2_PRIOR_COMPILE_INTERPRETATIONS = 10_000;
+
+    // kinds of measurements, index into estimate arrays; execution kinds go first
+    private static final int INTERPRET = 0;
+    private static final int EXECUTE_L1 = 1;
+    private static final int EXECUTE_L2 = 2;
+    private static final int COMPILE_L1 = 3;
+    private static final int COMPILE_L2 = 4;
+    private static final int EXECUTION_KINDS = 3;
+    private static final int KINDS = 5;
+
+    private static final int PAGE_SLOTS = 1024; // power of two
+
+    private final MethodInterner interner;
+
+    // estimates of slots [i * PAGE_SLOTS, (i + 1) * PAGE_SLOTS), the directory is replaced under the lock
+    private volatile Page[] pages = new Page[0];
+    // mean as double bits (NaN until the first sample) and number of samples per kind
+    private final AtomicLongArray globalMeans = new AtomicLongArray(KINDS);
+    private final AtomicLongArray globalSamples = new AtomicLongArray(KINDS);
+
+    private static final class Page {
+        final AtomicLongArray means = new AtomicLongArray(PAGE_SLOTS * KINDS);
+        final AtomicLongArray samples = new AtomicLongArray(PAGE_SLOTS * KINDS);
+    }
+
+    /**
+     * Model with its own method slots, for use outside of a runtime.
+     */
+    public OnlineCostModel() {
+        this(new MethodInterner());
+    }
+
+    OnlineCostModel(MethodInterner interner) {
+        this.interner = interner;
+        for (int kind = 0; kind < KINDS; kind++) {
+            globalMeans.set(kind, Double.doubleToRawLongBits(Double.NaN));
+        }
+    }
+
+    private static int executionKind(CompilationLevel level) {
+        if (level == null) {
+            return INTERPRET;
+        }
+        return switch (level) {
+            case L1 -> EXECUTE_L1;
+            case L2 -> EXECUTE_L2;
+        };
+    }
+
+    private static int compilationKind(CompilationLevel level) {
+        return switch (level) {
+            case L1 -> COMPILE_L1;
+            case L2 -> COMPILE_L2;
+        };
+    }
+
+    private static double ewma(double mean, long samples, double nanos) {
+        return samples == 0 ? nanos : mean + ALPHA * (nanos - mean);
+    }
+
+    /**
+     * Folds {@code count} samples with mean {@code mean} into the global estimate of {@code kind}. Lock-free, so
+     * concurrent publications and compilation samples are all merged.
+     */
+    private void mergeGlobal(int kind, double mean, long count) {
+        // weight of count samples folded in one by one, ALPHA for a single one
+        final double weight = 1 - Math.pow(1 - ALPHA, count);
+        long bits;
+        double merged;
+        do {
+            bits = globalMeans.get(kind);
+            final double current = Double.longBitsToDouble(bits);
+            merged = Double.isNaN(current) ? mean : current + weight * (mean - current);
+        } while (!globalMeans.compareAndSet(kind, bits, Double.doubleToRawLongBits(merged)));
+        // a reader which sees the samples sees a mean
+        globalSamples.getAndAdd(kind, count);
+    }
+
+    /**
+     * @return page of the slot or {@code null} if nothing was recorded for it yet
+     */
+    private Page pageOf(int slot) {
+        final Page[] p = pages;
+        final int index = slot / PAGE_SLOTS;
+        return index < p.length ? p[index] : null;
+    }
+
+    private synchronized Page createPageOf(int slot) {
+        final int index = slot / PAGE_SLOTS;
+        if (index < pages.length && pages[index] != null) {
+            return pages[index];
+        }
+        // published directories are never written to
+        final Page[] p = Arrays.copyOf(pages, Math.max(pages.length, index + 1));
+        p[index] = new Page();
+        pages = p;
+        return p[index];
+    }
+
+    private void publish(int slot, int kind, double mean, long samples) {
+        Page page = pageOf(slot);
+        if (page == null) {
+            page = createPageOf(slot);
+        }
+        final int i = (slot & (PAGE_SLOTS - 1)) * KINDS + kind;
+        // a reader which sees the samples sees a mean
+        page.means.setRelease(i, Double.doubleToRawLongBits(mean));
+        page.samples.setRelease(i, samples);
+    }
+
+    /**
+     * For callers outside the invocation path: {@link SolutionThread}s record through their {@link Recorder}.
+     *
+     * @param level tier of executed code, {@code null} for interpretation
+     */
+    public void recordExecution(long methodID, CompilationLevel level, long nanos) {
+        record(methodID, executionKind(level), nanos);
+    }
+
+    /**
+     * Called by compilation threads, see {@link JitRuntime}.
+     */
+    public void recordCompilation(long methodID, CompilationLevel level, long nanos) {
+        record(methodID, compilationKind(level), nanos);
+    }
+
+    private synchronized void record(long methodID, int kind, long nanos) {
+        mergeGlobal(kind, nanos, 1);
+
+        final int slot = interner.slotOf(methodID);
+        final Page page = pageOf(slot);
+        final int i = (slot & (PAGE_SLOTS - 1)) * KINDS + kind;
+        final long samples = page == null ? 0 : page.samples.get(i);
+        final double mean = page == null ? 0 : Double.longBitsToDouble(page.means.get(i));
+        publish(slot, kind, ewma(mean, samples, nanos), samples + 1);
+    }
+
+    /**
+     * @return measured estimate or {@code NaN} if there are no samples of this kind at all
+     */
+    private double measured(long methodID, int kind, Recorder local) {
+        final int slot = interner.slotOf(methodID);
+        final boolean execution = kind < EXECUTION_KINDS;
+        if (local != null && execution && local.samples[kind].get(slot) > 0) {
+            return Double.longBitsToDouble(local.means[kind].get(slot));
+        }
+        final Page page = pageOf(slot);
+        final int i = (slot & (PAGE_SLOTS - 1)) * KINDS + kind;
+        if (page != null && page.samples.getAcquire(i) > 0) {
+            return Double.longBitsToDouble(page.means.get(i));
+        }
+        if (local != null && execution && local.globalSamples[kind] > 0) {
+            return local.globalMeans[kind];
+        }
+        return globalSamples.getAcquire(kind) > 0 ? Double.longBitsToDouble(globalMeans.get(kind)) : Double.NaN;
+    }
+
+    private double interpretNanos(long methodID, Recorder local) {
+        final double measured = measured(methodID, INTERPRET, local);
+        return Double.isNaN(measured) ? DEFAULT_INTERPRET_NANOS : measured;
+    }
+
+    private double executeNanos(long methodID, CompilationLevel level, Recorder local) {
+        final double measured = measured(methodID, executionKind(level), local);
+        if (!Double.isNaN(measured)) {
+            return measured;
+        }
+        return interpretNanos(methodID, local) / switch (level) {
+            case L1 -> L1_PRIOR_SPEEDUP;
+            case L2 -> L2_PRIOR_SPEEDUP;
+        };
+    }
+
+    private double compileNanos(long methodID, CompilationLevel level, Recorder local) {
+        final double measured = measured(methodID, compilationKind(level), local);
+        if (!Double.isNaN(measured)) {
+            return measured;
+        }
+        return interpretNanos(methodID, local) * switch (level) {
+            case L1 -> L1_PRIOR_COMPILE_INTERPRETATIONS;
+            case L2 -> L2_PRIOR_COMPILE_INTERPRETATIONS;
+        };
+    }
+
+    @Override
+    public double interpretNanos(long methodID) {
+        return interpretNanos(methodID, null);
+    }
+
+    @Override
+    public double executeNanos(long methodID, CompilationLevel level) {
+        return executeNanos(methodID, level, null);
+    }
+
+    @Override
+    public double compileNanos(long methodID, CompilationLevel level) {
+        return compileNanos(methodID, level, null);
+    }
+
+    /**
+     * @return new thread-confined recorder of execution samples
+     */
+    Recorder recorder() {
+        return new Recorder(this);
+    }
+
+    long executionSamples() {
+        return globalSamples.get(INTERPRET) + globalSamples.get(EXECUTE_L1) + globalSamples.get(EXECUTE_L2);
+    }
+
+    private double globalMean(int kind) {
+        return Double.longBitsToDouble(globalMeans.get(kind));
+    }
+
+    public String report() {
+        int methods = 0;
+        for (Page page : pages) {
+            for (int i = 0; page != null && i < PAGE_SLOTS; i++) {
+                for (int kind = 0; kind < KINDS; kind++) {
+                    if (page.samples.get(i * KINDS + kind) > 0) {
+                        methods++;
+                        break;
+                    }
+                }
+            }
+        }
+        return String.format("OnlineCostModel(interpret=%.1f, executeL1=%.1f, executeL2=%.1f, compileL1=%.1f, " +
+                        "compileL2=%.1f ns; samples=%d/%d/%d/%d/%d, methods=%d)",
+                globalMean(INTERPRET), globalMean(EXECUTE_L1), globalMean(EXECUTE_L2),
+                globalMean(COMPILE_L1), globalMean(COMPILE_L2),
+                globalSamples.get(INTERPRET), globalSamples.get(EXECUTE_L1), globalSamples.get(EXECUTE_L2),
+                globalSamples.get(COMPILE_L1), globalSamples.get(COMPILE_L2), methods);
+    }
+
+    /**
+     * Execution samples of one thread and its view of the model: its own estimates first, then the published ones.
+     * Thread-confined; recording does not allocate in steady state.
+     */
+    static final class Recorder implements CostModel {
+        private final OnlineCostModel model;
+        // per execution kind, indexed by slot: mean as double bits and number of samples
+        private final DenseLongArray[] means = new DenseLongArray[EXECUTION_KINDS];
+        private final DenseLongArray[] samples = new DenseLongArray[EXECUTION_KINDS];
+        // bit per execution kind sampled since the last publication
+        private final DenseLongArray dirty = new DenseLongArray();
+        private final double[] globalMeans = new double[EXECUTION_KINDS];
+        private final long[] globalSamples = new long[EXECUTION_KINDS];
+        private final long[] unpublishedSamples = new long[EXECUTION_KINDS];
+        private final double[] unpublishedNanos = new double[EXECUTION_KINDS];
+
+        private Recorder(OnlineCostModel model) {
+            this.model = model;
+            for (int kind = 0; kind < EXECUTION_KINDS; kind++) {
+                means[kind] = new DenseLongArray();
+                samples[kind] = new DenseLongArray();
+            }
+        }
+
+        /**
+         * @param slot  {@link MethodInterner} slot of the method in the runtime of the model
+         * @param level tier of executed code, {@code null} for interpretation
+         */
+        void record(int slot, CompilationLevel level, long nanos) {
+            final int kind = executionKind(level);
+            final long n = samples[kind].get(slot);
+            means[kind].put(slot, Double.doubleToRawLongBits(
+                    ewma(Double.longBitsToDouble(means[kind].get(slot)), n, nanos)));
+            samples[kind].put(slot, n + 1);
+            dirty.put(slot, dirty.get(slot) | 1L << kind);
+
+            globalMeans[kind] = ewma(globalMeans[kind], globalSamples[kind], nanos);
+            globalSamples[kind]++;
+            unpublishedSamples[kind]++;
+            unpublishedNanos[kind] += nanos;
+        }
+
+        /**
+         * Publishes estimates of the slots sampled since the last call among the first {@code count} of {@code slots}.
+         */
+        void publish(int[] slots, int count) {
+            for (int i = 0; i < count; i++) {
+                final int slot = slots[i];
+                final long kinds = dirty.get(slot);
+                if (kinds == 0) {
+                    continue;
+                }
+                dirty.put(slot, 0);
+                for (int kind = 0; kind < EXECUTION_KINDS; kind++) {
+                    if ((kinds & 1L << kind) != 0) {
+                        model.publish(slot, kind, Double.longBitsToDouble(means[kind].get(slot)),
+                                samples[kind].get(slot));
+                    }
+                }
+            }
+            for (int kind = 0; kind < EXECUTION_KINDS; kind++) {
+                if (unpublishedSamples[kind] > 0) {
+                    final long n = unpublishedSamples[kind];
+                    model.mergeGlobal(kind, unpublishedNanos[kind] / n, n);
+                    unpublishedSamples[kind] = 0;
+                    unpublishedNanos[kind] = 0;
+                }
+            }
+        }
+
+        @Override
+        public double interpretNanos(long methodID) {
+            return model.interpretNanos(methodID, this);
+        }
+
+        @Override
+        public double executeNanos(long methodID, CompilationLevel level) {
+            return model.executeNanos(methodID, level, this);
+        }
+
+        @Override
+        public double compileNanos(long methodID, CompilationLevel level) {
+            return model.compileNanos(methodID, level, this);
+        }
+    }
+}
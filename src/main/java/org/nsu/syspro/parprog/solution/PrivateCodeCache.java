@@ -0,0 +1,201 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-confined cache of compiled code in front of the global {@link CodeCacheSnapshot}, bounded by
+ * {@link CodeCacheBudget}.
+ * <br>
+ * Replacement policy is CLOCK: every hit sets the reference bit of the entry, the eviction hand clears set bits and
+ * evicts the first entry whose bit is already clear, i.e. the first method which was not executed by this thread
+ * during the last sweep. Methods are identified by {@link MethodInterner} slots, so a hit costs two array loads and a
+ * single store into thread-local arrays.
+ * <br>
+ * Eviction never breaks `Per-thread-monotonicity`: every entry is published to the global snapshot before (or
+ * together with) being installed here and the global snapshot is never downgraded, so the next invocation of an
+ * evicted method finds the same or better code there and re-installs it. The global snapshot is bounded by the same
+ * budget and may have evicted the method too: the cache remembers the level of every method it evicted
+ * ({@link #evictedLevel}), so the thread fetches the code from the compilation state, which keeps it anyway because
+ * `CPU-bound-compilation` forbids compiling it again.
+ */
+final class PrivateCodeCache {
+    private static final int INITIAL_SLOTS = 16;
+
+    private final CodeCacheBudget budget;
+
+    // method slot -> entry slot + 1
+    private final DenseLongArray slotOf = new DenseLongArray();
+    // method slot -> level of the last evicted entry (ordinal + 1), 0 if it was never evicted
+    private final DenseLongArray evictedLevels = new DenseLongArray();
+    // entry slot arrays, free slot has null info
+    private int[] methods = new int[INITIAL_SLOTS];
+    private CompiledMethodInfo[] infos = new CompiledMethodInfo[INITIAL_SLOTS];
+    private boolean[] referenced = new boolean[INITIAL_SLOTS];
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeCount = 0;
+    private int allocatedSlots = 0;
+    private int hand = 0;
+    private int size = 0;
+
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    PrivateCodeCache(CodeCacheBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return cached code or {@code null}, hit marks the entry as recently used
+     */
+    CompiledMethodInfo get(int method) {
+        final long slot = slotOf.get(method);
+        if (slot == 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        referenced[(int) slot - 1] = true;
+        return infos[(int) slot - 1];
+    }
+
+    /**
+     * Installs {@code info} unless the cache already has the same or higher level for the method, evicts cold
+     * methods if the budget is exceeded.
+     *
+     * @return number of evicted methods
+     */
+    int install(int method, CompiledMethodInfo info) {
+        final long slot = slotOf.get(method);
+        if (slot != 0) {
+            final int i = (int) slot - 1;
+            if (!info.isBetterThan(infos[i])) {
+                return 0;
+            }
+            bytes += costOf(info) - costOf(infos[i]);
+            infos[i] = info;
+            referenced[i] = true;
+            return makeRoom(0, i);
+        }
+
+        final long cost = costOf(info);
+        final int evicted = makeRoom(cost, -1);
+        final int i = allocateSlot();
+        methods[i] = method;
+        infos[i] = info;
+        referenced[i] = true;
+        slotOf.put(method, i + 1);
+        size++;
+        bytes += cost;
+        return evicted;
+    }
+
+    /**
+     * Upgrades cached methods which have better code in {@code global} (lookup by method slot). Methods missing here are not copied: they are
+     * installed lazily on first lookup miss.
+     *
+     * @return number of evicted methods
+     */
+    int refresh(IntFunction<CompiledMethodInfo> global) {
+        for (int i = 0; i < allocatedSlots; i++) {
+            if (infos[i] == null) {
+                continue;
+            }
+            final CompiledMethodInfo better = global.apply(methods[i]);
+            if (better != null && better.isBetterThan(infos[i])) {
+                bytes += costOf(better) - costOf(infos[i]);
+                infos[i] = better;
+            }
+        }
+        return makeRoom(0, -1);
+    }
+
+    private long costOf(CompiledMethodInfo info) {
+        return budget.costOf(info.compilationLevel);
+    }
+
+    /**
+     * Evicts methods until {@code extraBytes} more fit into the budget. Slot {@code keep} is never evicted.
+     */
+    private int makeRoom(long extraBytes, int keep) {
+        int evicted = 0;
+        while (bytes > budget.maxBytes - extraBytes && size > (keep < 0 ? 0 : 1)) {
+            if (hand >= allocatedSlots) {
+                hand = 0;
+            }
+            final int i = hand++;
+            if (infos[i] == null || i == keep) {
+                continue;
+            }
+            if (referenced[i]) {
+                referenced[i] = false; // second chance
+                continue;
+            }
+            evict(i);
+            evicted++;
+        }
+        return evicted;
+    }
+
+    private void evict(int i) {
+        evictedLevels.put(methods[i], infos[i].compilationLevel.ordinal() + 1);
+        bytes -= costOf(infos[i]);
+        slotOf.put(methods[i], 0);
+        infos[i] = null;
+        methods[i] = 0;
+        size--;
+        freeSlots[freeCount++] = i;
+        evictions++;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (allocatedSlots == infos.length) {
+            final int capacity = infos.length * 2;
+            methods = Arrays.copyOf(methods, capacity);
+            infos = Arrays.copyOf(infos, capacity);
+            referenced = Arrays.copyOf(referenced, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return allocatedSlots++;
+    }
+
+    /**
+     * @return level of the code this cache evicted for the method, {@code null} if it never did
+     */
+    CompilationLevel evictedLevel(int method) {
+        return SolutionThread.levelOf(evictedLevels.get(method));
+    }
+
+    int size() {
+        return size;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    String report() {
+        return budget + ": methods = " + size() + ", bytes = " + bytes
+                + ", hits = " + hits + ", misses = " + misses + ", evictions = " + evictions;
+    }
+}
@@ -0,0 +1,49 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Request a tier once this thread calls the method faster than the tier's rate (invocations per second).
+ * <br>
+ * Optimizes hot-path speed: a method in a tight loop is compiled after {@link #minInvocations} calls instead of
+ * thousands, while a method called now and then is left to the `Eventual-per-thread-progress-*` backstop.
+ * Rate is re-evaluated every {@link #SAMPLE_INTERVAL} invocations only, since it reads the clock.
+ */
+public final class RatePolicy implements TieringPolicy {
+    public static final int SAMPLE_INTERVAL = 64; // power of two
+    public static final RatePolicy DEFAULT = new RatePolicy(256, 100_000, 1_000_000);
+
+    public final long minInvocations;
+    public final double l1Rate;
+    public final double l2Rate;
+
+    public RatePolicy(long minInvocations, double l1Rate, double l2Rate) {
+        this.minInvocations = minInvocations;
+        this.l1Rate = l1Rate;
+        this.l2Rate = l2Rate;
+        if (minInvocations < 0 || l1Rate <= 0 || l2Rate < l1Rate) {
+            throw new IllegalArgumentException("Rates must satisfy 0 < l1 <= l2: " + this);
+        }
+    }
+
+    @Override
+    public CompilationLevel decide(MethodProfile profile) {
+        final long invocations = profile.invocations();
+        if (invocations < minInvocations || (invocations & (SAMPLE_INTERVAL - 1)) != 0) {
+            return null;
+        }
+        final double rate = profile.invocationRate();
+        if (rate >= l2Rate) {
+            return CompilationLevel.L2;
+        }
+        if (rate >= l1Rate) {
+            return CompilationLevel.L1;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RatePolicy(minInvocations=%d, l1Rate=%.1f, l2Rate=%.1f)", minInvocations, l1Rate, l2Rate);
+    }
+}
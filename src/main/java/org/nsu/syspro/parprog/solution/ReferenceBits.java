@@ -0,0 +1,57 @@
+package org.nsu.syspro.parprog.solution;
+
+/**
+ * Reference bits of the global code cache, indexed by {@link MethodInterner} slot: {@link GlobalHotness} sets the bit
+ * of every method it receives a hotness flush for, the eviction hand of {@link CodeCacheSnapshot} clears it, so a
+ * method invoked since the hand last passed it gets a second chance (CLOCK).
+ * <br>
+ * Bits are hints: they are set and cleared by plain stores from any thread, a lost update only costs a method one chance
+ * more or less. Chunks of {@value #CHUNK} slots are allocated under the lock on the first mark, which stops after
+ * warm-up.
+ */
+final class ReferenceBits {
+    private static final int CHUNK = 256; // power of two
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK);
+
+    private volatile byte[][] chunks = new byte[0][];
+
+    void mark(int slot) {
+        final int chunk = slot >>> CHUNK_SHIFT;
+        byte[][] c = chunks;
+        if (chunk >= c.length || c[chunk] == null) {
+            c = grow(chunk);
+        }
+        c[chunk][slot & (CHUNK - 1)] = 1;
+    }
+
+    /**
+     * @return {@code true} iff the bit of {@code slot} was set
+     */
+    boolean clear(int slot) {
+        final int chunk = slot >>> CHUNK_SHIFT;
+        final byte[][] c = chunks;
+        if (chunk >= c.length || c[chunk] == null || c[chunk][slot & (CHUNK - 1)] == 0) {
+            return false;
+        }
+        c[chunk][slot & (CHUNK - 1)] = 0;
+        return true;
+    }
+
+    private synchronized byte[][] grow(int chunk) {
+        byte[][] c = chunks;
+        if (chunk >= c.length) {
+            final byte[][] grown = new byte[Math.max(chunk + 1, c.length * 2)][];
+            System.arraycopy(c, 0, grown, 0, c.length);
+            c = grown;
+        }
+        if (c[chunk] == null) {
+            // the directory is copied on growth: published only after the chunk is in place
+            if (c == chunks) {
+                c = c.clone();
+            }
+            c[chunk] = new byte[CHUNK];
+        }
+        chunks = c;
+        return c;
+    }
+}
@@ -1,116 +1,451 @@
 package org.nsu.syspro.parprog.solution;
 
 import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.JitMetrics;
 import org.nsu.syspro.parprog.UserThread;
 import org.nsu.syspro.parprog.external.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.*;
 
 
 public class SolutionThread extends UserThread {
 
-    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Global code cache, hotness, compilation pool, method slots, cost model and metrics belong to the runtime of
+    // this thread's engines
+    private final JitRuntime runtime;
+    private final MethodInterner interner;
+
+    // Caches: global one is an immutable snapshot owned by the runtime, see CodeCacheSnapshot,
+    // private one is bounded and evicts methods this thread does not execute anymore, see PrivateCodeCache
+    private static final long DEFAULT_CODE_CACHE_ENTRIES = 4096;
+    private static volatile CodeCacheBudget codeCacheBudget = CodeCacheBudget.ofEntries(DEFAULT_CODE_CACHE_ENTRIES);
+    private final PrivateCodeCache privateCachedInfo = new PrivateCodeCache(codeCacheBudget);
+    // Last few methods of this thread with their slot and code, checked before interning and the private cache
+    private final InlineCache inlineCache = new InlineCache();
+    private final InlineCache.Installer inlineInstaller = this::mergeCachedInfo;
+
+    // Global snapshot which was last merged into privateCachedInfo
+    private CodeCacheSnapshot seenSnapshot = CodeCacheSnapshot.EMPTY;
+
+    // Per-thread tables are arrays indexed by the dense slot of the method, see MethodInterner: an invocation
+    // probes one global hash table and then only indexes arrays, no boxing and no allocation in steady state
+    private final DenseLongArray localHotness = new DenseLongArray();
+    // System.nanoTime() of the first invocation, used to turn hotness into invocation rate for compile priority
+    private final DenseLongArray firstSeenNanos = new DenseLongArray();
+
+    // Recent hotness drives tier-up decisions, lifetime localHotness drives deadlines: counts decayed by
+    // HotnessDecay with the epoch of their last update; the epoch is refreshed on flush and from the clock reading of
+    // every sampled invocation, so it lags by at most COST_SAMPLE_INTERVAL invocations of the method and the hot path
+    // never reads the clock for it
+    private static volatile HotnessDecay hotnessDecay = HotnessDecay.configured();
+    private final HotnessDecay decay = hotnessDecay;
+    private final DenseLongArray recentHotness = new DenseLongArray();
+    private final DenseLongArray recentEpoch = new DenseLongArray();
+    private long epoch;
+
+    // Cross-thread hotness: local deltas are flushed every FLUSH_INTERVAL calls (so no delta ever exceeds it),
+    // flush returns global totals which tier-up decisions use until the next flush
+    private static final int FLUSH_INTERVAL = 1024;
+    private final DenseLongArray unflushedHotness = new DenseLongArray();
+    private final int[] unflushedSlots = new int[FLUSH_INTERVAL];
+    private final DenseLongArray globalHotnessView = new DenseLongArray();
+    private final DenseLongArray globalViewEpoch = new DenseLongArray();
+    private int callsSinceFlush = 0;
+    private int unflushedCount = 0;
+
+    // Metrics are batched like hotness: invocations per executed level (0 = interpreted, ordinal + 1 = tier)
+    // and cache lookups and evictions are added to JitMetrics of the runtime on every flush
+    private final JitMetrics metrics;
+    private final long[] unreportedInvocations = new long[CompilationLevel.values().length + 1];
+    private long reportedHits = 0;
+    private long reportedMisses = 0;
+    private long reportedEvictions = 0;
+    private long reportedInlineHits = 0;
+    private long reportedInlineMisses = 0;
+
+    // Tier-up decisions are made by the policy, `Eventual-per-thread-progress-*` bounds (in invocations of a method
+    // by a thread) are enforced regardless of it
+    private static volatile TieringPolicy defaultPolicy = ThresholdPolicy.DEFAULT;
+    private final TieringPolicy policy;
+    private final MethodProfile profile;
+    static final long L1_DEADLINE = 10_000;
+    static final long L2_DEADLINE = 100_000;
+
+    // Asynchronous installation: highest level requested by this thread (ordinal + 1), requests still in flight
+    // and compiled code delivered by compilation threads but not yet seen by this thread (null code: the request was
+    // rejected or cancelled by the pool and has to be made again)
+    private final DenseLongArray requestedLevel = new DenseLongArray();
+    private final Map<Long, CompletableFuture<CompiledMethod>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<PendingInstall> pendingInstalls = new ConcurrentLinkedQueue<>();
+    // Nesting of executeMethod calls: hot callees are requested together with their caller
+    private final CallGraph callGraph = new CallGraph();
+
+    // Measured costs of execution and compilation, input of CostModelPolicy.online(...): samples of this thread are
+    // published to the model of the runtime on every flush
+    static final int COST_SAMPLE_INTERVAL = 64; // power of two
+    private final OnlineCostModel.Recorder costs;
+
+    // Warm start: methods compiled by previous runs are requested at their recorded tier on first invocation.
+    // Every runtime starts with the default profile, see also JitRuntime.persistProfile
+    private static volatile TieringProfile defaultProfile = TieringProfile.EMPTY;
 
-    // Caches
-    private static final Map<Long, CompiledMethodInfo> globalCachedInfo = new HashMap<>();
-    private static final ThreadLocal<Map<Long, CompiledMethodInfo>> privateCachedInfo = ThreadLocal.withInitial(HashMap::new);
+    public SolutionThread(int compilationThreadBound, ExecutionEngine exec, CompilationEngine compiler, Runnable r) {
+        this(compilationThreadBound, exec, compiler, r, defaultPolicy);
+    }
 
-    // Hotness
-    private final Map<Long, Long> localHotness = new HashMap<>();
+    public SolutionThread(int compilationThreadBound, ExecutionEngine exec, CompilationEngine compiler, Runnable r,
+                          TieringPolicy policy) {
+        super(compilationThreadBound, exec, compiler, r);
+        this.policy = policy;
+        this.runtime = JitRuntime.of(exec, compiler, compilationThreadBound);
+        this.interner = runtime.interner();
+        this.metrics = runtime.metrics();
+        this.costs = runtime.costModel().recorder();
+        this.profile = new MethodProfile(System::nanoTime, costs);
+        this.epoch = decay.epochAt(System.nanoTime());
+    }
 
+    /**
+     * Policy of threads created after this call by the constructor without explicit policy.
+     */
+    public static void useDefaultPolicy(TieringPolicy policy) {
+        defaultPolicy = policy;
+    }
 
-    private long getHotness(long id) {
-        return localHotness.getOrDefault(id, 0L);
+    /**
+     * Warm-start profile of runtimes started after this call, see {@link JitRuntime#useProfile}.
+     */
+    public static void useProfile(TieringProfile profile) {
+        defaultProfile = profile;
     }
 
-    private void incrementHotness(long id) {
-        localHotness.put(id, localHotness.getOrDefault(id, 0L) + 1);
+    static TieringProfile defaultProfile() {
+        return defaultProfile;
     }
 
-    private static CompilationThreadPool compilationThreadPool;
+    /**
+     * @return tiers of all methods compiled so far by running runtimes with their global hotness
+     */
+    public static TieringProfile captureProfile() {
+        final List<TieringProfile.Entry> entries = new ArrayList<>();
+        for (JitRuntime runtime : JitRuntime.running()) {
+            entries.addAll(runtime.captureProfile().entries());
+        }
+        return new TieringProfile(entries);
+    }
 
-    public SolutionThread(int compilationThreadBound, ExecutionEngine exec, CompilationEngine compiler, Runnable r) {
-        super(compilationThreadBound, exec, compiler, r);
-        if (compilationThreadPool == null) {
-            compilationThreadPool = new CompilationThreadPool(compiler, compilationThreadBound);
+    public static void dumpProfile(Path file) throws IOException {
+        captureProfile().dump(file);
+    }
+
+    static TieringPolicy defaultPolicy() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Hotness decay of threads created after this call.
+     */
+    public static void useHotnessDecay(HotnessDecay decay) {
+        hotnessDecay = decay;
+    }
+
+    static CodeCacheBudget codeCacheBudget() {
+        return codeCacheBudget;
+    }
+
+    /**
+     * Budget of private code caches of threads created after this call and of the global code cache of runtimes
+     * started after it.
+     */
+    public static void useCodeCacheBudget(CodeCacheBudget budget) {
+        codeCacheBudget = budget;
+    }
+
+    public JitRuntime runtime() {
+        return runtime;
+    }
+
+    /**
+     * Occupancy of the private code cache, must be called by this thread.
+     */
+    public String codeCacheReport() {
+        return privateCachedInfo.report() + ", " + inlineCache.report();
+    }
+
+    /**
+     * @return code for the method or {@code null} if it has to be interpreted
+     */
+    private CompiledMethodInfo getCachedInfo(long methodID, int slot) {
+        CompiledMethodInfo info = privateCachedInfo.get(slot);
+        if (info == null) {
+            // never seen or evicted: the global snapshot has the same or better code unless it is over budget too
+            info = seenSnapshot.get(slot);
+            if (info == null) {
+                info = runtime.compiledCode(methodID, privateCachedInfo.evictedLevel(slot));
+            }
+            if (info != null) {
+                mergeCachedInfo(slot, info);
+            }
         }
+        return info;
     }
 
-    private void setCachedInfo(long id, CompilationLevel compilationLevel, CompiledMethod compiledMethod) {
-        try {
-            lock.writeLock().lock();
-            var payload = new CompiledMethodInfo(compiledMethod, compilationLevel);
-            if (!globalCachedInfo.containsKey(id) ||
-                    (globalCachedInfo.containsKey(id) &&
-                            compilationLevel.ordinal() > globalCachedInfo.get(id).compilationLevel.ordinal())) {
-                globalCachedInfo.put(id, payload);
+    private void mergeCachedInfo(int slot, CompiledMethodInfo info) {
+        // `Per-thread-monotonicity`: private cache is never downgraded
+        privateCachedInfo.install(slot, info);
+        inlineCache.upgrade(slot, info);
+    }
+
+    private void updateCachedInfo() {
+        // steady state: single volatile read, the refresh happens only after a new publication
+        final CodeCacheSnapshot snapshot = runtime.snapshot();
+        if (snapshot.epoch != seenSnapshot.epoch) {
+            privateCachedInfo.refresh(snapshot::get);
+            // through the private cache: it has to know every level the inline cache holds
+            inlineCache.refresh(snapshot::get, inlineInstaller);
+            seenSnapshot = snapshot;
+            if (runtime.observed(snapshot.epoch)) {
+                runtime.trimCodeCache();
             }
-            privateCachedInfo.get().putAll(globalCachedInfo);
+        }
+    }
 
-        } finally {
-            lock.writeLock().unlock();
+    private void drainPendingInstalls() {
+        PendingInstall install;
+        while ((install = pendingInstalls.poll()) != null) {
+            if (install.info == null) {
+                // rejected, cancelled or failed: the policy or the deadline asks again, duplicates of live requests
+                // are deduplicated by the pool
+                requestedLevel.put(install.slot, 0);
+            } else {
+                mergeCachedInfo(install.slot, install.info);
+            }
         }
     }
 
-    private Optional<CompiledMethodInfo> getCachedInfo(long id) {
-        return Optional.ofNullable(privateCachedInfo.get().get(id));
+    // values() clones the array on every call, which is once per invocation here
+    private static final CompilationLevel[] LEVELS = CompilationLevel.values();
+
+    /**
+     * `Eventual-per-thread-progress-*`: the level the next invocation of a method must run at.
+     *
+     * @param invocations invocations of the method by the thread so far
+     * @return ordinal + 1 of the level, 0 if the invocation may be interpreted
+     */
+    static int deadlineLevel(long invocations) {
+        return invocations >= L2_DEADLINE - 1 ? CompilationLevel.L2.ordinal() + 1
+                : invocations >= L1_DEADLINE - 1 ? CompilationLevel.L1.ordinal() + 1 : 0;
     }
 
-    private void updateCachedInfo() {
-        try {
-            lock.readLock().lock();
-            privateCachedInfo.get().putAll(globalCachedInfo);
-        } finally {
-            lock.readLock().unlock();
+    static CompilationLevel levelOf(long ordinalPlusOne) {
+        return ordinalPlusOne == 0 ? null : LEVELS[(int) ordinalPlusOne - 1];
+    }
+
+    private void requestCompilation(MethodID id, int slot, CompilationLevel level, double invocationRate, boolean urgent) {
+        requestCompilation(id, slot, level, invocationRate, urgent, 0);
+    }
+
+    /**
+     * @param depth of the recursion over hot callees, selects the slice of {@link CallGraph#hotCallees} to iterate
+     */
+    private void requestCompilation(MethodID id, int slot, CompilationLevel level, double invocationRate, boolean urgent,
+                                    int depth) {
+        final long methodID = id.id();
+        requestedLevel.put(slot, level.ordinal() + 1);
+
+        final CompletableFuture<CompiledMethod> futureCode = runtime.pool().compile(level, id, invocationRate, urgent);
+        inFlight.put(methodID, futureCode);
+        // Runs in compilation thread: the code becomes visible to everybody via global cache
+        // and to this thread via its pending-install queue, user thread never waits for it
+        futureCode.thenAccept(code -> {
+            final var payload = runtime.compiledInfo(methodID, code);
+            runtime.publish(methodID, payload);
+            pendingInstalls.add(new PendingInstall(slot, payload));
+        }).whenComplete((ignored, e) -> {
+            inFlight.remove(methodID, futureCode); // only after the code was queued
+            // cancelled or failed compilation
+            if (futureCode.isCompletedExceptionally()) {
+                pendingInstalls.add(new PendingInstall(slot, null));
+            }
+        });
+
+        // callees are queued right after the caller with its rate; requestedLevel is already set, so recursion
+        // stops on cycles and is never deeper than the nesting of executeMethod which recorded the edges
+        final int count = callGraph.hotCallees(slot, localHotness.get(slot), depth);
+        for (int i = 0; i < count; i++) {
+            final int callee = callGraph.hotCallee(depth, i);
+            if (requestedLevel.get(callee) < level.ordinal() + 1) {
+                requestCompilation(callGraph.method(callee), callee, level, invocationRate, false, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Requests {@code level} (or the higher one already requested) urgently and waits for it,
+     * see {@link #awaitCompilation}.
+     */
+    private void ensureCompiled(MethodID id, int slot, CompilationLevel level) {
+        // the policy may not have asked in time (the deadline wins) or its request may still be queued: urgent request
+        // bypasses admission control and pins the queued one, so the wait below is never cancelled
+        final long requested = Math.max(requestedLevel.get(slot), level.ordinal() + 1);
+        requestCompilation(id, slot, levelOf(requested), profile.invocationRate(), true);
+        awaitCompilation(id, slot, level);
+    }
+
+    /**
+     * Blocks until this thread has code of at least {@code level} for the method. Used only when the next invocation
+     * would otherwise break `Eventual-per-thread-progress-*`, so it happens after the method finished execution.
+     * <br>
+     * A request which failed or was cancelled, before or during the wait, is made once more for L2:
+     * `CPU-bound-compilation` allows no second compilation of a failed level, but a failed L1 may still be served by L2.
+     *
+     * @throws IllegalStateException if there is still no code, e.g. the runtime was stopped or L2 failed
+     */
+    private void awaitCompilation(MethodID id, int slot, CompilationLevel level) {
+        final long methodID = id.id();
+        Throwable failure = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (attempt > 0) {
+                requestCompilation(id, slot, CompilationLevel.L2, profile.invocationRate(), true);
+            }
+            final CompletableFuture<CompiledMethod> futureCode = inFlight.get(methodID);
+            if (futureCode == null) {
+                // already completed: its callback has delivered the code, or null if it failed or was cancelled
+                drainPendingInstalls();
+                final CompiledMethodInfo info = getCachedInfo(methodID, slot);
+                if (info != null && info.compilationLevel.ordinal() >= level.ordinal()) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                // the future is shared by all requesters of this level, so the code is never lost to a concurrent
+                // request; in-flight request is always the last one, e.g. L2 requested at first sight by warm start
+                final var payload = runtime.compiledInfo(methodID, futureCode.get());
+                // completion callback may not have run yet: publish first, so the entry survives private eviction
+                runtime.publish(methodID, payload);
+                mergeCachedInfo(slot, payload);
+                return;
+            } catch (CancellationException e) {
+                // urgent requests are cancelled only by JitRuntime.stop()
+                failure = e;
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = e;
+                break;
+            }
+        }
+        throw new IllegalStateException("No " + level + " code of method " + methodID
+                + " at `Eventual-per-thread-progress` deadline, JIT runtime " + runtime.state(), failure);
+    }
+
+    private void flushHotness() {
+        callsSinceFlush = 0;
+        metrics.invocations(unreportedInvocations[0], unreportedInvocations[CompilationLevel.L1.ordinal() + 1],
+                unreportedInvocations[CompilationLevel.L2.ordinal() + 1]);
+        Arrays.fill(unreportedInvocations, 0);
+        metrics.cacheLookups(privateCachedInfo.hits() - reportedHits, privateCachedInfo.misses() - reportedMisses);
+        reportedHits = privateCachedInfo.hits();
+        reportedMisses = privateCachedInfo.misses();
+        metrics.cacheEvictions(privateCachedInfo.evictions() - reportedEvictions);
+        reportedEvictions = privateCachedInfo.evictions();
+        metrics.inlineCacheLookups(inlineCache.hits() - reportedInlineHits, inlineCache.misses() - reportedInlineMisses);
+        reportedInlineHits = inlineCache.hits();
+        reportedInlineMisses = inlineCache.misses();
+        epoch = decay.epochAt(System.nanoTime());
+        for (int i = 0; i < unflushedCount; i++) {
+            globalViewEpoch.put(unflushedSlots[i], epoch);
         }
+        costs.publish(unflushedSlots, unflushedCount);
+        runtime.hotness().flush(unflushedSlots, unflushedCount, unflushedHotness, globalHotnessView, epoch);
+        unflushedCount = 0;
     }
 
     @Override
     public ExecutionResult executeMethod(MethodID id) {
         final long methodID = id.id();
 
-        final long hotLevel = getHotness(methodID);
-        incrementHotness(methodID);
+        drainPendingInstalls();
+        updateCachedInfo();
+        final int slot;
+        final CompiledMethodInfo methodInfo;
+        final int entry = inlineCache.find(methodID);
+        if (entry >= 0) {
+            slot = inlineCache.slot(entry);
+            methodInfo = inlineCache.info(entry);
+        } else {
+            slot = interner.slotOf(methodID);
+            methodInfo = getCachedInfo(methodID, slot);
+            inlineCache.put(methodID, slot, methodInfo);
+        }
 
-        Optional<CompiledMethodInfo> possibleMethodInfo = getCachedInfo(methodID);
+        final long hotLevel = localHotness.getAndIncrement(slot);
+        if (hotLevel == 0) {
+            firstSeenNanos.put(slot, System.nanoTime());
+        }
+        final boolean sampled = (hotLevel & (COST_SAMPLE_INTERVAL - 1)) == 0;
+        final long startNanos = sampled ? System.nanoTime() : 0;
+        if (sampled) {
+            epoch = decay.epochAt(startNanos);
+        }
+        final long recentHotLevel = HotnessDecay.decay(recentHotness.get(slot), recentEpoch.get(slot), epoch) + 1;
+        recentHotness.put(slot, recentHotLevel);
+        recentEpoch.put(slot, epoch);
+        if (unflushedHotness.getAndIncrement(slot) == 0) {
+            // at most FLUSH_INTERVAL distinct methods between flushes
+            unflushedSlots[unflushedCount++] = slot;
+        }
 
-        Future<CompiledMethod> futureCode = null;
-        CompilationLevel futureLevel = null;
-        if (hotLevel > 90_000 && possibleMethodInfo.isPresent()
-                && possibleMethodInfo.get().compilationLevel.ordinal() < CompilationLevel.L2.ordinal()) {
-            futureCode = compilationThreadPool.compile(CompilationLevel.L2, id);
-            futureLevel = CompilationLevel.L2;
+        ExecutionResult execResult;
 
-        } else if (hotLevel > 9_000 && possibleMethodInfo.isEmpty()) {
-            futureCode = compilationThreadPool.compile(CompilationLevel.L1, id);
-            futureLevel = CompilationLevel.L1;
+        callGraph.enter(slot, id);
+        try {
+            if (methodInfo == null) {
+                execResult = exec.interpret(id);
+            } else {
+                execResult = exec.execute(methodInfo.compiledMethod);
+            }
+        } finally {
+            callGraph.exit();
+        }
+        if (sampled) {
+            costs.record(slot, methodInfo == null ? null : methodInfo.compilationLevel, System.nanoTime() - startNanos);
         }
 
+        final int currentLevel = methodInfo == null ? 0 : methodInfo.compilationLevel.ordinal() + 1;
+        unreportedInvocations[currentLevel]++;
+        if (++callsSinceFlush >= FLUSH_INTERVAL) {
+            flushHotness();
+        }
 
-        ExecutionResult execResult;
-
-        if (possibleMethodInfo.isEmpty()) {
-            execResult = exec.interpret(id);
-        } else {
-            execResult = exec.execute(possibleMethodInfo.get().compiledMethod);
+        // Compilation requests are issued after fast path, results are installed asynchronously
+        final long requested = Math.max(requestedLevel.get(slot), currentLevel);
+        profile.update(methodID, hotLevel + 1, recentHotLevel,
+                HotnessDecay.decay(globalHotnessView.get(slot), globalViewEpoch.get(slot), epoch),
+                firstSeenNanos.get(slot), levelOf(currentLevel), levelOf(requested));
+        if (hotLevel == 0 && requested == 0 && runtime.warmStartProfile().tierOf(methodID) != null) {
+            // recorded hotness stands in for the rate: there is nothing measured yet
+            final TieringProfile warmStart = runtime.warmStartProfile();
+            requestCompilation(id, slot, warmStart.tierOf(methodID), warmStart.hotnessOf(methodID), false);
+        } else if (requested < CompilationLevel.L2.ordinal() + 1) {
+            final CompilationLevel decided = policy.decide(profile);
+            if (decided != null && decided.ordinal() + 1 > requested) {
+                requestCompilation(id, slot, decided, profile.invocationRate(), false);
+            }
         }
 
-        // Synchronization of compilations from thread pool after fast path
-        if (futureCode != null) {
-            try {
-                var code = futureCode.get();
-                if (code != null) {
-                    setCachedInfo(methodID, futureLevel, code);
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+        // Next invocation is the first one which must not be slow: wait for in-flight code
+        if (hotLevel + 1 == L2_DEADLINE - 1 || hotLevel + 1 == L1_DEADLINE - 1) {
+            final int due = deadlineLevel(hotLevel + 1);
+            if (currentLevel < due) {
+                ensureCompiled(id, slot, levelOf(due));
             }
         }
-        updateCachedInfo();
 
         return execResult;
     }
@@ -119,7 +454,7 @@ public class SolutionThread extends UserThread {
         L1, L2
     }
 
-    private static class CompiledMethodInfo {
+    static final class CompiledMethodInfo {
         public final CompiledMethod compiledMethod;
         public final CompilationLevel compilationLevel;
 
@@ -128,6 +463,19 @@ public class SolutionThread extends UserThread {
             this.compilationLevel = compilationLevel;
         }
 
+        boolean isBetterThan(CompiledMethodInfo other) {
+            return compilationLevel.ordinal() > other.compilationLevel.ordinal();
+        }
+    }
+
+    private static final class PendingInstall {
+        final int slot;
+        final CompiledMethodInfo info;
+
+        PendingInstall(int slot, CompiledMethodInfo info) {
+            this.slot = slot;
+            this.info = info;
+        }
     }
 
 
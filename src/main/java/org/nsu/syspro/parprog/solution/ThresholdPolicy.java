@@ -0,0 +1,43 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Classic counter-based tiering: request a tier once the method was recently invoked more than its threshold times
+ * (locally or globally, see {@link MethodProfile#hotness()}; counts decay if configured, see {@link HotnessDecay}).
+ * <br>
+ * {@link #DEFAULT} thresholds are 90% of `Eventual-per-thread-progress-*` bounds: a method which is hot now is compiled
+ * before the deadline, so threads rarely wait for it, while a method which was hot only during start-up is left to the
+ * deadline backstop. Cheapest policy to evaluate.
+ */
+public final class ThresholdPolicy implements TieringPolicy {
+    public static final ThresholdPolicy DEFAULT = new ThresholdPolicy(9_000, 90_000);
+
+    public final long l1Threshold;
+    public final long l2Threshold;
+
+    public ThresholdPolicy(long l1Threshold, long l2Threshold) {
+        this.l1Threshold = l1Threshold;
+        this.l2Threshold = l2Threshold;
+        if (l1Threshold < 0 || l2Threshold < l1Threshold) {
+            throw new IllegalArgumentException("Thresholds must satisfy 0 <= l1 <= l2: " + this);
+        }
+    }
+
+    @Override
+    public CompilationLevel decide(MethodProfile profile) {
+        final long hotness = profile.hotness();
+        if (hotness > l2Threshold) {
+            return CompilationLevel.L2;
+        }
+        if (hotness > l1Threshold) {
+            return CompilationLevel.L1;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ThresholdPolicy(l1Threshold=%d, l2Threshold=%d)", l1Threshold, l2Threshold);
+    }
+}
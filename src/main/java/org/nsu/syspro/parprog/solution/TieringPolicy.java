@@ -0,0 +1,27 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+/**
+ * Decides when a method is hot enough to be compiled and by which tier.
+ * <br>
+ * {@link SolutionThread} consults the policy after every execution of a method that is not yet requested at
+ * {@link CompilationLevel#L2}, so implementations must be cheap and must not block. One policy instance may be shared
+ * by many threads: implementations are expected to be immutable or thread-safe.
+ * <br>
+ * Policy is only about efficiency. `Eventual-per-thread-progress-*` is enforced by {@link SolutionThread} itself: if
+ * the policy has not requested the required tier when a deadline is close, the thread requests it and waits.
+ *
+ * @see ThresholdPolicy
+ * @see RatePolicy
+ * @see CostModelPolicy
+ */
+@FunctionalInterface
+public interface TieringPolicy {
+    /**
+     * @param profile profile of the method which has just been executed, valid only during this call
+     * @return tier to request or {@code null} to keep the current one; tiers that are not higher than
+     * {@link MethodProfile#requestedLevel()} are ignored
+     */
+    CompilationLevel decide(MethodProfile profile);
+}
@@ -0,0 +1,170 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.LongFunction;
+
+/**
+ * Compact binary record of which methods reached which tier, used to warm-start the JIT in the next process.
+ * <br>
+ * File layout (big-endian): {@code int MAGIC, int VERSION, int count}, then {@code count} records of
+ * {@code long methodID, byte tier, long hotness}. Files are read and written through memory mapping, writes go to a
+ * temporary file which atomically replaces the old profile, so a crash never leaves a torn profile behind.
+ * <br>
+ * Weak point: profile is keyed by {@link MethodID#id()}, it is only useful if ids are stable between runs.
+ */
+public final class TieringProfile {
+    private static final int MAGIC = 0x4A495450; // "JITP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int RECORD_BYTES = Long.BYTES + Byte.BYTES + Long.BYTES;
+
+    public static final TieringProfile EMPTY = new TieringProfile(Collections.emptyList());
+
+    public static final class Entry {
+        public final long methodID;
+        public final CompilationLevel tier;
+        public final long hotness;
+
+        public Entry(long methodID, CompilationLevel tier, long hotness) {
+            this.methodID = methodID;
+            this.tier = tier;
+            this.hotness = hotness;
+        }
+    }
+
+    // hottest first: that is the order of warm-up requests
+    private final List<Entry> entries;
+    // methodID -> tier ordinal + 1
+    private final LongLongTable tiers = new LongLongTable();
+    private final LongLongTable hotness = new LongLongTable();
+
+    public TieringProfile(List<Entry> entries) {
+        final List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong((Entry e) -> e.hotness).reversed());
+        this.entries = Collections.unmodifiableList(sorted);
+        for (Entry e : sorted) {
+            tiers.put(e.methodID, e.tier.ordinal() + 1);
+            hotness.put(e.methodID, e.hotness);
+        }
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return recorded tier of the method or {@code null} if it was never compiled
+     */
+    public CompilationLevel tierOf(long methodID) {
+        final long tier = tiers.get(methodID);
+        return tier == 0 ? null : CompilationLevel.values()[(int) tier - 1];
+    }
+
+    public long hotnessOf(long methodID) {
+        return hotness.get(methodID);
+    }
+
+    /**
+     * Requests recorded tiers of all methods known to {@code resolver}, hottest first. Requests go through the regular
+     * priority queue, so they respect `Thread-bound-compilation` and are never compiled twice.
+     *
+     * @param resolver maps recorded ids to methods of the current process, returns {@code null} for unknown ids
+     * @return number of requested compilations
+     */
+    public int warmUp(CompilationThreadPool pool, LongFunction<MethodID> resolver) {
+        return warmUp(pool, resolver, (entry, code) -> {
+        });
+    }
+
+    /**
+     * As {@link #warmUp(CompilationThreadPool, LongFunction)}, {@code compiled} is called by compilation threads with
+     * the code of every successful request.
+     */
+    public int warmUp(CompilationThreadPool pool, LongFunction<MethodID> resolver,
+                      BiConsumer<Entry, CompiledMethod> compiled) {
+        int requested = 0;
+        for (Entry e : entries) {
+            final MethodID method = resolver.apply(e.methodID);
+            if (method != null) {
+                pool.compile(e.tier, method, e.hotness).thenAccept(code -> compiled.accept(e, code));
+                requested++;
+            }
+        }
+        return requested;
+    }
+
+    /**
+     * @return loaded profile or {@link #EMPTY} if there is no file yet
+     */
+    public static TieringProfile load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return EMPTY;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a tiering profile: " + file);
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tiering profile version " + version + ": " + file);
+            }
+            final int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() < (long) count * RECORD_BYTES) {
+                throw new IOException("Truncated tiering profile: " + file);
+            }
+            final List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final long methodID = buffer.getLong();
+                final byte tier = buffer.get();
+                final long hotness = buffer.getLong();
+                if (tier < 0 || tier >= CompilationLevel.values().length) {
+                    throw new IOException("Corrupted tiering profile, tier " + tier + ": " + file);
+                }
+                entries.add(new Entry(methodID, CompilationLevel.values()[tier], hotness));
+            }
+            return new TieringProfile(entries);
+        }
+    }
+
+    public void dump(Path file) throws IOException {
+        final Path absolute = file.toAbsolutePath();
+        final Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        final long size = HEADER_BYTES + (long) entries.size() * RECORD_BYTES;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            write(buffer);
+            buffer.force();
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void write(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+        for (Entry e : entries) {
+            buffer.putLong(e.methodID).put((byte) e.tier.ordinal()).putLong(e.hotness);
+        }
+    }
+}
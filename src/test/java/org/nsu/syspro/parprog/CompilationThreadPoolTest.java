@@ -0,0 +1,672 @@
+package org.nsu.syspro.parprog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompilationThreadPoolTest {
+    private final List<CompilationThreadPool> pools = new ArrayList<>();
+
+    private CompilationThreadPool started(CompilationThreadPool pool) {
+        pools.add(pool);
+        return pool;
+    }
+
+    @AfterEach
+    void shutdownPools() {
+        pools.forEach(CompilationThreadPool::shutdown);
+    }
+
+    private static final class CountingCompiler implements CompilationEngine {
+        final AtomicInteger l1 = new AtomicInteger();
+        final AtomicInteger l2 = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        private CompiledMethod compile(MethodID method) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return () -> method;
+        }
+
+        @Override
+        public CompiledMethod compile_l1(MethodID method) {
+            l1.incrementAndGet();
+            return compile(method);
+        }
+
+        @Override
+        public CompiledMethod compile_l2(MethodID method) {
+            l2.incrementAndGet();
+            return compile(method);
+        }
+    }
+
+    @Test
+    @Timeout(2)
+    void concurrent_requesters_share_single_compilation() throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+
+        final int REQUESTERS = 16;
+        final var start = new CyclicBarrier(REQUESTERS);
+        final List<Future<CompletableFuture<CompiledMethod>>> requests = new ArrayList<>();
+        final ExecutorService requesters = Executors.newFixedThreadPool(REQUESTERS);
+        for (int i = 0; i < REQUESTERS; i++) {
+            requests.add(requesters.submit(() -> {
+                start.await();
+                return pool.compile(CompilationLevel.L1, method);
+            }));
+        }
+
+        final CompletableFuture<CompiledMethod> first = requests.get(0).get();
+        for (var request : requests) {
+            assertSame(first, request.get(), "every requester attaches to the same in-flight future");
+        }
+        compiler.release.countDown();
+
+        assertSame(method, first.get().id());
+        assertEquals(1, compiler.l1.get());
+        requesters.shutdown();
+    }
+
+    @Test
+    @Timeout(2)
+    void failed_compilation_is_not_repeated_and_waiting_l2_is_compiled() throws Exception {
+        final var l1Calls = new AtomicInteger();
+        final var l2Calls = new AtomicInteger();
+        final var release = new CountDownLatch(1);
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                // throws once, but is never called again
+                if (l1Calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("compiler crashed");
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                l2Calls.incrementAndGet();
+                return () -> method;
+            }
+        };
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+
+        final var l1 = pool.compile(CompilationLevel.L1, method);
+        // waits for the L1 which is going to fail
+        final var l2 = pool.compile(CompilationLevel.L2, method);
+        release.countDown();
+        final var thrown = assertThrows(ExecutionException.class, l1::get);
+        assertEquals("compiler crashed", thrown.getCause().getMessage());
+        assertSame(method, l2.get(1, TimeUnit.SECONDS).id(), "L2 waiter is served after the failed L1");
+
+        assertSame(l1, pool.compile(CompilationLevel.L1, method), "failed level is not queued again");
+        assertSame(l2, pool.compile(CompilationLevel.L2, method));
+        assertTrue(pool.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(1, l1Calls.get());
+        assertEquals(1, l2Calls.get());
+    }
+
+    @Test
+    @Timeout(2)
+    void failed_l2_is_not_repeated() throws Exception {
+        final var l2Calls = new AtomicInteger();
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                if (l2Calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("compiler crashed");
+                }
+                return () -> method;
+            }
+        };
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+
+        assertSame(method, pool.compile(CompilationLevel.L1, method).get().id());
+        final var l2 = pool.compile(CompilationLevel.L2, method);
+        assertThrows(ExecutionException.class, l2::get);
+        for (int i = 0; i < 10; i++) {
+            assertSame(l2, pool.compile(CompilationLevel.L2, method));
+        }
+        assertTrue(pool.compile(CompilationLevel.L1, method).isDone(), "L1 code is kept");
+        assertTrue(pool.awaitIdle(1, TimeUnit.SECONDS));
+        assertEquals(1, l2Calls.get(), "`CPU-bound-compilation`: compile_l2 at most once");
+    }
+
+    @Test
+    @Timeout(2)
+    void l2_requested_during_l1_is_compiled_once_after_it() throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+
+        final var l1 = pool.compile(CompilationLevel.L1, method);
+        final var l2 = pool.compile(CompilationLevel.L2, method);
+        final var l2Again = pool.compile(CompilationLevel.L2, method);
+        assertSame(l2, l2Again);
+        assertEquals(0, compiler.l2.get(), "L2 must wait for L1 to finish");
+
+        compiler.release.countDown();
+        l1.get();
+        l2.get();
+        assertSame(l1, pool.compile(CompilationLevel.L1, method));
+        assertEquals(1, compiler.l1.get());
+        assertEquals(1, compiler.l2.get());
+    }
+
+    @Test
+    @Timeout(2)
+    void listener_gets_measured_compilations_before_requesters() throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+        final List<String> compiled = new CopyOnWriteArrayList<>();
+        pool.compilationListener((id, level, nanos) -> compiled.add(level + " " + id.id() + (nanos < 0 ? "?" : "")));
+
+        final var l1 = pool.compile(CompilationLevel.L1, method);
+        compiler.release.countDown();
+        l1.get();
+        assertEquals(List.of("L1 " + method.id()), compiled);
+        pool.compile(CompilationLevel.L2, method).get();
+        assertEquals(List.of("L1 " + method.id(), "L2 " + method.id()), compiled);
+    }
+
+    @Test
+    @Timeout(2)
+    void skipped_l1_is_served_by_l2_code() throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = started(new CompilationThreadPool(compiler, 2));
+        final var method = TestMethod.of();
+        compiler.release.countDown();
+
+        final CompiledMethod l2 = pool.compile(CompilationLevel.L2, method).get();
+        assertSame(l2, pool.compile(CompilationLevel.L1, method).get());
+        assertEquals(0, compiler.l1.get());
+        assertEquals(1, compiler.l2.get());
+    }
+
+    /**
+     * Single compilation thread blocked by the first request, so the order of everything queued behind it is visible.
+     */
+    private static final class OrderRecordingCompiler implements CompilationEngine {
+        final List<MethodID> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public CompiledMethod compile_l1(MethodID method) {
+            if (order.isEmpty()) {
+                firstStarted.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            order.add(method);
+            return () -> method;
+        }
+
+        @Override
+        public CompiledMethod compile_l2(MethodID method) {
+            return compile_l1(method);
+        }
+    }
+
+    @Test
+    @Timeout(2)
+    void hottest_methods_are_compiled_first() throws Exception {
+        final var compiler = new OrderRecordingCompiler();
+        final var pool = started(new CompilationThreadPool(compiler, 1, CompilationThreadPool.Dispatch.PLATFORM_POOL));
+        final var blocker = TestMethod.of();
+        pool.compile(CompilationLevel.L1, blocker);
+        compiler.firstStarted.await();
+
+        final var lukewarm = TestMethod.of();
+        final var hot = TestMethod.of();
+        final var hotL2 = TestMethod.of();
+        final var reported = TestMethod.of();
+        pool.compile(CompilationLevel.L1, lukewarm, 10);
+        pool.compile(CompilationLevel.L1, hot, 1_000_000);
+        pool.compile(CompilationLevel.L2, hotL2, 1_000_000);
+        pool.compile(CompilationLevel.L1, reported, 1);
+        // new hotness report for a queued request moves it forward
+        pool.compile(CompilationLevel.L1, reported, 100_000_000);
+        assertEquals(4, pool.queueDepth());
+
+        compiler.release.countDown();
+        pool.compile(CompilationLevel.L1, lukewarm).get();
+        assertEquals(List.of(blocker, reported, hotL2, hot, lukewarm), compiler.order);
+    }
+
+    @Test
+    void waiting_requests_age() {
+        final var state = new MethodCompilationState();
+        final long now = System.nanoTime();
+        final var cold = new CompileTask(state, CompilationLevel.L1, TestMethod.of(), 0, now);
+        final var hotButLate = new CompileTask(state, CompilationLevel.L2, TestMethod.of(), Double.MAX_VALUE,
+                now + CompileTask.AGING_HORIZON_NANOS + 1);
+        final var hotInTime = new CompileTask(state, CompilationLevel.L2, TestMethod.of(), 1_000_000, now + 1);
+
+        assertTrue(cold.compareTo(hotButLate) < 0, "cold request can be overtaken only within aging horizon");
+        assertTrue(hotInTime.compareTo(cold) < 0);
+    }
+
+    @Test
+    @Timeout(2)
+    void slow_l2_burst_does_not_block_l1_lane() throws Exception {
+        final var l2Started = new Semaphore(0);
+        final var releaseL2 = new CountDownLatch(1);
+        final var active = new AtomicInteger();
+        final var peak = new AtomicInteger();
+        final CompilationEngine compiler = new CompilationEngine() {
+            private CompiledMethod compile(MethodID method, boolean slow) {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    if (slow) {
+                        l2Started.release();
+                        releaseL2.await();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return compile(method, false);
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile(method, true);
+            }
+        };
+
+        final int BOUND = 3;
+        final var pool = started(new CompilationThreadPool(compiler, BOUND, new CompilationLanes(1, 1, 1)));
+        final List<CompletableFuture<CompiledMethod>> l2 = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            l2.add(pool.compile(CompilationLevel.L2, TestMethod.of(), 1_000_000));
+        }
+        // L2 may take its reserved slot and the shared one, but never the reserved L1 slot
+        l2Started.acquire(2);
+        assertFalse(l2Started.tryAcquire(50, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 10; i++) {
+            pool.compile(CompilationLevel.L1, TestMethod.of()).get();
+        }
+
+        releaseL2.countDown();
+        for (var f : l2) {
+            f.get();
+        }
+        assertTrue(peak.get() <= BOUND);
+        assertTrue(pool.lanesReport().contains("L2: queued = 0"), pool.lanesReport());
+    }
+
+    private CompilationThreadPool singleThreadPool(CompilationEngine compiler, CompilationThreadPool.Dispatch dispatch,
+                                                  CompilationThreadPool.Admission admission, int capacity) {
+        return started(new CompilationThreadPool(compiler, 1, CompilationLanes.defaultFor(1), dispatch, admission,
+                capacity));
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void queued_l1_is_superseded_by_l2(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.REJECT_COLDEST, 16);
+        pool.compile(CompilationLevel.L1, TestMethod.of());
+        final var method = TestMethod.of();
+
+        final var l1 = pool.compile(CompilationLevel.L1, method);
+        final var l2 = pool.compile(CompilationLevel.L2, method);
+        assertEquals(1, pool.queueDepth(), "L2 takes the place of L1");
+        compiler.release.countDown();
+
+        assertSame(l2.get(), l1.get());
+        assertEquals(1, compiler.l1.get());
+        assertEquals(1, compiler.l2.get());
+        assertEquals(1, pool.metrics().requestsCancelled(CompilationLevel.L1));
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void full_lane_rejects_coldest_request(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.REJECT_COLDEST, 2);
+        pool.compile(CompilationLevel.L1, TestMethod.of());
+
+        final var lukewarm = TestMethod.of();
+        final var lukewarmFuture = pool.compile(CompilationLevel.L1, lukewarm, 10);
+        final var warm = pool.compile(CompilationLevel.L1, TestMethod.of(), 1_000);
+        final var hot = pool.compile(CompilationLevel.L1, TestMethod.of(), 100_000);
+        assertTrue(lukewarmFuture.isCancelled());
+        assertTrue(pool.compile(CompilationLevel.L1, TestMethod.of(), 1).isCancelled(), "incoming may be the coldest");
+        assertEquals(2, pool.queueDepth());
+
+        // rejected method is queued anew by its next request
+        final var again = pool.compile(CompilationLevel.L1, lukewarm, 1_000_000);
+        assertTrue(warm.isCancelled());
+        // urgent requests are always admitted, even if they are the coldest
+        final var urgent = pool.compile(CompilationLevel.L1, TestMethod.of(), 0, true);
+        assertTrue(hot.isCancelled());
+        assertEquals(2, pool.queueDepth());
+
+        compiler.release.countDown();
+        assertSame(lukewarm, again.get().id());
+        urgent.get();
+        assertEquals(3, compiler.l1.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void queued_requests_can_be_cancelled_unless_urgent(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.REJECT_COLDEST, 16);
+        final var blocker = TestMethod.of();
+        pool.compile(CompilationLevel.L1, blocker);
+        final var method = TestMethod.of();
+        final var pinned = TestMethod.of();
+
+        final var future = pool.compile(CompilationLevel.L1, method);
+        pool.compile(CompilationLevel.L1, pinned);
+        final var awaited = pool.compile(CompilationLevel.L1, pinned, 0, true);
+        assertFalse(pool.cancel(CompilationLevel.L1, blocker), "already compiling");
+        assertFalse(pool.cancel(CompilationLevel.L2, method));
+        assertFalse(pool.cancel(CompilationLevel.L1, pinned));
+        assertTrue(pool.cancel(CompilationLevel.L1, method));
+        assertTrue(future.isCancelled());
+        assertFalse(pool.cancel(CompilationLevel.L1, method));
+
+        compiler.release.countDown();
+        awaited.get();
+        assertSame(method, pool.compile(CompilationLevel.L1, method).get().id());
+        assertEquals(3, compiler.l1.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void coalesce_compiles_coldest_l1_as_l2(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.COALESCE, 1);
+        pool.compile(CompilationLevel.L1, TestMethod.of());
+
+        final var coalesced = pool.compile(CompilationLevel.L1, TestMethod.of(), 1);
+        final var hot = pool.compile(CompilationLevel.L1, TestMethod.of(), 1_000);
+        assertFalse(coalesced.isCancelled());
+        assertTrue(pool.lanesReport().contains("L2: queued = 1"), pool.lanesReport());
+
+        compiler.release.countDown();
+        coalesced.get();
+        hot.get();
+        assertEquals(2, compiler.l1.get());
+        assertEquals(1, compiler.l2.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void draining_pool_admits_only_urgent_requests(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.REJECT_COLDEST, 16);
+        pool.compile(CompilationLevel.L1, TestMethod.of());
+        final var queued = pool.compile(CompilationLevel.L1, TestMethod.of());
+
+        pool.drain();
+        assertTrue(pool.compile(CompilationLevel.L1, TestMethod.of()).isCancelled());
+        final var urgent = pool.compile(CompilationLevel.L1, TestMethod.of(), 0, true);
+        assertFalse(urgent.isCancelled());
+        assertFalse(pool.awaitIdle(10, TimeUnit.MILLISECONDS));
+
+        compiler.release.countDown();
+        assertTrue(pool.awaitIdle(1, TimeUnit.SECONDS));
+        assertTrue(queued.isDone() && !queued.isCancelled());
+        assertTrue(urgent.isDone() && !urgent.isCancelled());
+        assertEquals(3, compiler.l1.get());
+    }
+
+    @ParameterizedTest
+    @EnumSource(CompilationThreadPool.Dispatch.class)
+    @Timeout(2)
+    void shutdown_cancels_queued_requests(CompilationThreadPool.Dispatch dispatch) throws Exception {
+        final var compiler = new CountingCompiler();
+        final var pool = singleThreadPool(compiler, dispatch, CompilationThreadPool.Admission.REJECT_COLDEST, 16);
+        final var running = pool.compile(CompilationLevel.L1, TestMethod.of());
+        final var urgent = pool.compile(CompilationLevel.L2, TestMethod.of(), 0, true);
+
+        pool.shutdown();
+        assertTrue(pool.isShutdown());
+        assertTrue(urgent.isCancelled(), "shutdown cancels urgent requests too");
+        assertTrue(pool.compile(CompilationLevel.L1, TestMethod.of(), 0, true).isCancelled());
+
+        compiler.release.countDown();
+        running.get();
+        assertEquals(1, compiler.l1.get());
+        assertEquals(0, compiler.l2.get());
+    }
+
+    @Test
+    void adaptive_workers_follow_backlog_and_load() {
+        final double[] load = {0};
+        final var scaler = new WorkerScaler(1, 4, true, () -> load[0]);
+        long now = System.nanoTime();
+        assertEquals(1, scaler.limit());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(scaler.update(now, 10, scaler.limit()) <= 4);
+        }
+        assertEquals(4, scaler.limit());
+        assertEquals(1, scaler.update(now, 0, 0), "idle pool keeps a single worker");
+
+        // backlog of cheap compilations is drained by one worker in time
+        scaler.compiled(TimeUnit.MICROSECONDS.toNanos(100));
+        assertEquals(1, scaler.update(now, 50, 1));
+        assertEquals(2, scaler.update(now, 200, 1));
+
+        load[0] = 2 * WorkerScaler.OVERLOADED;
+        now += WorkerScaler.LOAD_SAMPLE_NANOS;
+        scaler.sampleLoad(now);
+        assertEquals(1, scaler.update(now, 1_000, 2), "overloaded host loses a worker");
+        assertEquals(1, scaler.update(now + WorkerScaler.LOAD_SAMPLE_NANOS, 1_000, 1));
+
+        final var fixed = WorkerScaler.fixed(3);
+        assertEquals(3, fixed.update(now, 0, 0));
+
+        // reserved slots are not counted: an idle or overloaded pool keeps one shared worker besides them
+        final var lanes = WorkerScaler.adaptive(new CompilationLanes(1, 2, 3));
+        assertEquals(1, lanes.limit());
+        assertTrue(lanes.toString().contains("workers = 1 in [1, 3]"), lanes.toString());
+        assertEquals(0, WorkerScaler.adaptive(new CompilationLanes(1, 1, 0)).limit());
+
+        final double other = WorkerScaler.otherCpuLoad();
+        assertTrue(other >= 0, "load of other processes: " + other);
+    }
+
+    @Test
+    @Timeout(5)
+    void overloaded_host_gets_single_compiler_worker() throws Exception {
+        final var active = new AtomicInteger();
+        final var peak = new AtomicInteger();
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+
+        final int BOUND = 4;
+        final var lanes = new CompilationLanes(0, 0, BOUND);
+        for (double load : new double[]{4 * WorkerScaler.OVERLOADED, 0}) {
+            peak.set(0);
+            final var pool = started(new CompilationThreadPool(compiler, BOUND, lanes,
+                    new WorkerScaler(1, BOUND, true, () -> load)));
+            final List<CompletableFuture<CompiledMethod>> compiled = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                compiled.add(pool.compile(CompilationLevel.L1, TestMethod.of()));
+            }
+            for (var f : compiled) {
+                f.get();
+            }
+            assertTrue(pool.awaitIdle(1, TimeUnit.SECONDS));
+
+            if (load > WorkerScaler.OVERLOADED) {
+                assertEquals(1, peak.get());
+            } else {
+                assertTrue(peak.get() > 1 && peak.get() <= BOUND, "peak = " + peak.get());
+            }
+            assertTrue(pool.lanesReport().contains("workers = 1 in [1, 4]"), pool.lanesReport());
+        }
+    }
+
+    @Test
+    void lanes_must_fit_thread_bound() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new CompilationThreadPool(new CountingCompiler(), 2, new CompilationLanes(1, 1, 1)));
+        assertThrows(IllegalArgumentException.class, () -> new CompilationLanes(0, 1, 0));
+        assertEquals(new CompilationLanes(1, 1, 3).toString(), CompilationLanes.defaultFor(5).toString());
+    }
+
+    @Test
+    @Timeout(2)
+    void virtual_dispatcher_respects_thread_bound() throws Exception {
+        final var active = new AtomicInteger();
+        final var peak = new AtomicInteger();
+        final var platformCompilations = new AtomicInteger();
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                if (!Thread.currentThread().isVirtual()) {
+                    platformCompilations.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+
+        final int BOUND = 2;
+        final var pool = started(new CompilationThreadPool(compiler, BOUND, CompilationThreadPool.Dispatch.VIRTUAL_THREADS));
+        final List<CompletableFuture<CompiledMethod>> compiled = new ArrayList<>();
+        // one reserved slot per lane, no overflow
+        for (int i = 0; i < 20; i++) {
+            compiled.add(pool.compile(i % 2 == 0 ? CompilationLevel.L1 : CompilationLevel.L2, TestMethod.of()));
+        }
+        for (var f : compiled) {
+            f.get();
+        }
+
+        assertEquals(BOUND, peak.get());
+        assertEquals(0, platformCompilations.get());
+        assertEquals(0, pool.queueDepth());
+        assertTrue(pool.lanesReport().startsWith("VIRTUAL_THREADS: CompilationLanes("), pool.lanesReport());
+    }
+
+    @Test
+    @Timeout(5)
+    void virtual_threads_never_exceed_thread_bound_with_overflow() throws Exception {
+        final var active = new AtomicInteger();
+        final var peak = new AtomicInteger();
+        final var release = new CountDownLatch(1);
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+
+        final int BOUND = 3;
+        final var pool = started(new CompilationThreadPool(compiler, BOUND, new CompilationLanes(1, 1, 1),
+                CompilationThreadPool.Dispatch.VIRTUAL_THREADS, CompilationThreadPool.Admission.REJECT_COLDEST, 64));
+        final List<CompletableFuture<CompiledMethod>> compiled = new ArrayList<>();
+        for (int i = 0; i < 10 * BOUND; i++) {
+            compiled.add(pool.compile(i % 3 == 0 ? CompilationLevel.L2 : CompilationLevel.L1, TestMethod.of()));
+        }
+        // lane slots of both levels are taken
+        while (active.get() < 2) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+        assertTrue(active.get() <= BOUND);
+        release.countDown();
+        for (var f : compiled) {
+            f.get();
+        }
+
+        assertTrue(peak.get() <= BOUND, "peak " + peak.get());
+        assertEquals(0, pool.queueDepth());
+    }
+}
@@ -0,0 +1,127 @@
+package org.nsu.syspro.parprog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.io.TempDir;
+import org.nsu.syspro.parprog.InvocationTrace.Invocation;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.helpers.TraceReplayer;
+import org.nsu.syspro.parprog.solution.SolutionThread;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InvocationTraceTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(10)
+    void recorded_traffic_is_replayed(@TempDir Path dir) throws IOException, InterruptedException {
+        final Path file = dir.resolve("jit.trace");
+        final var recording = testEnvironment();
+        final var inner = TestMethod.of();
+        final var outer = TestMethod.of(() -> {
+            recording.checkedExec(inner);
+            recording.checkedExec(inner);
+        });
+
+        final UserThread caller;
+        try (var recorder = InvocationTrace.record(file)) {
+            recording.withUserThreads((e, c, r) -> createUserThread(recorder.wrap(e), recorder.wrap(c), r));
+            caller = recording.startSeparateUserThread(() -> {
+                for (int i = 0; i < 12_000; i++) {
+                    recording.checkedExec(outer);
+                }
+            });
+            recording.startSeparateUserThread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    recording.checkedExec(inner);
+                }
+            }).join();
+            caller.join();
+        }
+        recording.terminate(1);
+        if (caller instanceof SolutionThread solution) {
+            // runtime of the wrapped engines is not known to the environment
+            solution.runtime().stop();
+        }
+
+        final var trace = InvocationTrace.load(file);
+        assertEquals(36_100, trace.invocations().size());
+        final List<List<Invocation>> threads = List.copyOf(trace.byThread().values());
+        assertEquals(2, threads.size());
+        final List<Invocation> nested = threads.stream().filter(t -> t.size() == 36_000).findFirst().orElseThrow();
+        assertEquals(outer.id(), nested.get(0).methodID());
+        assertEquals(0, nested.get(0).depth());
+        assertEquals(inner.id(), nested.get(1).methodID());
+        assertEquals(1, nested.get(1).depth());
+        for (int i = 1; i < nested.size(); i++) {
+            assertTrue(nested.get(i).nanoTime() >= nested.get(i - 1).nanoTime());
+        }
+        final long[] tiers = trace.tierCounts();
+        assertEquals(36_100, tiers[0] + tiers[1] + tiers[2], "every tier is known");
+        assertEquals(recording.counter(TestEnvironment.EventType.INTERPRETED), tiers[0]);
+        assertEquals(recording.counter(TestEnvironment.EventType.L2_EXECUTED), tiers[2]);
+
+        final var replaying = testEnvironment();
+        final var report = TraceReplayer.replay(replaying, trace, false);
+        assertEquals(36_100, replaying.counter(TestEnvironment.EventType.FINISHED_TASKS));
+        assertEquals(36_100, report.interpreted() + report.l1Executed() + report.l2Executed());
+        assertTrue(report.l1Compilations() + report.l2Compilations() > 0, report.toString());
+        replaying.terminate(1);
+    }
+
+    @Test
+    void torn_record_at_the_end_is_dropped(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("jit.trace");
+        final var recorder = InvocationTrace.record(file);
+        final var exec = recorder.wrap(new ExecutionEngine() {
+            @Override
+            public ExecutionResult interpret(MethodID id) {
+                return null;
+            }
+
+            @Override
+            public ExecutionResult execute(CompiledMethod method) {
+                return null;
+            }
+        });
+        final var method = TestMethod.of();
+        exec.interpret(method);
+        exec.execute(() -> method);
+        recorder.close();
+        exec.interpret(TestMethod.of());
+
+        final long size = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 1);
+        }
+        final var trace = InvocationTrace.load(file);
+        assertEquals(1, trace.invocations().size());
+        assertEquals(0, trace.invocations().get(0).tier());
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> InvocationTrace.load(file));
+    }
+}
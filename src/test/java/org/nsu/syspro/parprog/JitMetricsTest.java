@@ -0,0 +1,176 @@
+package org.nsu.syspro.parprog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.ExecutionEngine;
+import org.nsu.syspro.parprog.external.ExecutionResult;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.JitRuntime;
+import org.nsu.syspro.parprog.solution.TieringProfile;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JitMetricsTest {
+
+    @Test
+    void histogram_reports_bucket_upper_bounds() {
+        final var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(0.99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000);
+        }
+        histogram.record(1_000_000);
+
+        assertEquals(100, histogram.count());
+        assertEquals(1_023, histogram.percentileNanos(0.5));
+        assertEquals(1_023, histogram.percentileNanos(0.99));
+        assertEquals(1_000_000, histogram.percentileNanos(1), "never above the exact maximum");
+        assertEquals(1_000_000, histogram.maxNanos());
+        assertEquals((99 * 1_000 + 1_000_000) / 100.0, histogram.meanNanos());
+
+        final var merged = new LatencyHistogram();
+        merged.record(5);
+        merged.add(histogram);
+        assertEquals(101, merged.count());
+        assertEquals(5, merged.percentileNanos(0.001));
+        assertEquals(1_023, merged.percentileNanos(0.99));
+        assertEquals(1_000_000, merged.maxNanos());
+    }
+
+    @Test
+    void histogram_buckets_are_within_relative_error() {
+        long previous = -1;
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1_000, 123_456_789, 1L << 40, Long.MAX_VALUE - 1, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.indexOf(value);
+            final long upper = LatencyHistogram.upperBoundOf(index);
+            assertTrue(upper >= value, value + " <= " + upper);
+            assertTrue(upper - value <= value / LatencyHistogram.SUB_BUCKETS, value + " ~ " + upper);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    private static final CompilationEngine IDENTITY = new CompilationEngine() {
+        @Override
+        public CompiledMethod compile_l1(MethodID method) {
+            return () -> method;
+        }
+
+        @Override
+        public CompiledMethod compile_l2(MethodID method) {
+            return () -> method;
+        }
+    };
+
+    @Test
+    @Timeout(2)
+    void pool_records_requests_and_compilations() throws Exception {
+        final var pool = new CompilationThreadPool(IDENTITY, 2);
+        final var metrics = pool.metrics();
+        final var method = TestMethod.of();
+        pool.compile(CompilationLevel.L2, method).get();
+        pool.compile(CompilationLevel.L2, method).get();
+
+        assertEquals(1, metrics.requestsSubmitted(CompilationLevel.L2));
+        assertEquals(1, metrics.requestsDeduplicated(CompilationLevel.L2));
+        assertEquals(1, metrics.compileDurations(CompilationLevel.L2).count());
+        assertTrue(metrics.queueWait().count() > 0);
+        assertTrue(metrics.lockHold(JitMetrics.LockSite.COMPILATION_POOL).count() > 0);
+        final var other = new CompilationThreadPool(IDENTITY, 2);
+        assertEquals(0, other.metrics().requestsSubmitted(CompilationLevel.L2), "pools do not share metrics");
+        other.shutdown();
+        pool.shutdown();
+    }
+
+    private static final ExecutionEngine NO_EXECUTION = new ExecutionEngine() {
+        @Override
+        public ExecutionResult interpret(MethodID method) {
+            throw new AssertionError();
+        }
+
+        @Override
+        public ExecutionResult execute(CompiledMethod code) {
+            throw new AssertionError();
+        }
+    };
+
+    @Test
+    @Timeout(2)
+    void queue_depth_gauge_belongs_to_running_runtime() throws Exception {
+        final var release = new CountDownLatch(1);
+        final CompilationEngine blocking = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+        final var busy = JitRuntime.start(NO_EXECUTION, blocking, 2);
+        final var idle = JitRuntime.start(NO_EXECUTION, IDENTITY, 2);
+        final List<TieringProfile.Entry> entries = new ArrayList<>();
+        final Map<Long, TestMethod> methods = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            final var method = TestMethod.of();
+            methods.put(method.id(), method);
+            entries.add(new TieringProfile.Entry(method.id(), CompilationLevel.L1, 1));
+        }
+        busy.useProfile(new TieringProfile(entries));
+        busy.warmUp(methods::get);
+
+        try {
+            // at most two of them compile at once
+            assertTrue(busy.metrics().getQueueDepth() >= 2, busy.report());
+            assertEquals(0, idle.metrics().getQueueDepth(), "every runtime has its own gauge");
+        } finally {
+            release.countDown();
+            busy.stop();
+            idle.stop();
+        }
+        assertEquals(0, busy.metrics().getQueueDepth(), "gauge is removed on stop");
+    }
+
+    @Test
+    void exported_via_jmx_while_runtime_runs() throws Exception {
+        final var runtime = JitRuntime.start(NO_EXECUTION, IDENTITY, 2);
+        assertThrows(IllegalStateException.class, () -> JitRuntime.start(NO_EXECUTION, IDENTITY, 2));
+        runtime.metrics().requestSubmitted(CompilationLevel.L1);
+
+        final var server = ManagementFactory.getPlatformMBeanServer();
+        final var name = runtime.metrics().exportedAs();
+        assertEquals(runtime.name(), ObjectName.unquote(name.getKeyProperty("runtime")));
+        assertTrue(server.isRegistered(name));
+        final String report = (String) server.getAttribute(name, "Report");
+        assertTrue(report.contains("requests.submitted.L1 = 1"), report);
+        assertNotNull(server.getAttribute(name, "Counters"));
+        assertEquals(runtime.metrics().getQueueDepth(), (int) server.getAttribute(name, "QueueDepth"));
+
+        runtime.stop();
+        assertFalse(server.isRegistered(name));
+        final var restarted = JitRuntime.start(NO_EXECUTION, IDENTITY, 2);
+        assertNotEquals(name, restarted.metrics().exportedAs());
+        assertEquals(0, restarted.metrics().requestsSubmitted(CompilationLevel.L1));
+        restarted.stop();
+    }
+}
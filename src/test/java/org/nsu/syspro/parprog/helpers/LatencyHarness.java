@@ -0,0 +1,38 @@
+package org.nsu.syspro.parprog.helpers;
+
+import org.nsu.syspro.parprog.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures latency of {@link TestEnvironment#checkedExec} in a single user thread. With zero execution durations
+ * it is the dispatch overhead of the user thread (plus constant bookkeeping of the environment).
+ */
+public final class LatencyHarness {
+    private LatencyHarness() {
+    }
+
+    public static LatencyHistogram run(TestEnvironment env, List<TestMethod> methods, int callsPerMethod)
+            throws InterruptedException {
+        final var histogram = new LatencyHistogram();
+        env.startSeparateUserThread(() -> {
+            for (int i = 0; i < callsPerMethod; i++) {
+                for (TestMethod method : methods) {
+                    final long start = System.nanoTime();
+                    env.checkedExec(method);
+                    histogram.record(System.nanoTime() - start);
+                }
+            }
+        }).join();
+        return histogram;
+    }
+
+    public static List<TestMethod> methods(int count) {
+        final List<TestMethod> methods = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            methods.add(TestMethod.of());
+        }
+        return methods;
+    }
+}
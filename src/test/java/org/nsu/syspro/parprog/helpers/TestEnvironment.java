@@ -1,8 +1,10 @@
 package org.nsu.syspro.parprog.helpers;
 
+import org.nsu.syspro.parprog.LatencyHistogram;
 import org.nsu.syspro.parprog.UserThread;
 import org.nsu.syspro.parprog.external.*;
 import org.nsu.syspro.parprog.solution.EasyFastTest;
+import org.nsu.syspro.parprog.solution.JitRuntime;
 
 import java.time.Duration;
 import java.util.*;
@@ -33,6 +35,22 @@ public class TestEnvironment {
         EXECUTED_LOWER_OPT_LEVEL_THAN_GLOBALLY_AVAILABLE,
     }
 
+    /**
+     * Time {@link UserThread#executeMethod} spends around the engine call.
+     */
+    public enum Overhead {
+        /**
+         * From entering {@code executeMethod} to the start of {@code interpret}/{@code execute}, bounded by
+         * `Weak-worst-case-latency`.
+         */
+        DISPATCH,
+        /**
+         * From the end of {@code interpret}/{@code execute} to leaving {@code executeMethod}, bounded together with
+         * {@link #DISPATCH} by `Strong-worst-case-latency`.
+         */
+        POST_EXECUTION,
+    }
+
     private final AtomicLong[] counters;
 
     private final TestExecutionEngine engine;
@@ -42,6 +60,10 @@ public class TestEnvironment {
 
     private final long idOnStart = UserThread.firstUnusedThreadNum();
 
+    private UserThreadFactory userThreads = EasyFastTest::createUserThread;
+    private boolean progressChecks = true;
+    private boolean overheadsMeasured = false;
+
     public TestEnvironment(Duration interpret, Duration l1Exec, Duration l2Exec, Duration l1comp, Duration l2comp) {
         engine = new TestExecutionEngine(interpret, l1Exec, l2Exec);
         compiler = new TestCompilationEngine(l1comp, l2comp);
@@ -51,6 +73,134 @@ public class TestEnvironment {
         for (int i = 0; i < counters.length; i++) {
             counters[i] = new AtomicLong(0);
         }
+        // like a VM, starts the JIT runtime of its engines before any user thread and stops it on terminate
+        JitRuntime.start(engine, compiler, TestLevels.compilationThreadBound());
+    }
+
+    /**
+     * @return JIT runtime the engines of this environment are bound to, {@code null} once it was stopped
+     */
+    public JitRuntime runtime() {
+        return JitRuntime.find(engine, compiler);
+    }
+
+    /**
+     * Threads started by this environment are created by {@code factory} instead of the solution under test.
+     */
+    public TestEnvironment withUserThreads(UserThreadFactory factory) {
+        userThreads = factory;
+        return this;
+    }
+
+    /**
+     * Disables `Eventual-per-thread-progress-*` checks, for user threads which relax them on purpose.
+     */
+    public TestEnvironment withoutProgressChecks() {
+        progressChecks = false;
+        return this;
+    }
+
+    /**
+     * Enables recording of {@link Overhead}s. Off by default: it reads the clock four times per call, which slows down
+     * the tests which only check correctness.
+     */
+    public TestEnvironment withOverheads() {
+        overheadsMeasured = true;
+        return this;
+    }
+
+    // thread-confined timestamps of nested checkedExec calls and overhead histograms of one user thread
+    private static final class ThreadOverheads {
+        final LatencyHistogram[] histograms = {new LatencyHistogram(), new LatencyHistogram()};
+        long[] entered = new long[16];
+        long[] engineFinished = new long[16];
+        int depth = 0;
+
+        void enter() {
+            if (depth == entered.length) {
+                entered = Arrays.copyOf(entered, depth * 2);
+                engineFinished = Arrays.copyOf(engineFinished, depth * 2);
+            }
+            engineFinished[depth] = 0;
+            entered[depth++] = System.nanoTime();
+        }
+
+        void engineStarted() {
+            final long now = System.nanoTime();
+            if (depth > 0) {
+                histograms[Overhead.DISPATCH.ordinal()].record(now - entered[depth - 1]);
+            }
+        }
+
+        void engineFinished() {
+            if (depth > 0) {
+                engineFinished[depth - 1] = System.nanoTime();
+            }
+        }
+
+        void exit() {
+            final long now = System.nanoTime();
+            final long finished = engineFinished[--depth];
+            if (finished != 0) {
+                histograms[Overhead.POST_EXECUTION.ordinal()].record(now - finished);
+            }
+        }
+    }
+
+    private final Map<Thread, ThreadOverheads> overheads = new ConcurrentHashMap<>();
+    private final ThreadLocal<ThreadOverheads> localOverheads = ThreadLocal.withInitial(() ->
+            overheads.computeIfAbsent(Thread.currentThread(), t -> new ThreadOverheads()));
+
+    /**
+     * @return {@code null} unless overheads are measured
+     */
+    private ThreadOverheads threadOverheads() {
+        return overheadsMeasured ? localOverheads.get() : null;
+    }
+
+    /**
+     * @return overhead of all user threads of this environment so far, see {@link #withOverheads}
+     */
+    public LatencyHistogram overhead(Overhead kind) {
+        final var merged = new LatencyHistogram();
+        for (ThreadOverheads thread : overheads.values()) {
+            merged.add(thread.histograms[kind.ordinal()]);
+        }
+        return merged;
+    }
+
+    public Map<Thread, LatencyHistogram> overheadByThread(Overhead kind) {
+        final Map<Thread, LatencyHistogram> histograms = new HashMap<>();
+        overheads.forEach((thread, o) -> histograms.put(thread, o.histograms[kind.ordinal()]));
+        return histograms;
+    }
+
+    /**
+     * Fails unless the {@code quantile} of the overhead (merged over all threads) is at most {@code bound}.
+     * Use quantile {@code 1} to bound the maximum.
+     */
+    public void assertOverhead(Overhead kind, double quantile, Duration bound) {
+        final LatencyHistogram histogram = overhead(kind);
+        if (histogram.percentileNanos(quantile) > bound.toNanos()) {
+            fail(kind + " overhead quantile " + quantile + " exceeds " + bound + ":\n" + overheadReport());
+        }
+    }
+
+    private String overheadReport() {
+        if (!overheadsMeasured) {
+            return "";
+        }
+        final StringBuilder report = new StringBuilder();
+        for (Overhead kind : Overhead.values()) {
+            report.append(kind).append(": ").append(overhead(kind)).append('\n');
+            if (overheads.size() > 1) {
+                overheadByThread(kind).entrySet().stream()
+                        .max(Comparator.comparingLong(e -> e.getValue().maxNanos()))
+                        .ifPresent(worst -> report.append(kind).append(".worstThread = ").append(worst.getKey())
+                                .append(": ").append(worst.getValue()).append('\n'));
+            }
+        }
+        return report.toString();
     }
 
     private void inc(EventType type) {
@@ -72,10 +222,17 @@ public class TestEnvironment {
         final int globalLevelBefore = globalJITLevels.compute(methodId, (x, y) -> Objects.requireNonNullElse(y, 0));
 
         inc(EventType.STARTED_CHECKED_EXECUTIONS);
+        final ThreadOverheads measured = threadOverheads();
         final ExecutionResult result;
+        if (measured != null) {
+            measured.enter();
+        }
         try {
             result = thread.executeMethod(id);
         } finally {
+            if (measured != null) {
+                measured.exit();
+            }
             inc(EventType.FINISHED_CHECKED_EXECUTIONS);
         }
 
@@ -125,7 +282,7 @@ public class TestEnvironment {
 
         // `Eventual-per-thread-progress-1`: if `UserThread.executeMethod(id)` was invoked `10_000` times by `Thread A`, at least one invocation
         // inside this thread was using code produced level 1 or level 2 JIT.
-        if (cnt >= 10_000) {
+        if (progressChecks && cnt >= 10_000) {
             if (localMaxLevel == 0) {
                 fail("Eventual-per-thread-progress-1: thread " + thread + " interpreted MethodId(" + methodId + ") " + cnt + " times without compiling it");
             }
@@ -133,7 +290,7 @@ public class TestEnvironment {
 
         // `Eventual-per-thread-progress-2`: if `UserThread.executeMethod(id)` was invoked `100_000` times by `Thread A` as `CompiledMethod(id)`,
         // at least one invocation inside this thread was using code produced by level 2 JIT.
-        if (TestLevels.mediumEnabled() && (cnt >= 100_000)) {
+        if (progressChecks && TestLevels.mediumEnabled() && (cnt >= 100_000)) {
             if (localMaxLevel < 2) {
                 fail("Eventual-per-thread-progress-2: thread " + thread + " interpreted/l1 executed MethodId(" + methodId + ") " + cnt + " times without compiling it by L2 JIT");
             }
@@ -175,6 +332,12 @@ public class TestEnvironment {
         // no deadlock/hang
         assertTrue(terminated);
 
+        // user threads are done: release compilation threads of this environment's engines
+        final JitRuntime runtime = runtime();
+        if (runtime != null) {
+            runtime.stop();
+        }
+
         // all executions started by harness successfully finished
         assertEquals(counter(EventType.STARTED_CHECKED_EXECUTIONS), counter(EventType.FINISHED_CHECKED_EXECUTIONS));
 
@@ -215,7 +378,8 @@ public class TestEnvironment {
                 u("l1Compilations_start", EventType.L1_COMPILATION_START) +
                 u("l1Compilations_end", EventType.L1_COMPILATION_END) +
                 u("l2Compilations_start", EventType.L2_COMPILATION_START) +
-                u("l2Compilations_end", EventType.L2_COMPILATION_END);
+                u("l2Compilations_end", EventType.L2_COMPILATION_END) +
+                overheadReport();
     }
 
     private class TestExecutionEngine implements ExecutionEngine {
@@ -236,6 +400,10 @@ public class TestEnvironment {
         }
 
         public ExecutionResult interpretImpl(TestMethod id) {
+            final ThreadOverheads measured = threadOverheads();
+            if (measured != null) {
+                measured.engineStarted();
+            }
             inc(EventType.STARTED_TASKS);
             try {
                 id.invokePayload();
@@ -243,6 +411,9 @@ public class TestEnvironment {
             } finally {
                 inc(EventType.INTERPRETED);
                 inc(EventType.FINISHED_TASKS);
+                if (measured != null) {
+                    measured.engineFinished();
+                }
             }
             return new Finished.Interpreted(id, UserThread.current());
         }
@@ -254,6 +425,10 @@ public class TestEnvironment {
         }
 
         public ExecutionResult executeImpl(Compiled method) {
+            final ThreadOverheads measured = threadOverheads();
+            if (measured != null) {
+                measured.engineStarted();
+            }
             inc(EventType.STARTED_TASKS);
             if (method instanceof Compiled.L1) {
                 try {
@@ -262,6 +437,9 @@ public class TestEnvironment {
                 } finally {
                     inc(EventType.L1_EXECUTED);
                     inc(EventType.FINISHED_TASKS);
+                    if (measured != null) {
+                        measured.engineFinished();
+                    }
                 }
                 return ((Compiled.L1) method).exec();
             }
@@ -272,6 +450,9 @@ public class TestEnvironment {
                 } finally {
                     inc(EventType.L2_EXECUTED);
                     inc(EventType.FINISHED_TASKS);
+                    if (measured != null) {
+                        measured.engineFinished();
+                    }
                 }
                 return ((Compiled.L2) method).exec();
             }
@@ -376,7 +557,7 @@ public class TestEnvironment {
         private final Set<UserThread> running = new HashSet<>();
 
         public UserThread execute(Runnable command) {
-            final UserThread thread = EasyFastTest.createUserThread(engine, compiler, () -> {
+            final UserThread thread = userThreads.create(engine, compiler, () -> {
                 command.run();
 
                 synchronized (running) {
@@ -0,0 +1,120 @@
+package org.nsu.syspro.parprog.helpers;
+
+import org.nsu.syspro.parprog.InvocationTrace;
+import org.nsu.syspro.parprog.InvocationTrace.Invocation;
+import org.nsu.syspro.parprog.UserThread;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Drives user threads of a {@link TestEnvironment} with recorded traffic: one user thread per recorded thread, each
+ * repeating the invocations of its recorded thread in order, nested invocations are made by the payload of the
+ * enclosing method. Engine timings are those of the environment, so the same trace can be replayed against any
+ * {@link UserThreadFactory} and any timings.
+ * <br>
+ * Recorded methods are mapped to fresh {@link TestMethod}s, tiers are not replayed: they are what the user thread
+ * under test decides.
+ */
+public final class TraceReplayer {
+    private static final ThreadLocal<Cursor> cursor = new ThreadLocal<>();
+
+    public record Report(long invocations, Duration elapsed,
+                         long interpreted, long l1Executed, long l2Executed,
+                         long l1Compilations, long l2Compilations) {
+        public double invocationsPerSecond() {
+            return invocations * 1e9 / Math.max(1, elapsed.toNanos());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("invocations = %d in %d ms (%.0f/s)%ntiers: interpreted = %d, l1 = %d, l2 = %d%n" +
+                            "compilations: l1 = %d, l2 = %d",
+                    invocations, elapsed.toMillis(), invocationsPerSecond(), interpreted, l1Executed, l2Executed,
+                    l1Compilations, l2Compilations);
+        }
+    }
+
+    private TraceReplayer() {
+    }
+
+    /**
+     * Replays {@code trace} and waits for all replaying threads. The environment is not terminated.
+     *
+     * @param paced keep recorded gaps between invocations (relative to the first recorded one) instead of replaying
+     *              as fast as possible
+     */
+    public static Report replay(TestEnvironment env, InvocationTrace trace, boolean paced) throws InterruptedException {
+        final Map<Long, TestMethod> methods = new HashMap<>();
+        for (Invocation invocation : trace.invocations()) {
+            methods.computeIfAbsent(invocation.methodID(), id -> TestMethod.of(() -> cursor.get().replayCallees()));
+        }
+        final long traceStart = trace.invocations().isEmpty() ? 0 : trace.invocations().get(0).nanoTime();
+
+        final long start = System.nanoTime();
+        final List<UserThread> threads = new ArrayList<>();
+        for (List<Invocation> calls : trace.byThread().values()) {
+            final var replaying = new Cursor(env, methods, calls, paced, traceStart, start);
+            threads.add(env.startSeparateUserThread(() -> {
+                cursor.set(replaying);
+                replaying.replayCallees();
+            }));
+        }
+        for (UserThread thread : threads) {
+            thread.join();
+        }
+        final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        return new Report(trace.invocations().size(), elapsed,
+                env.counter(TestEnvironment.EventType.INTERPRETED),
+                env.counter(TestEnvironment.EventType.L1_EXECUTED),
+                env.counter(TestEnvironment.EventType.L2_EXECUTED),
+                env.counter(TestEnvironment.EventType.L1_COMPILATION_END),
+                env.counter(TestEnvironment.EventType.L2_COMPILATION_END));
+    }
+
+    private static final class Cursor {
+        private final TestEnvironment env;
+        private final Map<Long, TestMethod> methods;
+        private final List<Invocation> calls;
+        private final boolean paced;
+        private final long traceStart;
+        private final long replayStart;
+
+        private int next = 0;
+        // recorded depth of the invocation being replayed, -1 outside of any
+        private int depth = -1;
+
+        Cursor(TestEnvironment env, Map<Long, TestMethod> methods, List<Invocation> calls, boolean paced,
+               long traceStart, long replayStart) {
+            this.env = env;
+            this.methods = methods;
+            this.calls = calls;
+            this.paced = paced;
+            this.traceStart = traceStart;
+            this.replayStart = replayStart;
+        }
+
+        /**
+         * Replays recorded invocations nested into the current one, deeper ones are replayed by their callers.
+         */
+        void replayCallees() {
+            while (next < calls.size() && calls.get(next).depth() > depth) {
+                final Invocation call = calls.get(next++);
+                if (paced) {
+                    TestLevels.sleepNanos(Math.max(0, call.nanoTime() - traceStart - (System.nanoTime() - replayStart)));
+                }
+                final int outer = depth;
+                depth = call.depth();
+                try {
+                    env.checkedExec(methods.get(call.methodID()));
+                } finally {
+                    depth = outer;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.nsu.syspro.parprog.helpers;
+
+import org.nsu.syspro.parprog.UserThread;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.ExecutionEngine;
+
+@FunctionalInterface
+public interface UserThreadFactory {
+    UserThread create(ExecutionEngine e, CompilationEngine c, Runnable r);
+}
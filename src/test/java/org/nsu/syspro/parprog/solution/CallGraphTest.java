@@ -0,0 +1,104 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CallGraphTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    @Test
+    void records_edges_from_nesting() {
+        final var graph = new CallGraph();
+        final var rare = TestMethod.of();
+        for (int i = 0; i < 10; i++) {
+            graph.enter(0, TestMethod.of());
+            graph.enter(1, TestMethod.of());
+            graph.enter(2, TestMethod.of());
+            graph.exit();
+            graph.exit();
+            if (i % 3 == 0) {
+                graph.enter(3, rare);
+                graph.exit();
+            }
+            graph.exit();
+        }
+
+        assertEquals(1, graph.hotCallees(0, 10, 0));
+        assertEquals(1, graph.hotCallee(0, 0));
+        // deeper level does not overwrite the shallower one
+        assertEquals(1, graph.hotCallees(1, 10, 1));
+        assertEquals(2, graph.hotCallee(1, 0));
+        assertEquals(1, graph.hotCallee(0, 0));
+        assertEquals(0, graph.hotCallees(2, 10, 40));
+        assertSame(rare, graph.method(3));
+        // 4 of 10 invocations is not hot, 4 of 8 is
+        assertEquals(2, graph.hotCallees(0, 8, 0));
+    }
+
+    @Test
+    void keeps_at_most_max_callees() {
+        final var graph = new CallGraph();
+        graph.enter(0, TestMethod.of());
+        for (int slot = 1; slot <= CallGraph.MAX_CALLEES + 2; slot++) {
+            graph.enter(slot, TestMethod.of());
+            graph.exit();
+        }
+        graph.exit();
+        assertEquals(CallGraph.MAX_CALLEES, graph.hotCallees(0, 1, 100));
+        assertEquals(CallGraph.MAX_CALLEES, graph.hotCallee(100, CallGraph.MAX_CALLEES - 1), "first callees are kept");
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void chain_is_compiled_together_with_its_caller() throws InterruptedException {
+        final var env = testEnvironment();
+        final int DEPTH = 20;
+        TestMethod previous = TestMethod.of();
+        for (int i = 0; i < DEPTH; i++) {
+            final var capture = previous;
+            previous = TestMethod.of(() -> env.checkedExec(capture));
+        }
+        final var top = previous;
+
+        // the policy asks only for the outermost method, callees can reach L1 early only through the call graph
+        SolutionThread.useDefaultPolicy(profile ->
+                profile.methodID() == top.id() && profile.invocations() >= 10 ? CompilationLevel.L1 : null);
+        try {
+            env.startSeparateUserThread(() -> {
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+                for (int i = 0; i < 1_000 && System.nanoTime() < deadline; i++) {
+                    final long before = env.counter(TestEnvironment.EventType.L1_EXECUTED);
+                    env.checkedExec(top);
+                    if (env.counter(TestEnvironment.EventType.L1_EXECUTED) - before == DEPTH + 1) {
+                        return;
+                    }
+                    TestLevels.sleepNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+                fail("chain did not reach L1 before the deadlines: " + env);
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+        env.terminate(1);
+    }
+}
@@ -0,0 +1,147 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CodeCacheSnapshotTest {
+
+    private static CompiledMethodInfo info(TestMethod method, CompilationLevel level) {
+        final CompiledMethod code = () -> method;
+        return new CompiledMethodInfo(code, level);
+    }
+
+    @Test
+    void publication_increments_epoch_and_keeps_previous_snapshot_intact() {
+        final var method = TestMethod.of();
+        final var l1 = info(method, CompilationLevel.L1);
+
+        final var first = CodeCacheSnapshot.EMPTY.with(method.id(), 0, l1);
+        assertEquals(CodeCacheSnapshot.EMPTY.epoch + 1, first.epoch);
+        assertSame(l1, first.get(0));
+        assertEquals(1, first.size());
+        assertEquals(0, CodeCacheSnapshot.EMPTY.size());
+        assertNull(CodeCacheSnapshot.EMPTY.get(0));
+
+        final var l2 = info(method, CompilationLevel.L2);
+        final var second = first.with(method.id(), 0, l2);
+        assertEquals(first.epoch + 1, second.epoch);
+        assertSame(l2, second.get(0));
+        assertSame(l1, first.get(0));
+        assertEquals(1, second.size());
+    }
+
+    @Test
+    void never_downgrades_and_skips_useless_publications() {
+        final var method = TestMethod.of();
+        final var l2 = CodeCacheSnapshot.EMPTY.with(method.id(), 0, info(method, CompilationLevel.L2));
+
+        assertSame(l2, l2.with(method.id(), 0, info(method, CompilationLevel.L1)));
+        assertSame(l2, l2.with(method.id(), 0, info(method, CompilationLevel.L2)));
+    }
+
+    @Test
+    void chunks_are_copied_on_write() {
+        final var near = TestMethod.of();
+        final var far = TestMethod.of();
+        final var first = CodeCacheSnapshot.EMPTY.with(near.id(), 1, info(near, CompilationLevel.L1));
+        final int farSlot = 10 * CodeCacheSnapshot.CHUNK_SLOTS + 1;
+
+        final var second = first.with(far.id(), farSlot, info(far, CompilationLevel.L1));
+        final var third = second.with(near.id(), 1, info(near, CompilationLevel.L2));
+        assertNull(first.get(farSlot));
+        assertEquals(CompilationLevel.L1, second.get(1).compilationLevel);
+        assertEquals(CompilationLevel.L2, third.get(1).compilationLevel);
+        assertSame(second.get(farSlot), third.get(farSlot));
+        assertNull(third.get(2 * CodeCacheSnapshot.CHUNK_SLOTS));
+        assertNull(third.get(100 * CodeCacheSnapshot.CHUNK_SLOTS));
+
+        final Map<Long, CompilationLevel> entries = new HashMap<>();
+        third.forEach((id, info) -> entries.put(id, info.compilationLevel));
+        assertEquals(Map.of(near.id(), CompilationLevel.L2, far.id(), CompilationLevel.L1), entries);
+    }
+
+    @Test
+    void publication_evicts_over_budget() {
+        var snapshot = CodeCacheSnapshot.empty(CodeCacheBudget.ofBytes(3, 1, 2), new ReferenceBits());
+        final List<TestMethod> methods = new ArrayList<>();
+        for (int slot = 0; slot < 3; slot++) {
+            final var method = TestMethod.of();
+            methods.add(method);
+            snapshot = snapshot.with(method.id(), slot * CodeCacheSnapshot.CHUNK_SLOTS, info(method, CompilationLevel.L1));
+        }
+        assertEquals(3, snapshot.size());
+        assertEquals(0, snapshot.evictions());
+
+        // L2 of the last method costs one more byte: the hand evicts the first slot
+        final var upgraded = snapshot.with(methods.get(2).id(), 2 * CodeCacheSnapshot.CHUNK_SLOTS,
+                info(methods.get(2), CompilationLevel.L2));
+        assertEquals(2, upgraded.size());
+        assertEquals(3, upgraded.bytes());
+        assertEquals(1, upgraded.evictions());
+        assertNull(upgraded.get(0));
+        assertNotNull(upgraded.get(CodeCacheSnapshot.CHUNK_SLOTS));
+        assertNotNull(snapshot.get(0), "previous snapshot is intact");
+
+        // the published method is never evicted, the hand continues after the last eviction
+        final var method = TestMethod.of();
+        final var next = upgraded.with(method.id(), 5, info(method, CompilationLevel.L2));
+        assertNotNull(next.get(5));
+        assertNull(next.get(CodeCacheSnapshot.CHUNK_SLOTS));
+        assertNull(next.get(2 * CodeCacheSnapshot.CHUNK_SLOTS));
+        assertEquals(1, next.size());
+        assertEquals(3, next.evictions());
+    }
+
+    @Test
+    void hot_method_survives_eviction_of_cold_ones() {
+        final var referenced = new ReferenceBits();
+        var snapshot = CodeCacheSnapshot.empty(CodeCacheBudget.ofBytes(3, 1, 1), referenced);
+        final var hot = TestMethod.of();
+        snapshot = snapshot.with(hot.id(), 0, info(hot, CompilationLevel.L1));
+        for (int slot = 1; slot < 20; slot++) {
+            // the hot method is flushed by some thread between every two publications
+            referenced.mark(0);
+            final var method = TestMethod.of();
+            snapshot = snapshot.with(method.id(), slot, info(method, CompilationLevel.L1));
+            assertNotNull(snapshot.get(0), "hot method evicted at slot " + slot);
+            assertEquals(Math.min(3, slot + 1), snapshot.size());
+        }
+        assertEquals(17, snapshot.evictions());
+        assertNotNull(snapshot.get(19), "published method is kept");
+    }
+
+    @Test
+    void code_no_thread_has_observed_is_not_evicted() {
+        var snapshot = CodeCacheSnapshot.empty(CodeCacheBudget.ofBytes(2, 1, 1), new ReferenceBits());
+        for (int slot = 0; slot < 4; slot++) {
+            final var method = TestMethod.of();
+            // threads have observed only the first snapshot with an entry
+            snapshot = snapshot.with(method.id(), slot, info(method, CompilationLevel.L1), 1);
+        }
+        assertNull(snapshot.get(0));
+        for (int slot = 1; slot < 4; slot++) {
+            assertNotNull(snapshot.get(slot), "unobserved entry at slot " + slot);
+        }
+        assertEquals(3, snapshot.bytes(), "over budget until threads observe the entries");
+
+        assertSame(snapshot, snapshot.trimmed(1), "nothing is evictable yet");
+        final var trimmed = snapshot.trimmed(snapshot.epoch);
+        assertEquals(2, trimmed.bytes());
+        assertEquals(snapshot.epoch + 1, trimmed.epoch);
+        assertSame(trimmed, trimmed.trimmed(trimmed.epoch));
+
+        final var method = TestMethod.of();
+        final var observed = snapshot.with(method.id(), 4, info(method, CompilationLevel.L1));
+        assertEquals(2, observed.size());
+    }
+}
@@ -0,0 +1,106 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.JitMetrics;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GlobalHotnessTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    @Test
+    @Timeout(2)
+    void concurrent_flushes_are_not_lost() throws InterruptedException {
+        final var interner = new MethodInterner();
+        final var global = new GlobalHotness(interner, new JitMetrics());
+        final int THREADS = 8;
+        final int FLUSHES = 1_000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(new Thread(() -> {
+                final var deltas = new DenseLongArray();
+                final var totals = new DenseLongArray();
+                final int[] slots = new int[100];
+                for (int method = 0; method < 100; method++) {
+                    slots[method] = interner.slotOf(method);
+                }
+                for (int i = 0; i < FLUSHES; i++) {
+                    for (int slot : slots) {
+                        deltas.addAndGet(slot, 3);
+                    }
+                    global.flush(slots, slots.length, deltas, totals, 0);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (long method = 0; method < 100; method++) {
+            assertEquals(3L * FLUSHES * THREADS, global.get(method));
+        }
+    }
+
+    @Test
+    void counters_decay_by_epoch() {
+        final var interner = new MethodInterner();
+        final var global = new GlobalHotness(interner, new JitMetrics());
+        final var deltas = new DenseLongArray();
+        final var totals = new DenseLongArray();
+        final int[] slots = {interner.slotOf(0x7E57_DECAL)};
+
+        deltas.put(slots[0], 1_000);
+        global.flush(slots, 1, deltas, totals, 5);
+        assertEquals(1_000, totals.get(slots[0]));
+        deltas.put(slots[0], 10);
+        global.flush(slots, 1, deltas, totals, 7);
+        assertEquals(1_000 / 4 + 10, totals.get(slots[0]), "halved once per epoch");
+        deltas.put(slots[0], 1);
+        global.flush(slots, 1, deltas, totals, 6);
+        assertEquals(261, global.get(0x7E57_DECAL), "stale epoch of a flushing thread does not decay");
+
+        assertEquals(0, HotnessDecay.decay(Long.MAX_VALUE, 0, Long.SIZE));
+        assertEquals(7, HotnessDecay.halfLife(10, TimeUnit.MILLISECONDS).epochAt(75_000_000));
+        assertEquals(0, HotnessDecay.NONE.epochAt(System.nanoTime()));
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(2)
+    void method_hot_across_threads_is_compiled() throws InterruptedException {
+        // no single thread reaches L1 threshold, but all of them together do
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+
+        for (int i = 0; i < 10; i++) {
+            env.startSeparateUserThread(() -> {
+                for (int j = 0; j < 5_000; j++) {
+                    env.checkedExec(method);
+                }
+            }).join();
+        }
+
+        assertTrue((env.counter(TestEnvironment.EventType.L1_EXECUTED) + env.counter(TestEnvironment.EventType.L2_EXECUTED)) > 0);
+        env.terminate(1);
+    }
+}
@@ -0,0 +1,101 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InlineCacheTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    private static CompiledMethodInfo info(CompilationLevel level) {
+        final TestMethod method = TestMethod.of();
+        final CompiledMethod code = () -> method;
+        return new CompiledMethodInfo(code, level);
+    }
+
+    @Test
+    void replaces_entries_round_robin() {
+        final var cache = new InlineCache();
+        for (int i = 0; i < InlineCache.ENTRIES; i++) {
+            assertEquals(-1, cache.find(100 + i));
+            cache.put(100 + i, i, null);
+        }
+        final int entry = cache.find(102);
+        assertEquals(2, cache.slot(entry));
+        assertNull(cache.info(entry));
+
+        assertEquals(-1, cache.find(200));
+        cache.put(200, 7, null);
+        assertEquals(-1, cache.find(100), "oldest entry is replaced first");
+        assertTrue(cache.find(101) >= 0);
+        assertEquals(2, cache.hits());
+        assertEquals(InlineCache.ENTRIES + 2, cache.misses());
+    }
+
+    @Test
+    void upgrades_in_place_and_never_downgrades() {
+        final var cache = new InlineCache();
+        cache.put(10, 0, null);
+        cache.put(11, 1, info(CompilationLevel.L1));
+
+        final var l2 = info(CompilationLevel.L2);
+        cache.upgrade(0, info(CompilationLevel.L1));
+        cache.upgrade(1, l2);
+        cache.upgrade(1, info(CompilationLevel.L1));
+        assertEquals(CompilationLevel.L1, cache.info(cache.find(10)).compilationLevel);
+        assertSame(l2, cache.info(cache.find(11)));
+
+        final List<Integer> installed = new ArrayList<>();
+        cache.refresh(Map.of(0, l2, 1, info(CompilationLevel.L1), 5, l2)::get, (slot, better) -> {
+            installed.add(slot);
+            cache.upgrade(slot, better);
+        });
+        assertEquals(List.of(0), installed, "only better code is handed to the private cache");
+        assertSame(l2, cache.info(cache.find(10)));
+        assertSame(l2, cache.info(cache.find(11)));
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void tight_loop_hits_inline_cache() throws InterruptedException {
+        final var env = testEnvironment();
+        final List<TestMethod> methods = List.of(TestMethod.of(), TestMethod.of(), TestMethod.of());
+
+        env.startSeparateUserThread(() -> {
+            // checkedExec fails if an inline entry is ever downgraded
+            for (int i = 0; i < 12_000; i++) {
+                for (TestMethod method : methods) {
+                    env.checkedExec(method);
+                }
+            }
+        }).join();
+
+        final long hits = env.runtime().metrics().getCounters().get("cache.inline.hits");
+        assertTrue(hits > 30_000, "inline hits: " + hits);
+        assertTrue(env.counter(TestEnvironment.EventType.L1_EXECUTED) + env.counter(TestEnvironment.EventType.L2_EXECUTED) > 0);
+        env.terminate(1);
+    }
+}
@@ -0,0 +1,178 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JitRuntimeTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    private static SolutionThread run(TestEnvironment env, TestMethod method, int calls) throws InterruptedException {
+        final var thread = (SolutionThread) env.startSeparateUserThread(() -> {
+            for (int i = 0; i < calls; i++) {
+                env.checkedExec(method);
+            }
+        });
+        thread.join();
+        return thread;
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void engine_pairs_do_not_share_state() throws InterruptedException {
+        final var first = testEnvironment();
+        final var second = testEnvironment();
+        final var method = TestMethod.of();
+        final var started = first.runtime();
+        assertNotNull(started, "started by the environment before any thread");
+
+        final var compiled = run(first, method, 10_001).runtime();
+        assertSame(started, compiled);
+        assertEquals(0, second.runtime().interner().size(), "methods are interned per runtime");
+        assertEquals(0, second.runtime().costModel().executionSamples(), "costs are measured per runtime");
+        final var other = run(second, method, 1).runtime();
+        assertNotSame(compiled, other);
+        assertTrue(compiled.codeCacheSize() >= 1);
+        assertEquals(0, other.codeCacheSize(), "code compiled by another compilation engine is not visible");
+        assertTrue(compiled.metrics().requestsSubmitted(SolutionThread.CompilationLevel.L1) >= 1);
+        assertEquals(0, other.metrics().requestsSubmitted(SolutionThread.CompilationLevel.L1));
+        assertNotEquals(compiled.metrics().exportedAs(), other.metrics().exportedAs());
+        assertTrue(JitRuntime.running().contains(compiled));
+        assertTrue(JitRuntime.running().contains(other));
+
+        first.terminate(1);
+        assertEquals(JitRuntime.State.STOPPED, compiled.state());
+        assertFalse(JitRuntime.running().contains(compiled));
+        assertEquals(JitRuntime.State.RUNNING, other.state());
+        second.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void stopped_runtime_is_replaced_by_fresh_one() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+
+        final var runtime = run(env, method, 10_001).runtime();
+        assertTrue(runtime.drain(Duration.ofSeconds(1)));
+        assertEquals(JitRuntime.State.DRAINING, runtime.state());
+        assertSame(runtime, run(env, method, 1).runtime(), "draining runtime still binds new threads");
+
+        runtime.stop();
+        runtime.stop();
+        assertEquals(JitRuntime.State.STOPPED, runtime.state());
+        final var fresh = run(env, method, 1).runtime();
+        assertNotSame(runtime, fresh);
+        assertEquals(JitRuntime.State.RUNNING, fresh.state());
+        assertEquals(0, fresh.codeCacheSize(), "code of the stopped runtime is dropped with it");
+        env.terminate(1);
+    }
+
+    private static final ExecutionResult RESULT = new ExecutionResult() {
+    };
+
+    private static final ExecutionEngine EXEC = new ExecutionEngine() {
+        @Override
+        public ExecutionResult interpret(MethodID id) {
+            return RESULT;
+        }
+
+        @Override
+        public ExecutionResult execute(CompiledMethod method) {
+            return RESULT;
+        }
+    };
+
+    @Test
+    @Timeout(5)
+    void superseded_l1_request_gets_l2_code_labelled_l2() throws Exception {
+        final var release = new CountDownLatch(1);
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+        final var runtime = JitRuntime.start(EXEC, compiler, 1);
+        try {
+            // the only worker is busy, so the L1 request stays queued until L2 supersedes it
+            runtime.pool().compile(CompilationLevel.L1, TestMethod.of());
+            final var method = TestMethod.of();
+            final var l1 = runtime.pool().compile(CompilationLevel.L1, method);
+            final var l2 = runtime.pool().compile(CompilationLevel.L2, method);
+            release.countDown();
+
+            assertSame(l2.get(), l1.get());
+            assertEquals(CompilationLevel.L2, runtime.compiledInfo(method.id(), l1.get()).compilationLevel);
+        } finally {
+            runtime.stop();
+        }
+    }
+
+    @Test
+    @Timeout(5)
+    void failed_compilation_at_deadline_is_reported() {
+        final var calls = new AtomicInteger();
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("compiler crashed");
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return compile_l1(method);
+            }
+        };
+        final var runtime = JitRuntime.start(EXEC, compiler, 2);
+        try {
+            // never started: the test thread calls executeMethod directly
+            final var thread = new SolutionThread(2, EXEC, compiler, null);
+            final var method = TestMethod.of();
+            final var thrown = assertThrows(IllegalStateException.class, () -> {
+                for (int i = 0; i < 10_000; i++) {
+                    thread.executeMethod(method);
+                }
+            });
+            assertTrue(thrown.getMessage().contains("deadline"), thrown.getMessage());
+            assertEquals("compiler crashed", thrown.getCause().getMessage());
+            // L1 failed, L2 was requested once more at the deadline, neither is compiled again
+            assertEquals(2, calls.get());
+        } finally {
+            runtime.stop();
+        }
+    }
+}
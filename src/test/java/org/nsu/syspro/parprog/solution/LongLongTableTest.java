@@ -0,0 +1,113 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class LongLongTableTest {
+
+    @Test
+    void behaves_like_map_of_counters() {
+        final var table = new LongLongTable();
+        final Map<Long, Long> reference = new HashMap<>();
+
+        final var random = ThreadLocalRandom.current();
+        for (int i = 0; i < 100_000; i++) {
+            // small key range forces collisions and repeated increments, includes 0 and negative keys
+            final long key = random.nextLong(-500, 500);
+            final long before = table.getAndIncrement(key);
+            assertEquals(reference.getOrDefault(key, 0L), before);
+            reference.merge(key, 1L, Long::sum);
+        }
+
+        assertEquals(reference.size(), table.size());
+        reference.forEach((k, v) -> assertEquals(v, table.get(k)));
+        table.forEach((k, v) -> assertEquals(reference.get(k), v));
+        assertFalse(table.containsKey(1_000));
+        assertEquals(0, table.get(1_000));
+    }
+
+    @Test
+    void put_and_clear() {
+        final var table = new LongLongTable(1);
+        table.put(0, 7);
+        table.put(Long.MIN_VALUE, 8);
+        table.put(Long.MAX_VALUE, 9);
+        assertEquals(3, table.size());
+        assertEquals(7, table.get(0));
+        assertEquals(8, table.get(Long.MIN_VALUE));
+        assertEquals(18, table.addAndGet(Long.MAX_VALUE, 9));
+
+        table.clear();
+        assertTrue(table.isEmpty());
+        assertFalse(table.containsKey(0));
+        assertEquals(0, table.get(Long.MAX_VALUE));
+    }
+
+    @Test
+    void put_survives_growth() {
+        final var table = new LongLongTable(1);
+        for (long key = 1; key <= 1_000; key++) {
+            table.put(key, -key);
+        }
+        assertEquals(1_000, table.size());
+        for (long key = 1; key <= 1_000; key++) {
+            assertEquals(-key, table.get(key));
+        }
+    }
+
+    @Test
+    void remove_behaves_like_map() {
+        final var table = new LongLongTable();
+        final Map<Long, Long> reference = new HashMap<>();
+
+        final var random = ThreadLocalRandom.current();
+        for (int i = 0; i < 100_000; i++) {
+            // dense key range makes long probe chains which removal must not break
+            final long key = random.nextLong(-200, 200);
+            if (random.nextBoolean()) {
+                table.put(key, i);
+                reference.put(key, (long) i);
+            } else {
+                assertEquals(reference.getOrDefault(key, 0L), table.remove(key));
+                reference.remove(key);
+            }
+            assertEquals(reference.size(), table.size());
+        }
+
+        reference.forEach((k, v) -> assertEquals(v, table.get(k)));
+        table.forEach((k, v) -> assertEquals(reference.get(k), v));
+    }
+
+    @Test
+    void increment_does_not_allocate_in_steady_state() {
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final int methods = 50;
+        final var table = new LongLongTable();
+        // warm-up: all keys are inserted, the table reached its final capacity
+        for (int i = 0; i < 200_000; i++) {
+            table.getAndIncrement(1_000 + (i % methods));
+        }
+
+        final int calls = 1_000_000;
+        long sink = 0;
+        final long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < calls; i++) {
+            sink += table.getAndIncrement(1_000 + (i % methods));
+        }
+        final long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(sink > 0);
+        // one boxed key per call would be ~16 MB
+        assertTrue(allocated < 1024, "bytes allocated by " + calls + " calls: " + allocated);
+    }
+}
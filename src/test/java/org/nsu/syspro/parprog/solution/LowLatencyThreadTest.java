@@ -0,0 +1,135 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.helpers.LatencyHarness;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LowLatencyThreadTest extends TestLevels {
+    private static final long SLOW_L1_MILLIS = 300;
+
+    @Override
+    public TestEnvironment testEnvironment() {
+        // free execution, so measured latency is dispatch overhead; compilations are slow
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofMillis(SLOW_L1_MILLIS),
+                Duration.ofMillis(1_000)
+        );
+    }
+
+    @Test
+    void compilation_thread_bound_is_taken_from_runtime() {
+        final ExecutionEngine exec = new ExecutionEngine() {
+            @Override
+            public ExecutionResult interpret(MethodID id) {
+                return null;
+            }
+
+            @Override
+            public ExecutionResult execute(CompiledMethod method) {
+                return null;
+            }
+        };
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return () -> method;
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> new LowLatencyThread(exec, compiler, null));
+
+        final var runtime = JitRuntime.start(exec, compiler, 5);
+        try {
+            assertEquals(5, new LowLatencyThread(exec, compiler, null).compilationThreadBound);
+        } finally {
+            runtime.stop();
+        }
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(10)
+    void overhead_does_not_depend_on_compilation_time() throws InterruptedException {
+        final var env = testEnvironment().withUserThreads(LowLatencyThread::new).withoutProgressChecks();
+        final var methods = LatencyHarness.methods(4);
+
+        final var histogram = LatencyHarness.run(env, methods, 20_000);
+        assertTrue(histogram.percentileNanos(1) < TimeUnit.MILLISECONDS.toNanos(SLOW_L1_MILLIS) / 4, histogram.toString());
+
+        // requests were still submitted, published code is picked up without waiting
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (env.counter(TestEnvironment.EventType.L1_COMPILATION_END) < methods.size() && System.nanoTime() < deadline) {
+            TestLevels.sleepNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        final long executed = env.counter(TestEnvironment.EventType.L1_EXECUTED);
+        LatencyHarness.run(env, methods, 1);
+        assertEquals(executed + methods.size(), env.counter(TestEnvironment.EventType.L1_EXECUTED));
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(10)
+    void rejected_requests_are_made_again() throws InterruptedException {
+        // one queued request per lane: most of the first requests are rejected by admission control
+        System.setProperty(CompilationThreadPool.Admission.CAPACITY_PROPERTY, "1");
+        final TestEnvironment env;
+        try {
+            env = testEnvironment().withUserThreads(LowLatencyThread::new).withoutProgressChecks();
+        } finally {
+            System.clearProperty(CompilationThreadPool.Admission.CAPACITY_PROPERTY);
+        }
+        final var methods = LatencyHarness.methods(8);
+
+        SolutionThread.useDefaultPolicy(new ThresholdPolicy(0, Long.MAX_VALUE));
+        try {
+            env.startSeparateUserThread(() -> {
+                while (env.counter(TestEnvironment.EventType.L1_COMPILATION_END) < methods.size()) {
+                    for (TestMethod method : methods) {
+                        env.checkedExec(method);
+                    }
+                    TestLevels.sleepNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+
+        assertTrue(env.runtime().metrics().requestsRejected(SolutionThread.CompilationLevel.L1) > 0);
+        assertEquals(methods.size(), env.counter(TestEnvironment.EventType.L1_COMPILATION_END));
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(10)
+    void request_pump_stops_with_runtime() throws InterruptedException {
+        final var env = testEnvironment().withUserThreads(LowLatencyThread::new).withoutProgressChecks();
+        LatencyHarness.run(env, LatencyHarness.methods(1), 1);
+        final Thread pump = env.runtime().requestPump().thread();
+        assertNotNull(pump, "started by the first thread");
+        assertTrue(pump.getName().startsWith(env.runtime().name()));
+
+        env.terminate(1);
+        pump.join(TimeUnit.SECONDS.toMillis(1));
+        assertFalse(pump.isAlive());
+    }
+}
@@ -0,0 +1,79 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodInternerTest {
+
+    @Test
+    void slots_are_dense_and_stable_across_growth() {
+        final var interner = new MethodInterner();
+        final int METHODS = 10_000;
+        for (int i = 0; i < METHODS; i++) {
+            // id 0 is the free-cell marker of the table, negative ids are valid as well
+            assertEquals(i, interner.slotOf(i - 5_000L));
+        }
+        for (int i = 0; i < METHODS; i++) {
+            assertEquals(i, interner.slotOf(i - 5_000L));
+            assertEquals(i - 5_000L, interner.idOf(i));
+        }
+        assertEquals(METHODS, interner.size());
+    }
+
+    @Test
+    @Timeout(2)
+    void concurrent_interning_assigns_one_slot_per_method() throws Exception {
+        final var interner = new MethodInterner();
+        final int THREADS = 4;
+        final int METHODS = 5_000;
+        // coprime with METHODS, so every thread visits every method once
+        final int[] strides = {1, 3, 7, 11};
+        final var start = new CyclicBarrier(THREADS);
+        final int[][] seen = new int[THREADS][METHODS];
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                for (int m = 0; m < METHODS; m++) {
+                    // different threads meet the same methods in different order
+                    final int method = (m * strides[thread]) % METHODS;
+                    seen[thread][method] = interner.slotOf(method * 31L);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(METHODS, interner.size());
+        for (int m = 0; m < METHODS; m++) {
+            for (int t = 1; t < THREADS; t++) {
+                assertEquals(seen[0][m], seen[t][m]);
+            }
+            assertEquals(m * 31L, interner.idOf(seen[0][m]));
+        }
+    }
+
+    @Test
+    void dense_array_reads_zero_past_its_end() {
+        final var array = new DenseLongArray();
+        assertEquals(0, array.get(1_000_000));
+        assertEquals(0, array.getAndIncrement(1_000_000));
+        assertEquals(11, array.addAndGet(1_000_000, 10));
+        array.put(3, 7);
+        assertEquals(7, array.get(3));
+        assertEquals(0, array.get(4));
+    }
+}
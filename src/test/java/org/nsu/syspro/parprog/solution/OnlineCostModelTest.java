@@ -0,0 +1,205 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.CostModelPolicy.Objective;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OnlineCostModelTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    private static MethodProfile profile(long methodID, long invocations, CompilationLevel requested) {
+        return new MethodProfile().update(methodID, invocations, invocations, 0, System.nanoTime(), null, requested);
+    }
+
+    private static void measure(OnlineCostModel model, long methodID, double interpret, double l1, double l2,
+                                double compileL1, double compileL2) {
+        model.recordExecution(methodID, null, (long) interpret);
+        model.recordExecution(methodID, CompilationLevel.L1, (long) l1);
+        model.recordExecution(methodID, CompilationLevel.L2, (long) l2);
+        model.recordCompilation(methodID, CompilationLevel.L1, (long) compileL1);
+        model.recordCompilation(methodID, CompilationLevel.L2, (long) compileL2);
+    }
+
+    @Test
+    void method_estimates_fall_back_to_global_then_to_priors() {
+        final var model = new OnlineCostModel();
+        assertEquals(100, model.interpretNanos(1));
+        assertEquals(50, model.executeNanos(1, CompilationLevel.L1));
+        assertEquals(1_000_000, model.compileNanos(1, CompilationLevel.L2));
+
+        model.recordExecution(1, null, 1_000);
+        assertEquals(1_000, model.interpretNanos(2), "global estimate");
+        assertEquals(100, model.executeNanos(2, CompilationLevel.L2), "prior relative to measured interpretation");
+
+        model.recordExecution(2, null, 3_000);
+        assertEquals(3_000, model.interpretNanos(2));
+        // moving average of the global estimate
+        assertEquals(1_000 + (3_000 - 1_000) / 8.0, model.interpretNanos(3));
+    }
+
+    @Test
+    void skips_l1_which_does_not_pay() {
+        final var model = new OnlineCostModel();
+        measure(model, 1, 100, 95, 10, 1_000, 5_000);
+        final var policy = new CostModelPolicy(model, Objective.CPU_TIME);
+        assertEquals(CompilationLevel.L2, policy.decide(profile(1, 64, null)));
+    }
+
+    @Test
+    void stops_at_l1_when_l2_does_not_pay() {
+        final var model = new OnlineCostModel();
+        measure(model, 1, 100, 10, 9, 1_000, 1_000_000_000);
+        final var policy = new CostModelPolicy(model, Objective.CPU_TIME);
+        assertEquals(CompilationLevel.L1, policy.decide(profile(1, 64, null)));
+        assertNull(policy.decide(profile(1, 1 << 20, CompilationLevel.L1)));
+    }
+
+    @Test
+    void keeps_interpreting_when_compiled_code_is_not_faster() {
+        final var model = new OnlineCostModel();
+        measure(model, 1, 100, 100, 100, 0, 0);
+        assertNull(new CostModelPolicy(model, Objective.WALL_CLOCK).decide(profile(1, 1 << 20, null)));
+    }
+
+    @Test
+    void thread_samples_are_its_own_until_published() {
+        final var interner = new MethodInterner();
+        final var model = new OnlineCostModel(interner);
+        final var recorder = model.recorder();
+        final int[] slots = {interner.slotOf(1)};
+
+        recorder.record(slots[0], null, 1_000);
+        assertEquals(1_000, recorder.interpretNanos(1));
+        assertEquals(100, model.interpretNanos(1), "prior until published");
+        assertEquals(100, recorder.executeNanos(1, CompilationLevel.L2), "prior relative to own interpretation");
+
+        recorder.publish(slots, 1);
+        assertEquals(1_000, model.interpretNanos(1));
+        assertEquals(1_000, model.recorder().interpretNanos(2), "global estimate of another thread");
+        assertEquals(1, model.executionSamples());
+        recorder.publish(slots, 1);
+        assertEquals(1, model.executionSamples(), "published once");
+
+        model.recordCompilation(1, CompilationLevel.L2, 50_000);
+        assertEquals(50_000, recorder.compileNanos(1, CompilationLevel.L2));
+        assertEquals(50_000, recorder.compileNanos(2, CompilationLevel.L2));
+    }
+
+    @Test
+    void publications_of_threads_are_merged_into_global_estimate() {
+        final var interner = new MethodInterner();
+        final var model = new OnlineCostModel(interner);
+        final var busy = model.recorder();
+        final var idle = model.recorder();
+        final int[] slots = {interner.slotOf(1), interner.slotOf(2)};
+
+        for (int i = 0; i < 8; i++) {
+            busy.record(slots[0], null, 1_000);
+        }
+        busy.publish(slots, 1);
+        assertEquals(1_000, model.interpretNanos(3));
+
+        idle.record(slots[1], null, 9_000);
+        idle.publish(slots, 2);
+        assertEquals(1_000 + (9_000 - 1_000) / 8.0, model.interpretNanos(3), "a single sample does not overwrite");
+        assertEquals(9, model.executionSamples());
+
+        model.recordExecution(1, null, 2_000);
+        assertEquals(2_000, model.interpretNanos(3), "record merges with published samples");
+        assertEquals(10, model.executionSamples());
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void thread_samples_executions_and_goes_straight_to_l2() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+
+        // measured costs depend on the machine and on other tests, decisions are checked with fixed ones
+        SolutionThread.useDefaultPolicy(new CostModelPolicy(CostModel.fixed(100, 95, 10, 0, 0), Objective.WALL_CLOCK));
+        try {
+            env.startSeparateUserThread(() -> {
+                // far below any threshold: only free compilation makes it worth compiling
+                for (int i = 0; i < 2_000; i++) {
+                    env.checkedExec(method);
+                    if (i % 200 == 0) {
+                        TestLevels.sleepNanos(1_000_000);
+                    }
+                }
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+
+        // samples are published with the first hotness flush, after 1024 calls
+        assertTrue(env.runtime().costModel().executionSamples() >= 1_024 / SolutionThread.COST_SAMPLE_INTERVAL);
+        assertTrue(env.counter(TestEnvironment.EventType.L2_EXECUTED) > 0);
+        assertEquals(0, env.counter(TestEnvironment.EventType.L1_EXECUTED));
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void wall_clock_objective_compiles_top_tier_early() throws InterruptedException {
+        // L1 code is as slow as interpretation, L2 is fast and quick to compile
+        final var env = new TestEnvironment(
+                Duration.ofNanos(200_000),
+                Duration.ofNanos(200_000),
+                Duration.ofNanos(0),
+                Duration.ofMillis(1),
+                Duration.ofMillis(2)
+        );
+        final var l1Method = TestMethod.of();
+        final var l2Method = TestMethod.of();
+        final var method = TestMethod.of();
+        final var runtime = env.runtime();
+
+        // everything the policy knows is measured in this runtime: compile times by warm-up compilations,
+        // execution times of tiers by the thread itself
+        runtime.useProfile(new TieringProfile(List.of(
+                new TieringProfile.Entry(l1Method.id(), CompilationLevel.L1, 1),
+                new TieringProfile.Entry(l2Method.id(), CompilationLevel.L2, 1))));
+        runtime.warmUp(id -> id == l1Method.id() ? l1Method : id == l2Method.id() ? l2Method : null);
+        while (runtime.codeCacheSize() < 2) {
+            TestLevels.sleepNanos(100_000);
+        }
+        SolutionThread.useDefaultPolicy(CostModelPolicy.online(Objective.WALL_CLOCK));
+        try {
+            env.startSeparateUserThread(() -> {
+                env.checkedExec(l1Method);
+                env.checkedExec(l2Method);
+                // far below any threshold: only measured costs make it worth compiling
+                for (int i = 0; i < 1_000; i++) {
+                    env.checkedExec(method);
+                }
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+
+        assertTrue(env.counter(TestEnvironment.EventType.L2_EXECUTED) > 1, runtime.costModel().report());
+        assertEquals(1, env.counter(TestEnvironment.EventType.L1_EXECUTED), "only the warmed up L1 method");
+        env.terminate(1);
+    }
+}
@@ -0,0 +1,367 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of tiered compilation in virtual time, for comparing {@link TieringPolicy}s over long
+ * horizons without sleeping through engine costs.
+ * <br>
+ * The model follows {@link SolutionThread}: every user thread counts invocations per method (lifetime counts for
+ * deadlines, counts decayed by {@link HotnessDecay} in virtual time for the policy), consults the policy
+ * after every invocation which is not yet at L2 and requests the decided tier; requests of all threads are
+ * deduplicated per method and tier (`CPU-bound-compilation`) and served hottest first, urgent first, by at most
+ * {@code compilationThreadBound} compilations at a time (`Thread-bound-compilation`); L2 supersedes a queued L1 of the
+ * same method. Compiled code is visible to every thread from its next invocation on (`Weak-global-caching`). Before
+ * an invocation which would break `Eventual-per-thread-progress-*` the thread requests the tier urgently and waits.
+ * Execution and compilation take the time given by a {@link CostModel}, waiting takes no CPU.
+ * <br>
+ * Deadlines are {@link SolutionThread#deadlineLevel} and the policy sees a {@link MethodProfile} on the virtual
+ * clock, so the tiering decisions are those of {@link SolutionThread}; the scheduling around them is modelled.
+ * <br>
+ * Events are ordered by virtual time, ties by creation order, and the workload is drawn from seeded generators, so a
+ * run is a pure function of its arguments.
+ * <br>
+ * Simplifications: global hotness is exact (no flush delay), methods do not call each other, compilation threads
+ * never preempt user threads (unbounded CPUs), the queue does not age requests and has no admission limit.
+ * <br>
+ * Weak point: the scheduling is a model of its own, not {@link org.nsu.syspro.parprog.CompilationThreadPool} run on a
+ * virtual clock. Besides the above, compilation lanes, coalescing, the adaptive worker scaler and code caches are not
+ * simulated and changes to them are not reflected here, so results compare policies with each other and do not
+ * predict the throughput of the runtime; replay a recorded trace with
+ * {@link org.nsu.syspro.parprog.helpers.TraceReplayer} for that.
+ */
+public final class PolicySimulator {
+    private static final int STEP = 0;
+    private static final int COMPILED = 1;
+
+    /**
+     * Each of {@code threads} user threads makes {@code invocationsPerThread} invocations of {@code methods} methods
+     * drawn from a Zipf distribution: method {@code k} is called with probability proportional to
+     * {@code 1 / (k + 1)^zipfExponent}, so 0 means uniform.
+     */
+    public record Workload(int threads, int methods, long invocationsPerThread, double zipfExponent, long seed) {
+        public Workload {
+            if (threads <= 0 || methods <= 0 || invocationsPerThread < 0 || zipfExponent < 0) {
+                throw new IllegalArgumentException("Invalid workload: " + this);
+            }
+        }
+    }
+
+    /**
+     * @param makespanNanos    virtual time when the last user thread finished
+     * @param executionNanos   time user threads spent executing, excluding waits
+     * @param deadlineWaits    number of times a thread waited for compilation at a deadline
+     * @param waitedNanos      total time threads spent in these waits
+     */
+    public record Result(long makespanNanos, long invocations, long executionNanos,
+                         long interpreted, long l1Executed, long l2Executed,
+                         long l1Compilations, long l2Compilations,
+                         long deadlineWaits, long waitedNanos) {
+        public double invocationsPerSecond() {
+            return invocations * 1e9 / Math.max(1, makespanNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("makespan = %.3f ms, %.0f invocations/s, execution = %.3f ms%n" +
+                            "tiers: interpreted = %d, l1 = %d, l2 = %d%n" +
+                            "compilations: l1 = %d, l2 = %d, deadline waits = %d (%.3f ms)",
+                    makespanNanos / 1e6, invocationsPerSecond(), executionNanos / 1e6,
+                    interpreted, l1Executed, l2Executed, l1Compilations, l2Compilations,
+                    deadlineWaits, waitedNanos / 1e6);
+        }
+    }
+
+    private record Event(long time, long seq, int kind, int target, int level) {
+    }
+
+    private static final class Request {
+        final int method;
+        final long seq;
+        int level;
+        double rate;
+        boolean urgent;
+
+        Request(int method, int level, double rate, boolean urgent, long seq) {
+            this.method = method;
+            this.level = level;
+            this.rate = rate;
+            this.urgent = urgent;
+            this.seq = seq;
+        }
+    }
+
+    private final class SimulatedThread {
+        final SplittableRandom random;
+        final MethodProfile profile = new MethodProfile(() -> now, costs);
+        // indexed by method, levels are ordinal + 1
+        final DenseLongArray invocations = new DenseLongArray();
+        final DenseLongArray recentInvocations = new DenseLongArray();
+        final DenseLongArray recentEpoch = new DenseLongArray();
+        final DenseLongArray firstSeenNanos = new DenseLongArray();
+        final DenseLongArray level = new DenseLongArray();
+        final DenseLongArray requestedLevel = new DenseLongArray();
+        long remaining;
+        int pendingMethod = -1; // drawn before a deadline wait, invoked after it
+        long waitingSince;
+
+        SimulatedThread(long seed, long invocations) {
+            this.random = new SplittableRandom(seed);
+            this.remaining = invocations;
+        }
+    }
+
+    private final CostModel costs;
+    private final int compilationThreadBound;
+    private final HotnessDecay decay;
+
+    // state of one run
+    private long now;
+    private long seq;
+    private PriorityQueue<Event> events;
+    private PriorityQueue<Request> queue;
+    private double[] cdf;
+    private SimulatedThread[] threads;
+    private byte[] published;
+    private byte[] compiling;
+    // level requested while a lower one was compiling, requested again when it completes
+    private byte[] wanted;
+    private double[] wantedRate;
+    private boolean[] wantedUrgent;
+    private Request[] queued;
+    private long[] globalInvocations;
+    private long[] globalEpoch;
+    private List<List<Integer>> waiters;
+    private int idleCompilers;
+    private long[] executed;
+    private long[] compilations;
+    private long makespan;
+    private long executionNanos;
+    private long deadlineWaits;
+    private long waitedNanos;
+
+    public PolicySimulator(CostModel costs, int compilationThreadBound) {
+        this(costs, compilationThreadBound, HotnessDecay.configured());
+    }
+
+    public PolicySimulator(CostModel costs, int compilationThreadBound, HotnessDecay decay) {
+        if (compilationThreadBound <= 0) {
+            throw new IllegalArgumentException("Compilation thread bound must be positive: " + compilationThreadBound);
+        }
+        this.costs = costs;
+        this.compilationThreadBound = compilationThreadBound;
+        this.decay = decay;
+    }
+
+    public synchronized Result run(TieringPolicy policy, Workload workload) {
+        reset(workload);
+        while (!events.isEmpty()) {
+            final Event event = events.poll();
+            now = event.time;
+            if (event.kind == STEP) {
+                step(policy, event.target);
+            } else {
+                compiled(event.target, event.level);
+            }
+        }
+        return new Result(makespan, workload.threads() * workload.invocationsPerThread(), executionNanos,
+                executed[0], executed[1], executed[2], compilations[1], compilations[2], deadlineWaits, waitedNanos);
+    }
+
+    private void reset(Workload workload) {
+        now = 0;
+        seq = 0;
+        events = new PriorityQueue<>(Comparator.comparingLong(Event::time).thenComparingLong(Event::seq));
+        // urgent first, then hottest, then oldest
+        queue = new PriorityQueue<>(Comparator.comparing((Request r) -> !r.urgent)
+                .thenComparing(Comparator.comparingDouble((Request r) -> r.rate).reversed())
+                .thenComparingLong(r -> r.seq));
+        final int methods = workload.methods();
+        cdf = new double[methods];
+        double total = 0;
+        for (int k = 0; k < methods; k++) {
+            total += 1 / Math.pow(k + 1, workload.zipfExponent());
+            cdf[k] = total;
+        }
+        for (int k = 0; k < methods; k++) {
+            cdf[k] /= total;
+        }
+        published = new byte[methods];
+        compiling = new byte[methods];
+        wanted = new byte[methods];
+        wantedRate = new double[methods];
+        wantedUrgent = new boolean[methods];
+        queued = new Request[methods];
+        globalInvocations = new long[methods];
+        globalEpoch = new long[methods];
+        waiters = new ArrayList<>(methods);
+        for (int k = 0; k < methods; k++) {
+            waiters.add(new ArrayList<>());
+        }
+        idleCompilers = compilationThreadBound;
+        executed = new long[3];
+        compilations = new long[3];
+        makespan = 0;
+        executionNanos = 0;
+        deadlineWaits = 0;
+        waitedNanos = 0;
+
+        final SplittableRandom seeds = new SplittableRandom(workload.seed());
+        threads = new SimulatedThread[workload.threads()];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new SimulatedThread(seeds.nextLong(), workload.invocationsPerThread());
+            schedule(0, STEP, t, 0);
+        }
+    }
+
+    private void schedule(long time, int kind, int target, int level) {
+        events.add(new Event(time, seq++, kind, target, level));
+    }
+
+    private void step(TieringPolicy policy, int t) {
+        final SimulatedThread thread = threads[t];
+        if (thread.remaining == 0) {
+            makespan = Math.max(makespan, now);
+            return;
+        }
+        int method = thread.pendingMethod;
+        if (method < 0) {
+            method = draw(thread.random);
+        } else {
+            waitedNanos += now - thread.waitingSince;
+            thread.pendingMethod = -1;
+        }
+
+        final long local = thread.invocations.get(method);
+        final int level = (int) Math.max(thread.level.get(method), published[method]);
+        final int deadlineLevel = SolutionThread.deadlineLevel(local);
+        if (level < deadlineLevel) {
+            // urgent requests are ordered by age only
+            request(method, (int) Math.max(thread.requestedLevel.get(method), deadlineLevel), 0, true);
+            thread.requestedLevel.put(method, Math.max(thread.requestedLevel.get(method), deadlineLevel));
+            thread.pendingMethod = method;
+            thread.waitingSince = now;
+            deadlineWaits++;
+            waiters.get(method).add(t);
+            return;
+        }
+
+        if (local == 0) {
+            thread.firstSeenNanos.put(method, now);
+        }
+        thread.level.put(method, level);
+        thread.remaining--;
+        executed[level]++;
+        final long cost = Math.round(level == 0
+                ? costs.interpretNanos(method)
+                : costs.executeNanos(method, SolutionThread.levelOf(level)));
+        executionNanos += cost;
+        now += cost;
+        thread.invocations.put(method, local + 1);
+        final long epoch = decay.epochAt(now);
+        final long recent = HotnessDecay.decay(thread.recentInvocations.get(method), thread.recentEpoch.get(method),
+                epoch) + 1;
+        thread.recentInvocations.put(method, recent);
+        thread.recentEpoch.put(method, epoch);
+        globalInvocations[method] = HotnessDecay.decay(globalInvocations[method], globalEpoch[method], epoch) + 1;
+        globalEpoch[method] = epoch;
+
+        final long requested = Math.max(thread.requestedLevel.get(method), level);
+        if (requested < 2) {
+            thread.profile.update(method, local + 1, recent, globalInvocations[method], thread.firstSeenNanos.get(method),
+                    SolutionThread.levelOf(level), SolutionThread.levelOf(requested));
+            final CompilationLevel decided = policy.decide(thread.profile);
+            if (decided != null && decided.ordinal() + 1 > requested) {
+                request(method, decided.ordinal() + 1, thread.profile.invocationRate(), false);
+                thread.requestedLevel.put(method, decided.ordinal() + 1);
+            }
+        }
+        schedule(now, STEP, t, 0);
+    }
+
+    private int draw(SplittableRandom random) {
+        final int k = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(k >= 0 ? k : -k - 1, cdf.length - 1);
+    }
+
+    private void request(int method, int level, double rate, boolean urgent) {
+        if (published[method] >= level) {
+            return;
+        }
+        if (compiling[method] != 0) {
+            // a request of the compiling level (or lower) is served by the running compilation
+            if (compiling[method] < level) {
+                wanted[method] = (byte) Math.max(wanted[method], level);
+                wantedRate[method] = Math.max(wantedRate[method], rate);
+                wantedUrgent[method] |= urgent;
+            }
+            return;
+        }
+        final Request pending = queued[method];
+        if (pending != null) {
+            if (pending.level >= level && (!urgent || pending.urgent) && pending.rate >= rate) {
+                return;
+            }
+            // supersede, pin or move forward: the queue is ordered on insertion
+            queue.remove(pending);
+            pending.level = Math.max(pending.level, level);
+            pending.urgent |= urgent;
+            pending.rate = Math.max(pending.rate, rate);
+            queue.add(pending);
+        } else {
+            final Request created = new Request(method, level, rate, urgent, seq++);
+            queued[method] = created;
+            queue.add(created);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (idleCompilers > 0 && !queue.isEmpty()) {
+            final Request next = queue.poll();
+            queued[next.method] = null;
+            compiling[next.method] = (byte) next.level;
+            idleCompilers--;
+            compilations[next.level]++;
+            final long cost = Math.round(costs.compileNanos(next.method, SolutionThread.levelOf(next.level)));
+            schedule(now + cost, COMPILED, next.method, next.level);
+        }
+    }
+
+    private void compiled(int method, int level) {
+        published[method] = (byte) Math.max(published[method], level);
+        compiling[method] = 0;
+        idleCompilers++;
+
+        final List<Integer> waiting = waiters.get(method);
+        for (int i = 0; i < waiting.size(); ) {
+            final int t = waiting.get(i);
+            final SimulatedThread thread = threads[t];
+            final long local = thread.invocations.get(method);
+            final int deadlineLevel = SolutionThread.deadlineLevel(local);
+            if (published[method] >= deadlineLevel) {
+                waiting.set(i, waiting.get(waiting.size() - 1));
+                waiting.remove(waiting.size() - 1);
+                schedule(now, STEP, t, 0);
+            } else {
+                i++;
+            }
+        }
+
+        if (wanted[method] > published[method]) {
+            final int next = wanted[method];
+            wanted[method] = 0;
+            request(method, next, wantedRate[method], wantedUrgent[method]);
+            wantedRate[method] = 0;
+            wantedUrgent[method] = false;
+        }
+        dispatch();
+    }
+}
@@ -0,0 +1,60 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolicySimulatorTest {
+    // costs of HardTest: compilation is orders of magnitude slower than execution
+    private static final CostModel COSTS = CostModel.fixed(1_000, 100, 10,
+            TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(100));
+
+    @Test
+    @Timeout(5)
+    void runs_are_reproducible() {
+        final var workload = new PolicySimulator.Workload(8, 100, 50_000, 1.0, 42);
+        final var first = new PolicySimulator(COSTS, 2).run(RatePolicy.DEFAULT, workload);
+        final var second = new PolicySimulator(COSTS, 2).run(RatePolicy.DEFAULT, workload);
+        assertEquals(first, second);
+
+        final var reseeded = new PolicySimulator(COSTS, 2).run(RatePolicy.DEFAULT,
+                new PolicySimulator.Workload(8, 100, 50_000, 1.0, 43));
+        assertNotEquals(first, reseeded);
+    }
+
+    @Test
+    @Timeout(5)
+    void deadlines_are_kept_without_any_policy() {
+        final var workload = new PolicySimulator.Workload(4, 2, 200_001, 0, 1);
+        final var result = new PolicySimulator(COSTS, 2).run(profile -> null, workload);
+
+        assertEquals(4 * 200_001, result.interpreted() + result.l1Executed() + result.l2Executed());
+        assertTrue(result.l2Executed() > 0, result.toString());
+        // `CPU-bound-compilation`: every method is compiled once per tier
+        assertEquals(2, result.l1Compilations());
+        assertEquals(2, result.l2Compilations());
+        assertTrue(result.deadlineWaits() >= 4, result.toString());
+        assertTrue(result.waitedNanos() >= TimeUnit.MILLISECONDS.toNanos(110), result.toString());
+        assertTrue(result.makespanNanos() >= result.waitedNanos() / 4);
+    }
+
+    @Test
+    @Timeout(10)
+    void long_horizon_compares_policies() {
+        // 2M invocations over 1000 threads and 1000 methods: minutes of real time with sleeping engines
+        final var workload = new PolicySimulator.Workload(1_000, 1_000, 2_000, 1.1, 7);
+        // every thread runs for ~2 ms of virtual time, so compilation must be cheaper to pay off
+        final var simulator = new PolicySimulator(CostModel.fixed(1_000, 100, 10,
+                TimeUnit.MICROSECONDS.toNanos(20), TimeUnit.MICROSECONDS.toNanos(200)), 4);
+
+        final var interpreter = simulator.run(profile -> null, workload);
+        final var eager = simulator.run(new ThresholdPolicy(100, 1_000), workload);
+        assertEquals(0, interpreter.l1Compilations() + interpreter.l2Compilations());
+        assertEquals(workload.threads() * workload.invocationsPerThread(), interpreter.interpreted());
+        assertTrue(eager.executionNanos() < interpreter.executionNanos(), eager + "\n" + interpreter);
+        assertTrue(eager.l2Executed() > 0, eager.toString());
+    }
+}
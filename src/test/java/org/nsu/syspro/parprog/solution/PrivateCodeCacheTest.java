@@ -0,0 +1,212 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.external.*;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompiledMethodInfo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrivateCodeCacheTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    private static CompiledMethodInfo info(CompilationLevel level) {
+        final TestMethod method = TestMethod.of();
+        final CompiledMethod code = () -> method;
+        return new CompiledMethodInfo(code, level);
+    }
+
+    @Test
+    void evicts_methods_not_used_since_last_sweep() {
+        final var cache = new PrivateCodeCache(CodeCacheBudget.ofEntries(3));
+        cache.install(1, info(CompilationLevel.L1));
+        cache.install(2, info(CompilationLevel.L1));
+        cache.install(3, info(CompilationLevel.L1));
+
+        // first sweep clears all reference bits and evicts 1, then only 3 is used again
+        assertEquals(1, cache.install(4, info(CompilationLevel.L1)));
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(3));
+        assertEquals(1, cache.install(5, info(CompilationLevel.L1)));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(3));
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.evictions());
+    }
+
+    @Test
+    void byte_budget_accounts_tiers_and_upgrades() {
+        final var cache = new PrivateCodeCache(CodeCacheBudget.ofBytes(10, 2, 5));
+        cache.install(1, info(CompilationLevel.L1));
+        cache.install(2, info(CompilationLevel.L1));
+        cache.install(3, info(CompilationLevel.L1));
+        assertEquals(6, cache.bytes());
+
+        assertEquals(0, cache.install(2, info(CompilationLevel.L1)));
+        assertEquals(0, cache.install(2, info(CompilationLevel.L2)));
+        assertEquals(CompilationLevel.L2, cache.get(2).compilationLevel);
+        assertEquals(9, cache.bytes());
+
+        // upgraded method itself is never the victim
+        assertEquals(1, cache.install(1, info(CompilationLevel.L2)));
+        assertEquals(CompilationLevel.L2, cache.get(1).compilationLevel);
+        assertTrue(cache.bytes() <= 10);
+
+        // refresh upgrades only cached methods and never downgrades them
+        final var l2 = info(CompilationLevel.L2);
+        cache.refresh(Map.of(1, info(CompilationLevel.L1), 3, l2, 4, l2)::get);
+        assertTrue(cache.bytes() <= 10);
+        assertNull(cache.get(4));
+        assertEquals(2, cache.size());
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void tiny_cache_keeps_monotonicity() throws InterruptedException {
+        final var env = testEnvironment();
+        final List<TestMethod> methods = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            methods.add(TestMethod.of());
+        }
+        SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(2));
+        try {
+            env.startSeparateUserThread(() -> {
+                // checkedExec fails on any downgrade caused by eviction
+                for (int i = 0; i < 12_000; i++) {
+                    for (TestMethod method : methods) {
+                        env.checkedExec(method);
+                    }
+                }
+            }).join();
+        } finally {
+            SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(4096));
+        }
+
+        assertTrue(env.runtime().metrics().cacheEvictions() > 0, "evictions are counted per runtime");
+        assertEquals(env.runtime().metrics().cacheEvictions(),
+                env.runtime().metrics().getCounters().get("cache.evictions"));
+        assertTrue(env.counter(TestEnvironment.EventType.L1_EXECUTED) + env.counter(TestEnvironment.EventType.L2_EXECUTED) > 0);
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void tiny_global_cache_keeps_monotonicity() throws InterruptedException {
+        final List<TestMethod> methods = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            methods.add(TestMethod.of());
+        }
+
+        // before the runtime is started: the global snapshot is bounded too, so evicted code comes from the pool
+        SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(2));
+        final TestEnvironment env;
+        try {
+            env = testEnvironment();
+            for (int t = 0; t < 2; t++) {
+                env.startSeparateUserThread(() -> {
+                    // checkedExec fails on any downgrade caused by eviction
+                    for (int i = 0; i < 12_000; i++) {
+                        for (TestMethod method : methods) {
+                            env.checkedExec(method);
+                        }
+                    }
+                });
+            }
+        } finally {
+            SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(4096));
+        }
+        final JitRuntime runtime = env.runtime();
+        env.terminate(2);
+
+        assertTrue(runtime.codeCacheSize() <= 2, runtime.report());
+        assertFalse(runtime.report().contains("(0 evicted)"), runtime.report());
+        assertTrue(env.counter(TestEnvironment.EventType.L1_EXECUTED) > 0);
+    }
+
+    @Test
+    @Timeout(5)
+    void inline_entry_upgraded_by_refresh_survives_global_eviction() {
+        final Map<Long, Integer> interpreted = new ConcurrentHashMap<>();
+        final ExecutionResult result = new ExecutionResult() {
+        };
+        final ExecutionEngine exec = new ExecutionEngine() {
+            @Override
+            public ExecutionResult interpret(MethodID id) {
+                interpreted.merge(id.id(), 1, Integer::sum);
+                return result;
+            }
+
+            @Override
+            public ExecutionResult execute(CompiledMethod method) {
+                return result;
+            }
+        };
+        final CompilationEngine compiler = new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                return () -> method;
+            }
+        };
+
+        SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(1));
+        final JitRuntime runtime;
+        try {
+            runtime = JitRuntime.start(exec, compiler, 4);
+        } finally {
+            SolutionThread.useCodeCacheBudget(CodeCacheBudget.ofEntries(4096));
+        }
+        try {
+            // never started: the test thread calls executeMethod directly, far below any threshold
+            final var thread = new SolutionThread(4, exec, compiler, null);
+            final var method = TestMethod.of();
+            thread.executeMethod(method);
+
+            // compiled elsewhere: the next invocation upgrades the inline cache entry from the new snapshot
+            final CompiledMethod code = () -> method;
+            runtime.publish(method.id(), new CompiledMethodInfo(code, CompilationLevel.L2));
+            thread.executeMethod(method);
+            assertEquals(1, interpreted.get(method.id()));
+
+            // the entry rotates out of the inline cache, the global snapshot evicts the method
+            for (int i = 0; i < InlineCache.ENTRIES; i++) {
+                thread.executeMethod(TestMethod.of());
+            }
+            final var other = TestMethod.of();
+            final CompiledMethod otherCode = () -> other;
+            runtime.publish(other.id(), new CompiledMethodInfo(otherCode, CompilationLevel.L1));
+            assertNull(runtime.snapshot().get(runtime.interner().slotOf(method.id())), runtime.report());
+
+            thread.executeMethod(method);
+            assertEquals(1, interpreted.get(method.id()), "`Per-thread-monotonicity`: L2 code was executed before");
+        } finally {
+            runtime.stop();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.nsu.syspro.parprog.external.*;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation of {@link SolutionThread#executeMethod} once every method is compiled by L2 and installed, with engines
+ * which do not allocate, like the dispatch benchmark.
+ */
+public class SteadyStateAllocationTest {
+    // a few objects, e.g. of the JIT compiling the measured loop; one per cost sample alone would be ~250 KiB
+    private static final long ALLOWED_BYTES = 4 * 1024;
+    private static final int CALLS = 1_000_000;
+
+    private static final ExecutionResult RESULT = new ExecutionResult() {
+    };
+
+    private final ExecutionEngine exec = new ExecutionEngine() {
+        @Override
+        public ExecutionResult interpret(MethodID id) {
+            return RESULT;
+        }
+
+        @Override
+        public ExecutionResult execute(CompiledMethod method) {
+            return RESULT;
+        }
+    };
+
+    private final CompilationEngine compiler = new CompilationEngine() {
+        @Override
+        public CompiledMethod compile_l1(MethodID method) {
+            return () -> method;
+        }
+
+        @Override
+        public CompiledMethod compile_l2(MethodID method) {
+            return () -> method;
+        }
+    };
+
+    private com.sun.management.ThreadMXBean threads;
+    private JitRuntime runtime;
+
+    @BeforeEach
+    void start() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        runtime = JitRuntime.start(exec, compiler, 4);
+    }
+
+    @AfterEach
+    void stop() {
+        runtime.stop();
+    }
+
+    private static MethodID[] methods(int count) {
+        final MethodID[] methods = new MethodID[count];
+        for (int i = 0; i < count; i++) {
+            final long id = 1_000 + i;
+            methods[i] = () -> id;
+        }
+        return methods;
+    }
+
+    /**
+     * Thread object is never started: the test thread calls {@code executeMethod} directly.
+     *
+     * @return bytes allocated by {@code calls} invocations round-robin over {@code methods} after the warm-up
+     */
+    private long allocatedInSteadyState(MethodID[] methods) throws InterruptedException {
+        final var thread = new SolutionThread(4, exec, compiler, null);
+        // past L2 deadline: every method is compiled by L2 and installed before the last warm-up call returns
+        for (int i = 0; i < 100_001; i++) {
+            for (MethodID method : methods) {
+                thread.executeMethod(method);
+            }
+        }
+        assertEquals(methods.length, runtime.codeCacheSize());
+        // code published by completion callbacks and the first refresh of the private cache
+        Thread.sleep(50);
+        for (int i = 0; i < CALLS; i++) {
+            thread.executeMethod(methods[i % methods.length]);
+        }
+
+        final long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) {
+            thread.executeMethod(methods[i % methods.length]);
+        }
+        return threads.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    @Test
+    @Timeout(30)
+    void execute_method_does_not_allocate_in_steady_state() throws InterruptedException {
+        final long allocated = allocatedInSteadyState(methods(1));
+        assertTrue(allocated < ALLOWED_BYTES, "bytes allocated by " + CALLS + " calls: " + allocated);
+        assertTrue(runtime.costModel().executionSamples() >= CALLS / SolutionThread.COST_SAMPLE_INTERVAL,
+                "sampled executions were measured");
+    }
+
+    @Test
+    @Timeout(30)
+    void hotness_of_working_set_is_counted_without_allocation() throws InterruptedException {
+        // more methods than the inline cache holds: every call goes through the interner, and every flush updates
+        // global hotness of 50 methods
+        final long allocated = allocatedInSteadyState(methods(50));
+        assertTrue(allocated < ALLOWED_BYTES, "bytes allocated by " + CALLS + " calls: " + allocated);
+    }
+}
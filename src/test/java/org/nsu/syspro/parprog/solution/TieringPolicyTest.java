@@ -0,0 +1,175 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieringPolicyTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    private static MethodProfile profile(long invocations, long globalInvocations, CompilationLevel requested) {
+        // first seen one second ago
+        return new MethodProfile().update(1, invocations, invocations, globalInvocations,
+                System.nanoTime() - 1_000_000_000L, null, requested);
+    }
+
+    @Test
+    void threshold_policy_uses_local_or_global_hotness() {
+        final var policy = ThresholdPolicy.DEFAULT;
+        assertNull(policy.decide(profile(9_000, 0, null)));
+        assertEquals(CompilationLevel.L1, policy.decide(profile(9_001, 0, null)));
+        assertEquals(CompilationLevel.L1, policy.decide(profile(1, 9_001, null)));
+        assertEquals(CompilationLevel.L2, policy.decide(profile(5_000, 90_001, null)));
+        assertThrows(IllegalArgumentException.class, () -> new ThresholdPolicy(10, 5));
+    }
+
+    @Test
+    void rate_policy_compiles_fast_callers_early() {
+        final var policy = new RatePolicy(64, 1_000, 100_000);
+        assertNull(policy.decide(profile(32, 0, null)), "not enough samples");
+        assertNull(policy.decide(profile(65, 0, null)), "between samples");
+        assertNull(policy.decide(profile(512, 0, null)), "512 calls per second is slow");
+        assertEquals(CompilationLevel.L1, policy.decide(profile(2_048, 0, null)));
+        assertEquals(CompilationLevel.L2, policy.decide(profile(1 << 20, 0, null)));
+    }
+
+    @Test
+    void cost_model_policy_requests_tier_which_pays_off() {
+        // L1 pays off after 1_000_000 / (100 - 50) = 20_000 invocations, L2 after 100_000_000 / (100 - 10) ~ 1.1M
+        final var model = CostModel.fixed(100, 50, 10, 1_000_000, 100_000_000);
+        final var policy = new CostModelPolicy(model, 1);
+        assertNull(policy.decide(profile(16_384, 0, null)));
+        assertEquals(CompilationLevel.L1, policy.decide(profile(32_768, 0, null)));
+        // once L1 is requested, L2 must beat L1 code: 100_000_000 / (50 - 10) = 2.5M
+        assertNull(policy.decide(profile(2_097_152, 0, CompilationLevel.L1)));
+        assertEquals(CompilationLevel.L2, policy.decide(profile(4_194_304, 0, CompilationLevel.L1)));
+        // compilation takes no CPU from the thread, but no code arrives before 10_000 / 1M more interpretations
+        final var wallClock = new CostModelPolicy(model, CostModelPolicy.Objective.WALL_CLOCK);
+        assertEquals(CompilationLevel.L2, new CostModelPolicy(model, 0).decide(profile(64, 0, null)));
+        assertNull(wallClock.decide(profile(64, 0, null)));
+        assertEquals(CompilationLevel.L1, wallClock.decide(profile(32_768, 0, null)));
+        assertEquals(CompilationLevel.L2, wallClock.decide(profile(4_194_304, 0, null)));
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void progress_is_guaranteed_by_thread_not_by_policy() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+
+        SolutionThread.useDefaultPolicy(profile -> null);
+        try {
+            env.startSeparateUserThread(() -> {
+                // checkedExec fails if the thread is not compiled by the deadlines
+                for (int i = 0; i < 100_001; i++) {
+                    env.checkedExec(method);
+                }
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+
+        assertTrue(env.counter(TestEnvironment.EventType.L2_EXECUTED) > 0);
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void start_up_hotness_decays() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+        final var startUpOver = new long[1];
+
+        SolutionThread.useHotnessDecay(HotnessDecay.halfLife(20, TimeUnit.MILLISECONDS));
+        try {
+            env.startSeparateUserThread(() -> {
+                // below L1 threshold during start-up, above it in total
+                for (int i = 0; i < 7_000; i++) {
+                    env.checkedExec(method);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < 2_500; i++) {
+                    env.checkedExec(method);
+                }
+                startUpOver[0] = env.counter(TestEnvironment.EventType.L1_COMPILATION_START);
+                // `Eventual-per-thread-progress-1` counts every invocation
+                for (int i = 0; i < 501; i++) {
+                    env.checkedExec(method);
+                }
+            }).join();
+        } finally {
+            SolutionThread.useHotnessDecay(HotnessDecay.configured());
+        }
+
+        assertEquals(0, startUpOver[0], "cold method is not compiled by the policy");
+        assertEquals(1, env.counter(TestEnvironment.EventType.L1_COMPILATION_START));
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void decay_follows_the_clock_between_flushes() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+        final var recentAfterPause = new long[]{-1};
+
+        SolutionThread.useHotnessDecay(HotnessDecay.halfLife(20, TimeUnit.MILLISECONDS));
+        SolutionThread.useDefaultPolicy(profile -> {
+            if (profile.invocations() == 4_097) {
+                recentAfterPause[0] = profile.recentInvocations();
+            }
+            return null;
+        });
+        try {
+            env.startSeparateUserThread(() -> {
+                for (int i = 0; i < 4_096; i++) {
+                    env.checkedExec(method);
+                }
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                // no flush since the pause: the sampled invocation alone refreshes the epoch
+                env.checkedExec(method);
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+            SolutionThread.useHotnessDecay(HotnessDecay.configured());
+        }
+
+        assertTrue(recentAfterPause[0] >= 1 && recentAfterPause[0] < 4_096 >> 5,
+                "recent invocations after ten half-lives: " + recentAfterPause[0]);
+        env.terminate(1);
+    }
+
+    @Test
+    void decay_is_off_by_default() {
+        assertSame(HotnessDecay.NONE, HotnessDecay.configured());
+    }
+}
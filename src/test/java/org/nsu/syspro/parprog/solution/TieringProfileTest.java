@@ -0,0 +1,165 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.junit.jupiter.api.io.TempDir;
+import org.nsu.syspro.parprog.CompilationThreadPool;
+import org.nsu.syspro.parprog.external.CompilationEngine;
+import org.nsu.syspro.parprog.external.CompiledMethod;
+import org.nsu.syspro.parprog.external.MethodID;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+import org.nsu.syspro.parprog.solution.SolutionThread.CompilationLevel;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieringProfileTest extends TestLevels {
+    @Override
+    public TestEnvironment testEnvironment() {
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0)
+        );
+    }
+
+    @Test
+    void dump_and_load_round_trip(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("jit.profile");
+        assertEquals(0, TieringProfile.load(file).size());
+
+        new TieringProfile(List.of(
+                new TieringProfile.Entry(7, CompilationLevel.L1, 10_000),
+                new TieringProfile.Entry(0, CompilationLevel.L2, 500_000),
+                new TieringProfile.Entry(-3, CompilationLevel.L1, 20_000)
+        )).dump(file);
+
+        final TieringProfile loaded = TieringProfile.load(file);
+        assertEquals(3, loaded.size());
+        assertEquals(0, loaded.entries().get(0).methodID); // hottest first
+        assertEquals(CompilationLevel.L2, loaded.tierOf(0));
+        assertEquals(CompilationLevel.L1, loaded.tierOf(-3));
+        assertEquals(10_000, loaded.hotnessOf(7));
+        assertNull(loaded.tierOf(42));
+        assertFalse(Files.exists(dir.resolve("jit.profile.tmp")));
+    }
+
+    @Test
+    void corrupted_profile_is_rejected(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("jit.profile");
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        assertThrows(IOException.class, () -> TieringProfile.load(file));
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(2)
+    void profiled_method_is_compiled_on_first_invocation() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+        env.runtime().useProfile(new TieringProfile(List.of(
+                new TieringProfile.Entry(method.id(), CompilationLevel.L2, 1_000_000))));
+        env.startSeparateUserThread(() -> {
+            // far below L1 threshold: only the profile can trigger compilation
+            for (int i = 0; i < 100; i++) {
+                env.checkedExec(method);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).join();
+
+        assertTrue(env.counter(TestEnvironment.EventType.L2_EXECUTED) > 0);
+        env.terminate(1);
+    }
+
+    @Test
+    @Timeout(2)
+    void warm_up_requests_methods_known_to_resolver() throws Exception {
+        final var known = TestMethod.of();
+        final var profile = new TieringProfile(List.of(
+                new TieringProfile.Entry(known.id(), CompilationLevel.L1, 10),
+                new TieringProfile.Entry(known.id() + 1_000_000, CompilationLevel.L2, 20)));
+        final var compiled = new CountDownLatch(1);
+        final var pool = new CompilationThreadPool(new CompilationEngine() {
+            @Override
+            public CompiledMethod compile_l1(MethodID method) {
+                return () -> method;
+            }
+
+            @Override
+            public CompiledMethod compile_l2(MethodID method) {
+                throw new AssertionError("not known to the resolver: " + method.id());
+            }
+        }, 2);
+        try {
+            assertEquals(1, profile.warmUp(pool, id -> id == known.id() ? known : null, (entry, code) -> {
+                assertEquals(known.id(), entry.methodID);
+                assertSame(known, code.id());
+                compiled.countDown();
+            }));
+            compiled.await();
+            assertTrue(pool.compile(CompilationLevel.L1, known).isDone(), "warmed up code is reused by requests");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(2)
+    void warmed_method_is_served_from_code_cache_on_first_call() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+        final var runtime = env.runtime();
+        runtime.useProfile(new TieringProfile(List.of(
+                new TieringProfile.Entry(method.id(), CompilationLevel.L2, 1_000_000))));
+
+        assertEquals(1, runtime.warmUp(id -> id == method.id() ? method : null));
+        while (runtime.codeCacheSize() == 0) {
+            TestLevels.sleepNanos(100_000);
+        }
+        env.startSeparateUserThread(() -> env.checkedExec(method)).join();
+
+        assertEquals(1, env.counter(TestEnvironment.EventType.L2_EXECUTED));
+        assertEquals(0, env.counter(TestEnvironment.EventType.INTERPRETED));
+        env.terminate(1);
+    }
+
+    @EnabledIf("easyEnabled")
+    @Test
+    @Timeout(5)
+    void runtime_persists_profile_for_the_next_run(@TempDir Path dir) throws IOException, InterruptedException {
+        final Path file = dir.resolve("jit.profile");
+        final var method = TestMethod.of();
+
+        final var first = testEnvironment();
+        first.runtime().persistProfile(file, Duration.ZERO);
+        assertEquals(0, first.runtime().warmStartProfile().size(), "no profile yet");
+        first.startSeparateUserThread(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                first.checkedExec(method);
+            }
+        }).join();
+        assertFalse(Files.exists(file), "dumped on stop");
+        first.terminate(1);
+
+        final var second = testEnvironment();
+        second.runtime().persistProfile(file, Duration.ZERO);
+        assertNotNull(second.runtime().warmStartProfile().tierOf(method.id()));
+        second.terminate(1);
+    }
+}
@@ -0,0 +1,113 @@
+package org.nsu.syspro.parprog.solution;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.nsu.syspro.parprog.helpers.LatencyHarness;
+import org.nsu.syspro.parprog.helpers.TestEnvironment;
+import org.nsu.syspro.parprog.helpers.TestEnvironment.EventType;
+import org.nsu.syspro.parprog.helpers.TestEnvironment.Overhead;
+import org.nsu.syspro.parprog.helpers.TestLevels;
+import org.nsu.syspro.parprog.helpers.TestMethod;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorstCaseLatencyTest extends TestLevels {
+    private static final long SLOW_L1_MILLIS = 300;
+    // far below compilation time, far above scheduling noise of a loaded machine
+    private static final Duration BOUND = Duration.ofMillis(SLOW_L1_MILLIS / 4);
+
+    @Override
+    public TestEnvironment testEnvironment() {
+        // free execution, so measured overheads are dispatch work; compilations are slow
+        return new TestEnvironment(
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofNanos(0),
+                Duration.ofMillis(SLOW_L1_MILLIS),
+                Duration.ofMillis(1_000)
+        );
+    }
+
+    @EnabledIf("hardEnabled")
+    @Test
+    @Timeout(10)
+    void solution_thread_waits_only_after_execution() throws InterruptedException {
+        // `Weak-worst-case-latency`: waiting for compilation at `Eventual-per-thread-progress-1` happens after the method
+        // finished, never between entering executeMethod and the engine call
+        final var env = testEnvironment().withOverheads();
+        final List<TestMethod> methods = LatencyHarness.methods(2);
+        for (int t = 0; t < 2; t++) {
+            env.startSeparateUserThread(() -> {
+                for (int i = 0; i < 10_001; i++) {
+                    for (TestMethod method : methods) {
+                        env.checkedExec(method);
+                    }
+                }
+            });
+        }
+        env.terminate(5);
+
+        env.assertOverhead(Overhead.DISPATCH, 1, BOUND);
+        assertEquals(4 * 10_001, env.overhead(Overhead.DISPATCH).count());
+        assertTrue(env.overhead(Overhead.POST_EXECUTION).maxNanos() > BOUND.toNanos(),
+                "deadline wait is post-execution overhead: " + env.overhead(Overhead.POST_EXECUTION));
+    }
+
+    @EnabledIf("hardEnabled")
+    @Test
+    @Timeout(10)
+    void low_latency_thread_bounds_both_overheads() throws InterruptedException {
+        // `Strong-worst-case-latency` (execution is free, so the whole executeMethod is overhead)
+        final var env = testEnvironment().withUserThreads(LowLatencyThread::new).withoutProgressChecks().withOverheads();
+        LatencyHarness.run(env, LatencyHarness.methods(4), 20_000);
+
+        env.assertOverhead(Overhead.DISPATCH, 1, BOUND);
+        env.assertOverhead(Overhead.POST_EXECUTION, 1, BOUND);
+        env.assertOverhead(Overhead.DISPATCH, 0.99, Duration.ofMillis(1));
+        assertEquals(4 * 20_000, env.overhead(Overhead.POST_EXECUTION).count());
+        env.terminate(1);
+    }
+
+    @EnabledIf("hardEnabled")
+    @Test
+    @Timeout(10)
+    void old_code_runs_while_install_is_pending() throws InterruptedException {
+        final var env = testEnvironment();
+        final var method = TestMethod.of();
+        final long calls = 5_000;
+        final long[] whilePending = new long[2];
+
+        SolutionThread.useDefaultPolicy(new ThresholdPolicy(0, 1));
+        try {
+            env.startSeparateUserThread(() -> {
+                while (env.counter(EventType.L1_EXECUTED) == 0) {
+                    env.checkedExec(method);
+                    TestLevels.sleepNanos(1_000_000);
+                }
+                // L2 was requested by the first calls: none of these waits for it
+                for (int i = 0; i < calls; i++) {
+                    env.checkedExec(method);
+                }
+                whilePending[0] = env.counter(EventType.L2_COMPILATION_END);
+                whilePending[1] = env.counter(EventType.L2_EXECUTED);
+                // installed by the first call after the compilation completed
+                while (env.counter(EventType.L2_EXECUTED) == 0) {
+                    env.checkedExec(method);
+                    TestLevels.sleepNanos(1_000_000);
+                }
+            }).join();
+        } finally {
+            SolutionThread.useDefaultPolicy(ThresholdPolicy.DEFAULT);
+        }
+
+        assertEquals(0, whilePending[0], "L2 compilation was still in progress");
+        assertEquals(0, whilePending[1]);
+        assertTrue(env.counter(EventType.L1_EXECUTED) >= calls);
+        assertEquals(1, env.counter(EventType.L2_COMPILATION_START));
+        env.terminate(1);
+    }
+}